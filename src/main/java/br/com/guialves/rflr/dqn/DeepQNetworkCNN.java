@@ -12,6 +12,7 @@ import ai.djl.nn.SequentialBlock;
 import ai.djl.nn.convolutional.Conv2d;
 import ai.djl.nn.core.Linear;
 import ai.djl.training.ParameterStore;
+import br.com.guialves.rflr.telemetry.Stage;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
@@ -86,7 +87,9 @@ public class DeepQNetworkCNN implements AutoCloseable {
     }
 
     public NDList forward(NDList input) {
-        return net.forward(parameterStore, input, training);
+        try (var _ = Stage.FORWARD.begin().target("DeepQNetworkCNN")) {
+            return net.forward(parameterStore, input, training);
+        }
     }
 
     public NDArray forward(NDArray input) {
@@ -10,6 +10,7 @@ import ai.djl.nn.Activation;
 import ai.djl.nn.SequentialBlock;
 import ai.djl.nn.core.Linear;
 import ai.djl.training.ParameterStore;
+import br.com.guialves.rflr.telemetry.Stage;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
@@ -63,7 +64,9 @@ public class DeepQNetworkMLP implements AutoCloseable {
     }
 
     public NDList forward(NDList input) {
-        return net.forward(parameterStore, input, training);
+        try (var _ = Stage.FORWARD.begin().target("DeepQNetworkMLP")) {
+            return net.forward(parameterStore, input, training);
+        }
     }
 
     public NDArray forward(NDArray input) {
@@ -2,30 +2,57 @@ package br.com.guialves.rflr.gymnasium4j;
 
 import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
 import ai.djl.util.Pair;
 import br.com.guialves.rflr.gymnasium4j.utils.ImageFromByteBuffer;
+import br.com.guialves.rflr.python.numpy.NumPyBufferView;
+import br.com.guialves.rflr.telemetry.Stage;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 import org.bytedeco.cpython.PyObject;
+import org.bytedeco.cpython.Py_buffer;
 
 import java.awt.image.BufferedImage;
+import java.lang.foreign.MemorySegment;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import static br.com.guialves.rflr.gymnasium4j.ActionSpaceType.*;
 import static br.com.guialves.rflr.python.PythonDataStructures.*;
 import static br.com.guialves.rflr.python.PythonRuntime.*;
+import static br.com.guialves.rflr.python.numpy.NumPyByteBuffer.copyFromNumpy;
 import static br.com.guialves.rflr.python.numpy.NumPyByteBuffer.fillFromNumpy;
 import static br.com.guialves.rflr.python.numpy.NumPyByteBuffer.onHeapBufferNumpy;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
 
 @Slf4j
 @Accessors(fluent = true)
 public final class Env implements IEnv {
 
     private static final boolean DEBUG = true;
+    /**
+     * Same contract as the Python step, the rewards are summed and the last observation is
+     * max-pooled with the previous one, when asked and the episode didn't end on the first step.
+     */
+    private static final String REPEAT_STEP_PY = """
+            import numpy as np
+            def gymnasium4j_repeat_step(env, action, repeat, max_pool):
+                total, previous = 0.0, None
+                for i in range(repeat):
+                    obs, reward, term, trunc, info = env.step(action)
+                    total += float(reward)
+                    if term or trunc or i == repeat - 1:
+                        break
+                    previous = obs
+                if max_pool and previous is not None:
+                    obs = np.maximum(previous, obs)
+                return obs, total, term, trunc, info
+            """;
     private final NDManager manager;
     @Getter
     private final String varEnvCode;
@@ -37,7 +64,11 @@ public final class Env implements IEnv {
     private final PyObject pyRender;
     private final PyObject pyStep;
     private final PyObject pyReset;
+    private final PyObject pySample;
     private final ActionSpaceType actionSpaceType;
+    private final Py_buffer pyBufferView = new Py_buffer();
+    private final EnvInfo.Schema infoSchema;
+    private PyObject pyRepeatStep;
 
     @Getter
     private boolean closed;
@@ -52,19 +83,30 @@ public final class Env implements IEnv {
         @NonNull String envName,
         @NonNull String generatedScript,
         @NonNull NDManager manager) {
+        this(varEnvCode, envName, generatedScript, manager, new String[0]);
+    }
+
+    Env(@NonNull String varEnvCode,
+        @NonNull String envName,
+        @NonNull String generatedScript,
+        @NonNull NDManager manager,
+        @NonNull String[] infoKeys) {
         initPython();
         this.varEnvCode = varEnvCode;
         this.envName = envName;
         this.manager = manager.newSubManager();
-        exec(generatedScript);
+        execUncached(generatedScript);
 
-        this.pyEnv = eval("env_" + varEnvCode);
+        this.pyEnv = globalVar("env_" + varEnvCode);
         this.pyActionSpace = attr(pyEnv, "action_space");
         this.actionSpaceType = detectActionSpaceType(pyActionSpace);
         this.pyObservationSpace = attr(pyEnv, "observation_space");
         this.pyRender = attr(pyEnv, "render");
         this.pyStep = attr(pyEnv, "step");
         this.pyReset = attr(pyEnv, "reset");
+        // bound once, each call is then a vectorcall without attribute lookup nor argument tuple
+        this.pySample = attr(pyActionSpace, "sample");
+        this.infoSchema = infoKeys.length == 0 ? null : new EnvInfo.Schema(infoKeys);
     }
 
     @Override
@@ -72,6 +114,11 @@ public final class Env implements IEnv {
         return scalarObservation;
     }
 
+    @Override
+    public EnvStateMetadata stateMetadata() {
+        return stateMetadata;
+    }
+
     @Override
     public String actionSpaceStr() {
         return toStr(pyActionSpace);
@@ -89,8 +136,8 @@ public final class Env implements IEnv {
 
     @Override
     public ActionResult actionSpaceSample() {
-        try (var pySample = callMethod(pyActionSpace, "sample")) {
-            return actionSpaceType.convert(pySample);
+        try (var sample = vectorcall(pySample)) {
+            return actionSpaceType.convert(sample);
         }
     }
 
@@ -99,10 +146,10 @@ public final class Env implements IEnv {
         this.stateMetadata = null;
         this.stateBuffer = null;
 
-        try (var result = callFunction(pyReset)) {
+        try (var result = vectorcall(pyReset)) {
 
             var pyState = getItem(result, 0);
-            var infoMap = getItemMap(result, 1);
+            var infoMap = resetInfo(result);
 
             if (!hasAttr(pyState, "shape")) {
                 this.scalarObservation = true;
@@ -116,7 +163,7 @@ public final class Env implements IEnv {
             this.stateMetadata = EnvStateMetadata.fromNumpy(pyState);
             this.stateBuffer = onHeapBufferNumpy(stateMetadata.size());
 
-            fillFromNumpy(pyState, stateBuffer);
+            fillFromNumpy(pyState, stateBuffer, envName);
 
             var state = manager.create(
                     stateBuffer,
@@ -135,41 +182,286 @@ public final class Env implements IEnv {
 
     @Override
     public EnvStepResult step(ActionResult action, NDManager manager) {
-        try (var result = callFunction(pyStep, action.pyObj)) {
-            NDArray state;
+        try (var _ = Stage.ENV_STEP.begin(envName);
+             var result = vectorcall(pyStep, action.pyObj)) {
+            return stepResult(result, manager);
+        }
+    }
 
-            if (scalarObservation) {
-                var pyState = getItem(result, 0);
-                long observationValue = toLong(pyState);
-                state = manager.create(observationValue);
+    /**
+     * Runs the whole action repeat inside a generated Python helper, a single call from Java
+     * whatever {@code repeat} is, instead of the loop of {@link IEnv#repeatStep}.
+     */
+    @Override
+    public EnvStepResult repeatStep(ActionResult action, int repeat, boolean maxPool, NDManager manager) {
+        if (repeat <= 0) {
+            throw new IllegalArgumentException("Repeat must be positive: %d".formatted(repeat));
+        }
+        var pyRepeat = pyLong(repeat);
+        var pyMaxPool = pyBool(maxPool);
+        try (var _ = Stage.ENV_STEP.begin(envName);
+             var result = vectorcall(pyRepeatStep(), pyEnv, action.pyObj, pyRepeat, pyMaxPool)) {
+            return stepResult(result, manager);
+        } finally {
+            decRef(pyRepeat);
+            decRef(pyMaxPool);
+        }
+    }
+
+    /**
+     * {@link #repeatStep(ActionResult, int, boolean, NDManager)} handing the last observation to
+     * {@code observation} as a view of the NumPy array, without any copy. The view is only valid
+     * inside the callback.
+     *
+     * @return reward, flags and info of the steps, without state
+     */
+    public EnvStepResult repeatStep(@NonNull ActionResult action, int repeat, boolean maxPool,
+                                    @NonNull Consumer<NumPyBufferView> observation) {
+        if (repeat <= 0) {
+            throw new IllegalArgumentException("Repeat must be positive: %d".formatted(repeat));
+        }
+        if (stateMetadata == null) {
+            throw new IllegalStateException("You should call reset(Consumer) first!");
+        }
+
+        var pyRepeat = pyLong(repeat);
+        var pyMaxPool = pyBool(maxPool);
+        try (var _ = Stage.ENV_STEP.begin(envName);
+             var result = vectorcall(pyRepeatStep(), pyEnv, action.pyObj, pyRepeat, pyMaxPool)) {
+            try (var view = new NumPyBufferView(getItem(result, 0))) {
+                observation.accept(view);
+            }
+
+            return new EnvStepResult(
+                    getItemDouble(result, 1),
+                    getItemBool(result, 2),
+                    getItemBool(result, 3),
+                    info(result, 4)
+            );
+        } finally {
+            decRef(pyRepeat);
+            decRef(pyMaxPool);
+        }
+    }
+
+    private PyObject pyRepeatStep() {
+        if (pyRepeatStep == null) {
+            // the same source for every env, compiled once
+            exec(REPEAT_STEP_PY);
+            pyRepeatStep = globalVar("gymnasium4j_repeat_step");
+        }
+        return pyRepeatStep;
+    }
+
+    private EnvStepResult stepResult(PyObject result, NDManager manager) {
+        NDArray state;
+
+        if (scalarObservation) {
+            var pyState = getItem(result, 0);
+            long observationValue = toLong(pyState);
+            state = manager.create(observationValue);
+
+            log.debug("Discrete observation after step: {}", observationValue);
+        } else {
+            if (stateMetadata == null) {
+                throw new IllegalStateException("You should call reset() first!");
+            }
+            if (stateBuffer == null) {
+                // reset into a caller's destination doesn't need it
+                stateBuffer = onHeapBufferNumpy(stateMetadata.size());
+            }
+
+            fillFromNumpy(getItem(result, 0), stateBuffer, envName);
+            state = manager.create(
+                    stateBuffer,
+                    stateMetadata.djlShape,
+                    stateMetadata.djlType
+            );
+        }
+
+        double reward = getItemDouble(result, 1);
+        boolean terminated = getItemBool(result, 2);
+        boolean truncated = getItemBool(result, 3);
+        var infoMap = info(result, 4);
+
+        return new EnvStepResult(reward, terminated, truncated, infoMap)
+                .state(state);
+    }
+
+    /**
+     * Reset copying the observation once, straight from the NumPy array into {@code dst}, e.g. the
+     * next row of a replay buffer or of a batch, instead of through a heap buffer and a new tensor.
+     * Scalar observations are written as a single int64.
+     *
+     * @param dst destination of at least {@code stateMetadata().size()} bytes
+     * @return the info dict
+     */
+    public Map<Object, Object> reset(@NonNull MemorySegment dst) {
+        try (var result = vectorcall(pyReset)) {
+            var pyState = getItem(result, 0);
+
+            if (!hasAttr(pyState, "shape")) {
+                this.scalarObservation = true;
+                this.stateMetadata = null;
+                this.stateBuffer = null;
+                dst.set(JAVA_LONG_UNALIGNED, 0, toLong(pyState));
+            } else {
+                this.scalarObservation = false;
+                resetStateMetadata(pyState);
+                copyFromNumpy(pyState, pyBufferView, dst, envName);
+            }
+
+            return resetInfo(result);
+        }
+    }
+
+    /**
+     * Like {@link #reset()}, the observation of a new episode may have another shape, e.g. after
+     * the env options changed; the heap buffer of {@link #step(ActionResult)} is made again.
+     */
+    private void resetStateMetadata(PyObject pyState) {
+        this.stateMetadata = EnvStateMetadata.fromNumpy(pyState);
+        this.stateBuffer = null;
+    }
+
+    /**
+     * {@link #reset(MemorySegment)} into the remaining bytes of {@code dst}, its position is unchanged.
+     */
+    public Map<Object, Object> reset(@NonNull ByteBuffer dst) {
+        return reset(MemorySegment.ofBuffer(dst));
+    }
+
+    /**
+     * Reset handing the observation to {@code observation} as a view of the NumPy array, without
+     * any copy. The view is only valid inside the callback.
+     *
+     * @return the info dict
+     */
+    public Map<Object, Object> reset(@NonNull Consumer<NumPyBufferView> observation) {
+        try (var result = vectorcall(pyReset)) {
+            var pyState = getItem(result, 0);
+            if (!hasAttr(pyState, "shape")) {
+                throw new IllegalStateException("The %s observation isn't an array".formatted(envName));
+            }
+
+            this.scalarObservation = false;
+            resetStateMetadata(pyState);
+            try (var view = new NumPyBufferView(pyState)) {
+                observation.accept(view);
+            }
 
-                log.debug("Discrete observation after step: {}", observationValue);
+            return resetInfo(result);
+        }
+    }
+
+    /**
+     * Step copying the observation once, straight from the NumPy array into {@code dst}.
+     *
+     * @param dst destination of at least {@code stateMetadata().size()} bytes
+     * @return reward, flags and info of the step, without state
+     */
+    public EnvStepResult step(@NonNull ActionResult action, @NonNull MemorySegment dst) {
+        try (var _ = Stage.ENV_STEP.begin(envName);
+             var result = vectorcall(pyStep, action.pyObj)) {
+            var pyState = getItem(result, 0);
+            if (scalarObservation) {
+                dst.set(JAVA_LONG_UNALIGNED, 0, toLong(pyState));
+            } else if (stateMetadata == null) {
+                throw new IllegalStateException("You should call reset() first!");
             } else {
-                if (stateBuffer == null) {
-                    throw new IllegalStateException("You should call reset() first!");
-                }
-
-                fillFromNumpy(getItem(result, 0), stateBuffer);
-                state = manager.create(
-                        stateBuffer,
-                        stateMetadata.djlShape,
-                        stateMetadata.djlType
-                );
+                copyFromNumpy(pyState, pyBufferView, dst, envName);
             }
 
-            double reward = getItemDouble(result, 1);
-            boolean terminated = getItemBool(result, 2);
-            boolean truncated = getItemBool(result, 3);
-            var infoMap = getItemMap(result, 4);
+            return new EnvStepResult(
+                    getItemDouble(result, 1),
+                    getItemBool(result, 2),
+                    getItemBool(result, 3),
+                    info(result, 4)
+            );
+        }
+    }
+
+    /**
+     * {@link #step(ActionResult, MemorySegment)} into the remaining bytes of {@code dst}, its position is unchanged.
+     */
+    public EnvStepResult step(@NonNull ActionResult action, @NonNull ByteBuffer dst) {
+        return step(action, MemorySegment.ofBuffer(dst));
+    }
+
+    /**
+     * Preallocate the destination of {@link #stepInto} and {@link #resetInto}, the observation
+     * shape is known after the first {@link #reset()}.
+     *
+     * @param decodeInfo whether to convert the info dict on each step
+     */
+    public EnvStepView newStepView(boolean decodeInfo) {
+        if (!scalarObservation && stateMetadata == null) {
+            throw new IllegalStateException("You should call reset() first!");
+        }
 
-            return new EnvStepResult(reward, terminated, truncated, infoMap)
-                    .state(state);
+        var metadata = scalarObservation ? EnvStateMetadata.of(DataType.INT64) : stateMetadata;
+        return new EnvStepView(metadata, manager, decodeInfo);
+    }
+
+    /**
+     * Allocation-free {@link #reset()}, the observation is copied into the view's state.
+     */
+    public EnvStepView resetInto(@NonNull EnvStepView view) {
+        try (var result = vectorcall(pyReset)) {
+            copyState(getItem(result, 0), view);
+            return view.update(0.0, false, false, view.decodeInfo() ? resetInfo(result) : null);
+        }
+    }
+
+    /**
+     * Allocation-free {@link #step(ActionResult)}, the observation is copied into the view's state
+     * and the previous content of the view is overwritten.
+     */
+    public EnvStepView stepInto(@NonNull ActionResult action, @NonNull EnvStepView view) {
+        try (var _ = Stage.ENV_STEP.begin(envName);
+             var result = vectorcall(pyStep, action.pyObj)) {
+            copyState(getItem(result, 0), view);
+            return view.update(
+                    getItemDouble(result, 1),
+                    getItemBool(result, 2),
+                    getItemBool(result, 3),
+                    view.decodeInfo() ? info(result, 4) : null
+            );
         }
     }
 
+    private void copyState(PyObject pyState, EnvStepView view) {
+        if (scalarObservation) {
+            view.segment.set(JAVA_LONG, 0, toLong(pyState));
+        } else {
+            copyFromNumpy(pyState, pyBufferView, view.segment, envName);
+        }
+    }
+
+    /**
+     * Lazy info when keys are whitelisted in the builder, only those are read from the dict right
+     * away, the converted map otherwise.
+     */
+    private Map<Object, Object> info(PyObject result, int pos) {
+        if (infoSchema == null) {
+            return getItemMap(result, pos);
+        }
+        return new EnvInfo(getItem(result, pos), infoSchema);
+    }
+
+    /**
+     * Reset infos are returned as plain maps nobody closes, so they don't hold the dict.
+     */
+    private Map<Object, Object> resetInfo(PyObject result) {
+        if (infoSchema == null) {
+            return getItemMap(result, 1);
+        }
+        return new EnvInfo(getItem(result, 1), infoSchema, true);
+    }
+
     @Override
     public BufferedImage render() {
-        try (var ndarray = callFunction(pyRender)) {
+        try (var ndarray = vectorcall(pyRender)) {
             if (renderMetadata == null) {
                 renderMetadata = EnvRenderMetadata.fromNumpy(ndarray);
                 imageBuffer = ByteBuffer
@@ -177,7 +469,7 @@ public final class Env implements IEnv {
                         .order(ByteOrder.nativeOrder());
             }
 
-            fillFromNumpy(ndarray, imageBuffer);
+            fillFromNumpy(ndarray, imageBuffer, envName);
 
             return ImageFromByteBuffer.byteBufferToImage(
                     imageBuffer,
@@ -210,9 +502,17 @@ public final class Env implements IEnv {
         decRef(pyRender);
         decRef(pyStep);
         decRef(pyReset);
+        decRef(pySample);
         decRef(pyEnv);
+        pyBufferView.close();
+        if (infoSchema != null) {
+            infoSchema.close();
+        }
+        if (pyRepeatStep != null) {
+            decRef(pyRepeatStep);
+        }
 
-        exec("if 'env_%s' in globals(): del env_%s".formatted(varEnvCode, varEnvCode));
+        delGlobalVar("env_" + varEnvCode);
 
         if (DEBUG) log.info("After close - pyEnv: {}, pyActionSpace: {}, pyObservationSpace: {}, pyRender: {}, pyStep: {}, pyReset: {}",
                     refCount(pyEnv), refCount(pyActionSpace), refCount(pyObservationSpace),
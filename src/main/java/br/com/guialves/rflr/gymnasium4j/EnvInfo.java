@@ -0,0 +1,200 @@
+package br.com.guialves.rflr.gymnasium4j;
+
+import lombok.NonNull;
+import org.bytedeco.cpython.PyObject;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static br.com.guialves.rflr.python.PythonDataStructures.toMap;
+import static br.com.guialves.rflr.python.PythonRuntime.decRef;
+import static br.com.guialves.rflr.python.PythonRuntime.incRef;
+import static br.com.guialves.rflr.python.PythonTypeChecks.isDict;
+import static br.com.guialves.rflr.python.PythonTypeChecks.isPyNull;
+import static org.bytedeco.cpython.global.python.*;
+
+/**
+ * The Gymnasium info dict, converted to Java only when read. Opt-in: envs built without
+ * {@link Gym.EnvBuilder#infoKeys} return the info already converted to a plain map.
+ * <p>
+ * Keys whitelisted with {@link Gym.EnvBuilder#infoKeys} are read on creation into primitive slots,
+ * looked up with interned key objects. The whole dict is converted to a map on the first
+ * {@link Map} access, the Python dict is held until then, or until {@link #close()}, so step
+ * results of these envs must be closed. Infos nobody closes, e.g. the ones returned by a reset,
+ * are converted on creation instead.
+ */
+public final class EnvInfo extends AbstractMap<Object, Object> implements AutoCloseable {
+
+    /**
+     * Key to slot mapping shared by all the infos of an env.
+     */
+    static final class Schema implements AutoCloseable {
+
+        private final String[] keys;
+        private final PyObject[] pyKeys;
+        private final Map<String, Integer> slots;
+
+        Schema(String... keys) {
+            this.keys = keys.clone();
+            this.pyKeys = new PyObject[keys.length];
+            this.slots = new HashMap<>();
+
+            for (int i = 0; i < keys.length; i++) {
+                if (slots.put(keys[i], i) != null) {
+                    throw new IllegalArgumentException("Duplicated info key: %s".formatted(keys[i]));
+                }
+                // interned, so dict lookups compare pointers and reuse the cached hash
+                pyKeys[i] = PyUnicode_InternFromString(keys[i]);
+            }
+        }
+
+        int size() {
+            return keys.length;
+        }
+
+        @Override
+        public void close() {
+            for (var pyKey : pyKeys) {
+                decRef(pyKey);
+            }
+        }
+    }
+
+    private static final Schema EMPTY_SCHEMA = new Schema();
+
+    private final Schema schema;
+    private final double[] values;
+    private PyObject pyInfo;
+    private Map<Object, Object> decoded;
+    private boolean closed;
+
+    EnvInfo(PyObject pyInfo, Schema schema) {
+        this(pyInfo, schema, false);
+    }
+
+    /**
+     * @param eager convert the dict now instead of holding it
+     */
+    EnvInfo(PyObject pyInfo, Schema schema, boolean eager) {
+        this.schema = schema == null ? EMPTY_SCHEMA : schema;
+        this.values = new double[this.schema.size()];
+
+        if (isPyNull(pyInfo) || !isDict(pyInfo)) {
+            this.decoded = Map.of();
+            Arrays.fill(values, Double.NaN);
+            return;
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            var item = PyDict_GetItem(pyInfo, this.schema.pyKeys[i]); // borrowed
+            values[i] = isPyNull(item) ? Double.NaN : toDouble(item);
+        }
+
+        if (eager) {
+            this.decoded = decode(pyInfo);
+        } else {
+            incRef(pyInfo);
+            this.pyInfo = pyInfo;
+        }
+    }
+
+    private static Map<Object, Object> decode(PyObject pyInfo) {
+        Map<Object, Object> map = toMap(pyInfo);
+        return map == null ? Map.of() : Collections.unmodifiableMap(map);
+    }
+
+    private static double toDouble(PyObject item) {
+        double value = PyFloat_AsDouble(item);
+        if (value == -1.0 && !isPyNull(PyErr_Occurred())) {
+            // not a number, only readable from the map
+            PyErr_Clear();
+            return Double.NaN;
+        }
+        return value;
+    }
+
+    /**
+     * @param key one of the whitelisted keys
+     * @return its value, NaN when missing or not a number
+     */
+    public double getDouble(@NonNull String key) {
+        Integer slot = schema.slots.get(key);
+        if (slot == null) {
+            throw new IllegalArgumentException("Info key %s isn't whitelisted in the EnvBuilder".formatted(key));
+        }
+        return values[slot];
+    }
+
+    /**
+     * @param key one of the whitelisted keys, e.g. <code>lives</code> or <code>episode_frame_number</code>
+     */
+    public long getLong(@NonNull String key) {
+        return (long) getDouble(key);
+    }
+
+    /**
+     * Values of the whitelisted keys, in the order they were configured.
+     */
+    public double getDouble(int slot) {
+        return values[slot];
+    }
+
+    private Map<Object, Object> decoded() {
+        if (closed) {
+            throw new IllegalStateException("EnvInfo already closed!");
+        }
+        if (decoded == null) {
+            decoded = decode(pyInfo);
+            releaseDict();
+        }
+        return decoded;
+    }
+
+    /**
+     * Convert the dict now and release it, e.g. on the thread of the interpreter it belongs to.
+     */
+    void decode() {
+        decoded();
+    }
+
+    @Override
+    public Object get(Object key) {
+        return decoded().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return decoded().containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return decoded().size();
+    }
+
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+        return decoded().entrySet();
+    }
+
+    private void releaseDict() {
+        if (pyInfo != null) {
+            decRef(pyInfo);
+            pyInfo = null;
+        }
+    }
+
+    /**
+     * Release the Python dict, an info never read as a map needs it to not hold the dict.
+     * The whitelisted values stay readable, reading the map afterward throws.
+     */
+    @Override
+    public void close() {
+        releaseDict();
+        this.closed = true;
+    }
+}
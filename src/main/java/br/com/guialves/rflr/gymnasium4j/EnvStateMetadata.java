@@ -8,6 +8,7 @@ import lombok.experimental.Accessors;
 import org.bytedeco.cpython.PyObject;
 
 import java.util.Arrays;
+import java.util.Locale;
 
 import static br.com.guialves.rflr.python.PythonDataStructures.*;
 import static br.com.guialves.rflr.python.PythonRuntime.*;
@@ -39,6 +40,23 @@ public class EnvStateMetadata {
                 new Shape(longShape), djlType, size);
     }
 
+    /**
+     * Describe an observation that doesn't come straight from NumPy,
+     * e.g. the stacked frames produced by a preprocessing wrapper.
+     *
+     * @param djlType element type
+     * @param shape observation shape, without the batch dimension
+     * @return metadata with the size in bytes of a single observation
+     */
+    public static EnvStateMetadata of(DataType djlType, int... shape) {
+        long[] longShape = Arrays.stream(shape).mapToLong(i -> i).toArray();
+        int elements = Arrays.stream(shape).reduce(1, Math::multiplyExact);
+        int size = Math.multiplyExact(elements, djlType.getNumOfBytes());
+
+        return new EnvStateMetadata(shape.clone(), djlType.name().toLowerCase(Locale.ROOT),
+                new Shape(longShape), djlType, size);
+    }
+
     EnvStateMetadata(
             int[] shape,
             String dtype,
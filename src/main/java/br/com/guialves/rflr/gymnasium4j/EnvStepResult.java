@@ -28,8 +28,25 @@ public class EnvStepResult implements AutoCloseable {
         return term || trunc;
     }
 
+    /**
+     * @return the info as returned by {@link Env}, to read the keys whitelisted with
+     * {@link Gym.EnvBuilder#infoKeys} without converting the dict, null for other envs
+     */
+    public EnvInfo envInfo() {
+        return info instanceof EnvInfo envInfo ? envInfo : null;
+    }
+
+    /**
+     * Release the state, if any: steps into a caller's destination return no state.
+     * A lazy {@link EnvInfo} never read is released too.
+     */
     @Override
     public void close() {
-        state.close();
+        if (state != null) {
+            state.close();
+        }
+        if (info instanceof EnvInfo envInfo) {
+            envInfo.close();
+        }
     }
 }
@@ -0,0 +1,70 @@
+package br.com.guialves.rflr.gymnasium4j;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Map;
+
+import static br.com.guialves.rflr.python.numpy.NumPyByteBuffer.offHeapBufferNumpy;
+
+/**
+ * Reusable destination of {@link Env#stepInto} and {@link Env#resetInto}, overwritten by each call.
+ * <p>
+ * The state tensor is allocated once over a direct buffer the observations are copied to, so
+ * stepping creates no tensor, no {@link EnvStepResult} and, unless {@code decodeInfo}, no map.
+ * Keep a {@code state().duplicate()} to hold an observation past the next step.
+ */
+@Getter
+@Accessors(fluent = true)
+public final class EnvStepView implements AutoCloseable {
+
+    private final NDArray state;
+    private final boolean decodeInfo;
+    private double reward;
+    private boolean term;
+    private boolean trunc;
+    /**
+     * Null unless {@code decodeInfo}
+     */
+    private Map<Object, Object> info;
+
+    @Getter(AccessLevel.NONE)
+    final MemorySegment segment;
+
+    EnvStepView(EnvStateMetadata metadata, NDManager manager, boolean decodeInfo) {
+        var buffer = offHeapBufferNumpy(metadata.size());
+        this.segment = MemorySegment.ofBuffer(buffer);
+        // a direct buffer backs the tensor on CPU, writes to the segment show up in the state
+        this.state = manager.create(buffer, metadata.djlShape(), metadata.djlType());
+        this.decodeInfo = decodeInfo;
+    }
+
+    EnvStepView update(double reward, boolean term, boolean trunc, Map<Object, Object> info) {
+        closeInfo();
+        this.reward = reward;
+        this.term = term;
+        this.trunc = trunc;
+        this.info = info;
+        return this;
+    }
+
+    public boolean done() {
+        return term || trunc;
+    }
+
+    private void closeInfo() {
+        if (info instanceof EnvInfo envInfo) {
+            envInfo.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        closeInfo();
+        state.close();
+    }
+}
@@ -2,12 +2,14 @@ package br.com.guialves.rflr.gymnasium4j;
 
 import ai.djl.ndarray.NDManager;
 import br.com.guialves.rflr.gymnasium4j.wrappers.IWrapper;
+import br.com.guialves.rflr.python.SubInterpreterPool;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.*;
 
+import static br.com.guialves.rflr.python.PythonRuntime.pythonExecutable;
 import static java.util.stream.Collectors.joining;
 
 @Slf4j
@@ -22,6 +24,18 @@ public class Gym {
                 .build();
     }
 
+    /**
+     * @param numEnvs copies of the environment stepped together
+     */
+    public static VectorEnv makeVector(@NonNull String name,
+                                       int numEnvs,
+                                       @NonNull NDManager ndManager) {
+        return builder()
+                .envName(name)
+                .ndManager(ndManager)
+                .buildVector(numEnvs);
+    }
+
     public static EnvBuilder builder() {
         return new EnvBuilder();
     }
@@ -39,6 +53,8 @@ public class Gym {
         private String envName;
         private PyMap params;
         private NDManager ndManager;
+        private String[] infoKeys;
+        private SubInterpreterPool interpreterPool;
 
         private EnvBuilder() {
             this.varEnvCode = UUID.randomUUID().toString().replace("-", "");
@@ -46,6 +62,7 @@ public class Gym {
             this.importLibs.add("gymnasium as gym");
             this.wrappers = new ArrayList<>();
             this.params = DEFAULT_MAP;
+            this.infoKeys = new String[0];
         }
 
         public EnvBuilder envName(@NonNull String envName) {
@@ -68,6 +85,25 @@ public class Gym {
             return this;
         }
 
+        /**
+         * Info keys read on every step into primitive slots of {@link EnvInfo}, e.g. <code>lives</code>,
+         * the rest of the info dict is only converted when read. The step infos then hold the dict
+         * until read or until the {@link EnvStepResult} is closed. Without keys, every info is
+         * converted to a plain map.
+         */
+        public EnvBuilder infoKeys(@NonNull String... keys) {
+            this.infoKeys = keys.clone();
+            return this;
+        }
+
+        /**
+         * Pool whose sub-interpreters {@link #buildInPool()} creates the env in.
+         */
+        public EnvBuilder interpreterPool(@NonNull SubInterpreterPool interpreterPool) {
+            this.interpreterPool = interpreterPool;
+            return this;
+        }
+
         public EnvBuilder add(@NonNull IWrapper wrapper) {
             wrappers.add(wrapper);
             return this;
@@ -100,6 +136,70 @@ public class Gym {
             """.formatted(importLibsPy, importPy, varEnvCode, makeCall, wrappedEnvPy);
         }
 
+        /**
+         * Same environment and wrappers as {@link #generatePyEnvScript()}, made by a factory
+         * function for each of the sub-environments, plus the array the actions are written to.
+         */
+        String generatePyVectorEnvScript(int numEnvs) {
+            return generatePyVectorEnvScript("""
+                    env_%1$s = gym.vector.SyncVectorEnv([make_env_%1$s] * %2$d, \\
+                    autoreset_mode=gym.vector.AutoresetMode.SAME_STEP)
+                    """.formatted(varEnvCode, numEnvs));
+        }
+
+        /**
+         * Sub-environments run in worker processes and write their observations to shared memory,
+         * returned without copy ({@code copy=False}). Workers are spawned with the Python executable
+         * of the embedded runtime, forking the JVM isn't safe.
+         */
+        String generatePyAsyncVectorEnvScript(int numEnvs) {
+            return generatePyVectorEnvScript("""
+                    import multiprocessing
+                    multiprocessing.set_executable(r'%3$s')
+                    env_%1$s = gym.vector.AsyncVectorEnv([make_env_%1$s] * %2$d, \\
+                    shared_memory=True, copy=False, context='spawn', \\
+                    autoreset_mode=gym.vector.AutoresetMode.SAME_STEP)
+                    """.formatted(varEnvCode, numEnvs, pythonExecutable()));
+        }
+
+        /**
+         * The step helper copies the final observation of each finished sub-environment, which
+         * <code>SAME_STEP</code> only keeps in the info dict, into an array read as a buffer.
+         */
+        private String generatePyVectorEnvScript(String vectorEnvPy) {
+            var nl = System.lineSeparator();
+            var script = new StringBuilder()
+                    .append(generateImportLibsPy()).append(", numpy as np").append(nl)
+                    .append("def make_env_").append(varEnvCode).append("():").append(nl)
+                    // imported again inside, so worker processes register the same environments
+                    .append("    ").append(generateImportLibsPy()).append(nl);
+            if (!wrappers.isEmpty()) {
+                script.append("    ").append(generateImportFromPy()).append(nl);
+            }
+
+            script.append("    env = ").append(generateMakeCall()).append(nl);
+            wrappers.forEach(wrapper -> script.append("    env = ")
+                    .append(wrapper.pyToStr("env"))
+                    .append(nl));
+            script.append("    return env").append(nl);
+
+            return script.append(vectorEnvPy)
+                    .append("actions_%1$s = np.zeros(env_%1$s.action_space.shape, dtype=env_%1$s.action_space.dtype)"
+                            .formatted(varEnvCode))
+                    .append(nl)
+                    .append("""
+                            final_obs_%1$s = np.zeros((env_%1$s.num_envs,) + env_%1$s.single_observation_space.shape, \
+                            dtype=env_%1$s.single_observation_space.dtype)
+                            def step_%1$s(actions):
+                                result = env_%1$s.step(actions)
+                                done = result[4].get('_final_obs')
+                                if done is not None and done.any():
+                                    final_obs_%1$s[done] = np.stack(result[4]['final_obs'][done])
+                                return result
+                            """.formatted(varEnvCode))
+                    .toString();
+        }
+
         private String generateMakeCall() {
             if (params.isEmpty()) {
                 return "gym.make('%s', render_mode='rgb_array')".formatted(envName);
@@ -131,7 +231,61 @@ public class Gym {
         }
 
         public Env build() {
-            return new Env(varEnvCode, envName, generatePyEnvScript(), ndManager);
+            return new Env(varEnvCode, envName, generatePyEnvScript(), ndManager, infoKeys);
+        }
+
+        /**
+         * Creates the env in the next sub-interpreter of the {@link #interpreterPool}, stepping in
+         * parallel with the envs of the other interpreters. Falls back to {@link #build()} on the main
+         * interpreter when there's no pool or the imported modules don't support sub-interpreters,
+         * including the ones only imported by <code>gym.make</code>, e.g. the ALE envs of ale_py.
+         */
+        public IEnv buildInPool() {
+            if (interpreterPool == null || !interpreterPool.supports(importedModules())) {
+                return build();
+            }
+
+            var interpreter = interpreterPool.next();
+            Env env;
+            try {
+                env = interpreter.call(this::build);
+            } catch (Exception e) {
+                log.warn("{} wasn't created in the sub-interpreter {}, building it on the main interpreter: {}",
+                        envName, interpreter.id(), e.getMessage());
+                return build();
+            }
+            return new SubInterpreterEnv(interpreter, env);
+        }
+
+        /**
+         * Modules of the generated imports, e.g. <code>gymnasium</code> for <code>gymnasium as gym</code>.
+         */
+        List<String> importedModules() {
+            var modules = new ArrayList<String>();
+            importLibs.forEach(lib -> modules.add(lib.split(" as ")[0].trim()));
+            if (!wrappers.isEmpty()) {
+                modules.add("gymnasium.wrappers");
+            }
+            return modules;
+        }
+
+        /**
+         * @param numEnvs copies of the environment stepped together by a single Python call
+         */
+        public VectorEnv buildVector(int numEnvs) {
+            return new VectorEnv(varEnvCode, envName, numEnvs, false,
+                    generatePyVectorEnvScript(numEnvs), ndManager);
+        }
+
+        /**
+         * Steps each environment in its own worker process, for CPU-heavy environments.
+         * The observations are read straight from the shared memory the workers write to.
+         *
+         * @param numEnvs copies of the environment, one worker process each
+         */
+        public VectorEnv buildAsyncVector(int numEnvs) {
+            return new VectorEnv(varEnvCode, envName, numEnvs, true,
+                    generatePyAsyncVectorEnvScript(numEnvs), ndManager);
         }
     }
 
@@ -15,6 +15,11 @@ public interface IEnv extends AutoCloseable {
 
     ActionSpaceType actionSpaceType();
 
+    /**
+     * @return shape and dtype of the observations, null before the first reset() or for scalar observations
+     */
+    EnvStateMetadata stateMetadata();
+
     String actionSpaceStr();
 
     String observationSpaceStr();
@@ -27,6 +32,45 @@ public interface IEnv extends AutoCloseable {
 
     EnvStepResult step(ActionSpaceType.ActionResult action, NDManager manager);
 
+    /**
+     * Repeat the action up to {@code repeat} steps, stopping when the episode ends.
+     *
+     * @param maxPool element-wise max of the last two observations, e.g. for Atari flickering
+     * @return the summed reward, the flags and info of the last step and a single observation
+     */
+    default EnvStepResult repeatStep(ActionSpaceType.ActionResult action, int repeat, boolean maxPool, NDManager manager) {
+        if (repeat <= 0) {
+            throw new IllegalArgumentException("Repeat must be positive: %d".formatted(repeat));
+        }
+
+        double reward = 0.0;
+        NDArray previous = null;
+        EnvStepResult result = null;
+        for (int i = 0; i < repeat; i++) {
+            if (result != null) {
+                if (previous != null) previous.close();
+                previous = result.state();
+                if (result.info() instanceof EnvInfo info) info.close();
+            }
+
+            result = step(action, manager);
+            reward += result.reward();
+            if (result.done()) {
+                break;
+            }
+        }
+
+        NDArray state = result.state();
+        if (previous != null) {
+            if (maxPool) {
+                state = previous.maximum(state);
+                result.state().close();
+            }
+            previous.close();
+        }
+        return new EnvStepResult(reward, result.term(), result.trunc(), result.info(), state);
+    }
+
     BufferedImage render();
 
     NDManager manager();
@@ -0,0 +1,52 @@
+package br.com.guialves.rflr.gymnasium4j;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+
+/**
+ * A batch of N copies of the same environment stepped together, see
+ * <a href="https://gymnasium.farama.org/api/vector/">Gymnasium vector API</a>.
+ * <p>
+ * Sub-environments reset themselves when done, the observation returned for them is already
+ * the first one of the next episode.
+ */
+public interface IVectorEnv extends AutoCloseable {
+
+    boolean closed();
+
+    int numEnvs();
+
+    /**
+     * @return action space of a single sub-environment
+     */
+    ActionSpaceType actionSpaceType();
+
+    /**
+     * @return shape and dtype of the observation of a single sub-environment
+     */
+    EnvStateMetadata stateMetadata();
+
+    String actionSpaceStr();
+
+    String observationSpaceStr();
+
+    /**
+     * @return observations (numEnvs, ...) of all sub-environments
+     */
+    NDArray reset();
+
+    /**
+     * @param actions one discrete action per sub-environment
+     */
+    VectorStepResult step(long[] actions);
+
+    /**
+     * @param actions continuous actions of all sub-environments, row-major (numEnvs, ...action shape)
+     */
+    VectorStepResult step(float[] actions);
+
+    NDManager manager();
+
+    @Override
+    void close();
+}
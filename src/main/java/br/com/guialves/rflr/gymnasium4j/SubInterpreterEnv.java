@@ -0,0 +1,148 @@
+package br.com.guialves.rflr.gymnasium4j;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.util.Pair;
+import br.com.guialves.rflr.python.SubInterpreter;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+
+import static br.com.guialves.rflr.gymnasium4j.ActionSpaceType.ActionResult;
+
+/**
+ * An {@link Env} living in a {@link SubInterpreter}, each call runs on the interpreter thread.
+ * <p>
+ * Actions must belong to the same interpreter: take them from {@link #actionSpaceSample()}, or
+ * create them with {@link ActionSpaceType} inside {@link SubInterpreter#call}, e.g. by running the
+ * whole rollout loop there.
+ * <p>
+ * Results hold no object of the interpreter once returned: the info dicts are converted on its
+ * thread, and the sampled actions are read and released there too.
+ */
+@Accessors(fluent = true)
+public final class SubInterpreterEnv implements IEnv {
+
+    @Getter
+    private final SubInterpreter interpreter;
+    private final Env env;
+
+    SubInterpreterEnv(SubInterpreter interpreter, Env env) {
+        this.interpreter = interpreter;
+        this.env = env;
+    }
+
+    @Override
+    public boolean closed() {
+        return env.closed();
+    }
+
+    @Override
+    public boolean scalarObservation() {
+        return env.scalarObservation();
+    }
+
+    @Override
+    public ActionSpaceType actionSpaceType() {
+        return env.actionSpaceType();
+    }
+
+    @Override
+    public EnvStateMetadata stateMetadata() {
+        return env.stateMetadata();
+    }
+
+    @Override
+    public String actionSpaceStr() {
+        return interpreter.call(env::actionSpaceStr);
+    }
+
+    @Override
+    public String observationSpaceStr() {
+        return interpreter.call(env::observationSpaceStr);
+    }
+
+    @Override
+    public ActionResult actionSpaceSample() {
+        return new InterpreterActionResult(interpreter, interpreter.call(env::actionSpaceSample));
+    }
+
+    /**
+     * The info of the reset is already converted by {@link Env#reset()}.
+     */
+    @Override
+    public Pair<NDArray, Map<Object, Object>> reset() {
+        return interpreter.call(env::reset);
+    }
+
+    @Override
+    public EnvStepResult step(ActionResult action) {
+        return interpreter.call(() -> decodeInfo(env.step(action)));
+    }
+
+    @Override
+    public EnvStepResult step(ActionResult action, NDManager manager) {
+        return interpreter.call(() -> decodeInfo(env.step(action, manager)));
+    }
+
+    @Override
+    public EnvStepResult repeatStep(ActionResult action, int repeat, boolean maxPool, NDManager manager) {
+        return interpreter.call(() -> decodeInfo(env.repeatStep(action, repeat, maxPool, manager)));
+    }
+
+    /**
+     * On the interpreter thread, so closing the result on another thread has no dict to release.
+     */
+    private static EnvStepResult decodeInfo(EnvStepResult result) {
+        var info = result.envInfo();
+        if (info != null) {
+            info.decode();
+        }
+        return result;
+    }
+
+    @Override
+    public BufferedImage render() {
+        return interpreter.call(env::render);
+    }
+
+    @Override
+    public NDManager manager() {
+        return env.manager();
+    }
+
+    @Override
+    public void close() {
+        interpreter.run(env::close);
+    }
+
+    /**
+     * A sampled action whose Python object belongs to the interpreter: read and released on its thread.
+     */
+    private static final class InterpreterActionResult extends ActionResult {
+
+        private final SubInterpreter interpreter;
+
+        InterpreterActionResult(SubInterpreter interpreter, ActionResult action) {
+            super(action.pyObj, action.spaceType());
+            this.interpreter = interpreter;
+        }
+
+        @Override
+        public void close() {
+            interpreter.run(super::close);
+        }
+
+        @Override
+        public boolean valid() {
+            return interpreter.call(super::valid);
+        }
+
+        @Override
+        public <T> T value() {
+            return interpreter.call(super::value);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package br.com.guialves.rflr.gymnasium4j;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.Shape;
+import br.com.guialves.rflr.python.numpy.NumPyBufferView;
+import br.com.guialves.rflr.telemetry.Stage;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.cpython.PyObject;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+
+import static br.com.guialves.rflr.gymnasium4j.ActionSpaceType.detectActionSpaceType;
+import static br.com.guialves.rflr.python.PythonDataStructures.getItem;
+import static br.com.guialves.rflr.python.PythonRuntime.*;
+import static br.com.guialves.rflr.python.numpy.NumPyByteBuffer.fillFromNumpy;
+import static br.com.guialves.rflr.python.numpy.NumPyByteBuffer.onHeapBufferNumpy;
+
+/**
+ * N copies of an environment behind a <code>gymnasium.vector.SyncVectorEnv</code>, so a single
+ * call into Python steps all of them, or behind an <code>AsyncVectorEnv</code> stepping each one
+ * in its own worker process.
+ * <p>
+ * Actions are written into a NumPy array owned by this class through a persistent
+ * {@link NumPyBufferView}, so no Python object is built per action. Sub-environments use the
+ * <code>SAME_STEP</code> autoreset mode: a finished sub-environment is reset in the same step
+ * and its row of the observations is already the first one of the next episode. The generated
+ * step helper copies the final observations out of the info dict into an array mapped once, read
+ * into {@link VectorStepResult#finalStates()} only on the steps where an episode ended.
+ * <p>
+ * With shared memory the workers write their observations to a buffer mapped once through a
+ * {@link NumPyBufferView}, and the states returned by {@link #reset()} and {@link #step} are
+ * tensors over that memory instead of copies: they are overwritten by the next step and must
+ * not be used once the env is closed, {@code duplicate()} the ones to keep.
+ * <p>
+ * The info dict isn't decoded, the vectorized one holds NumPy arrays per key.
+ */
+@Slf4j
+@Accessors(fluent = true)
+public final class VectorEnv implements IVectorEnv {
+
+    private final NDManager manager;
+    @Getter
+    private final String varEnvCode;
+    @Getter
+    private final String envName;
+    @Getter
+    private final int numEnvs;
+    private final PyObject pyEnv;
+    private final PyObject pyActionSpace;
+    private final PyObject pyObservationSpace;
+    private final PyObject pyStep;
+    private final PyObject pyReset;
+    private final PyObject pyActions;
+    private final NumPyBufferView actionsView;
+    private final String actionsDtype;
+    private final ActionSpaceType actionSpaceType;
+    private final EnvStateMetadata stateMetadata;
+    private final Shape statesShape;
+    private final ByteBuffer statesBuffer;
+    private final NumPyBufferView observationsView;
+    private final ByteBuffer observations;
+    private final PyObject pyFinalObservations;
+    private final NumPyBufferView finalObservationsView;
+    private final ByteBuffer finalStatesBuffer;
+
+    @Getter
+    private boolean closed;
+    private boolean resetCalled;
+
+    VectorEnv(@NonNull String varEnvCode,
+              @NonNull String envName,
+              int numEnvs,
+              boolean sharedMemory,
+              @NonNull String generatedScript,
+              @NonNull NDManager manager) {
+        if (numEnvs <= 0) {
+            throw new IllegalArgumentException("Number of envs must be positive: %d".formatted(numEnvs));
+        }
+
+        initPython();
+        this.varEnvCode = varEnvCode;
+        this.envName = envName;
+        this.numEnvs = numEnvs;
+        this.manager = manager.newSubManager();
+        execUncached(generatedScript);
+
+        this.pyEnv = globalVar("env_" + varEnvCode);
+        this.pyActionSpace = attr(pyEnv, "single_action_space");
+        this.actionSpaceType = detectActionSpaceType(pyActionSpace);
+        this.pyObservationSpace = attr(pyEnv, "single_observation_space");
+        this.pyStep = globalVar("step_" + varEnvCode);
+        this.pyReset = attr(pyEnv, "reset");
+        this.pyActions = globalVar("actions_" + varEnvCode);
+        this.actionsView = new NumPyBufferView(pyActions);
+        this.actionsDtype = attrStr(pyActions, "dtype");
+
+        // a Space has shape and dtype like the arrays it samples
+        this.stateMetadata = EnvStateMetadata.fromNumpy(pyObservationSpace);
+        this.statesShape = new Shape(numEnvs).addAll(stateMetadata.djlShape());
+        int statesBytes = Math.multiplyExact(numEnvs, stateMetadata.size());
+        this.pyFinalObservations = globalVar("final_obs_" + varEnvCode);
+        this.finalObservationsView = new NumPyBufferView(pyFinalObservations);
+        checkLength(finalObservationsView, statesBytes, "final observations");
+        this.finalStatesBuffer = onHeapBufferNumpy(statesBytes);
+
+        if (sharedMemory) {
+            this.statesBuffer = null;
+            try (var pyObservations = attr(pyEnv, "observations")) {
+                this.observationsView = new NumPyBufferView(pyObservations);
+            }
+            checkLength(observationsView, statesBytes, "shared observations");
+            this.observations = observationsView.duplicate().order(ByteOrder.nativeOrder());
+        } else {
+            this.statesBuffer = onHeapBufferNumpy(statesBytes);
+            this.observationsView = null;
+            this.observations = null;
+        }
+
+        log.info("VectorEnv {} x {}, observation: {} {}, actions: {}, shared memory: {}",
+                envName, numEnvs, stateMetadata.djlShape(), stateMetadata.djlType(), actionsDtype, sharedMemory);
+    }
+
+    @Override
+    public EnvStateMetadata stateMetadata() {
+        return stateMetadata;
+    }
+
+    @Override
+    public ActionSpaceType actionSpaceType() {
+        return actionSpaceType;
+    }
+
+    @Override
+    public String actionSpaceStr() {
+        return toStr(pyActionSpace);
+    }
+
+    @Override
+    public String observationSpaceStr() {
+        return toStr(pyObservationSpace);
+    }
+
+    @Override
+    public NDArray reset() {
+        checkOpen();
+        try (var result = vectorcall(pyReset)) {
+            this.resetCalled = true;
+            return states(getItem(result, 0));
+        }
+    }
+
+    @Override
+    public VectorStepResult step(@NonNull long[] actions) {
+        checkActions(actions.length, Long.BYTES, "int64");
+        actionsView.asLongBuffer().put(0, actions);
+        return step();
+    }
+
+    @Override
+    public VectorStepResult step(@NonNull float[] actions) {
+        checkActions(actions.length, Float.BYTES, "float32");
+        actionsView.asFloatBuffer().put(0, actions);
+        return step();
+    }
+
+    private void checkActions(int length, int bytes, String dtype) {
+        checkOpen();
+        if (!resetCalled) {
+            throw new IllegalStateException("You should call reset() first!");
+        }
+        if (!dtype.equals(actionsDtype) || (long) length * bytes != actionsView.len()) {
+            throw new IllegalArgumentException("Expected %d bytes of %s actions, got %d %s".formatted(
+                    actionsView.len(), actionsDtype, length, dtype));
+        }
+    }
+
+    private VectorStepResult step() {
+        try (var _ = Stage.ENV_STEP.begin(envName);
+             var result = vectorcall(pyStep, pyActions)) {
+            var states = states(getItem(result, 0));
+
+            var rewards = new double[numEnvs];
+            try (var view = new NumPyBufferView(getItem(result, 1))) {
+                checkLength(view, (long) numEnvs * Double.BYTES, "rewards");
+                view.asDoubleBuffer().get(0, rewards);
+            }
+
+            var term = flags(getItem(result, 2), "terminations");
+            var trunc = flags(getItem(result, 3), "truncations");
+            return new VectorStepResult(states, rewards, term, trunc, finalStates(term, trunc));
+        }
+    }
+
+    /**
+     * @return the final observations, null when no sub-environment finished
+     */
+    private NDArray finalStates(boolean[] term, boolean[] trunc) {
+        for (int i = 0; i < numEnvs; i++) {
+            if (term[i] || trunc[i]) {
+                finalStatesBuffer.put(0, finalObservationsView.duplicate(), 0, finalStatesBuffer.capacity());
+                return manager.create(finalStatesBuffer, statesShape, stateMetadata.djlType());
+            }
+        }
+        return null;
+    }
+
+    private NDArray states(PyObject pyStates) {
+        if (observations != null) {
+            // copy=False: the workers already wrote to the shared buffer
+            return manager.create(observations, statesShape, stateMetadata.djlType());
+        }
+
+        fillFromNumpy(pyStates, statesBuffer, envName);
+        return manager.create(statesBuffer, statesShape, stateMetadata.djlType());
+    }
+
+    private boolean[] flags(PyObject pyFlags, String name) {
+        var flags = new boolean[numEnvs];
+        try (var view = new NumPyBufferView(pyFlags)) {
+            checkLength(view, numEnvs, name);
+            for (int i = 0; i < numEnvs; i++) {
+                flags[i] = view.get(i) != 0;
+            }
+        }
+        return flags;
+    }
+
+    private static void checkLength(NumPyBufferView view, long expected, String name) {
+        if (view.len() != expected) {
+            throw new IllegalStateException("Expected %d bytes of %s, got %d".formatted(expected, name, view.len()));
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("VectorEnv already closed!");
+        }
+    }
+
+    @Override
+    public NDManager manager() {
+        return manager;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            log.warn("The env_{} was already closed!", varEnvCode);
+            return;
+        }
+        this.closed = true;
+
+        actionsView.close();
+        finalObservationsView.close();
+        if (observationsView != null) {
+            observationsView.close();
+        }
+        decRef(pyActions);
+        decRef(pyFinalObservations);
+        decRef(pyActionSpace);
+        decRef(pyObservationSpace);
+        decRef(pyStep);
+        decRef(pyReset);
+        decRef(pyEnv);
+
+        exec("""
+                env = globals().pop('env_' + code, None)
+                if env is not None:
+                    env.close()
+                    globals().pop('make_env_' + code, None)
+                    globals().pop('actions_' + code, None)
+                    globals().pop('final_obs_' + code, None)
+                    globals().pop('step_' + code, None)
+                """, Map.of("code", varEnvCode));
+
+        log.info("Closed VectorEnv");
+        manager.close();
+    }
+}
@@ -0,0 +1,55 @@
+package br.com.guialves.rflr.gymnasium4j;
+
+import ai.djl.ndarray.NDArray;
+
+/**
+ * Result of stepping all sub-environments of an {@link IVectorEnv}.
+ *
+ * @param states      (numEnvs, ...) observations, the reset one for the sub-environments that finished
+ * @param rewards     reward of each sub-environment
+ * @param term        terminated flag of each sub-environment
+ * @param trunc       truncated flag of each sub-environment
+ * @param finalStates (numEnvs, ...) last observations of the finished episodes, only the rows in
+ *                    {@link #doneMask()} are set, null when no sub-environment finished
+ */
+public record VectorStepResult(NDArray states,
+                               double[] rewards,
+                               boolean[] term,
+                               boolean[] trunc,
+                               NDArray finalStates) implements AutoCloseable {
+
+    public int size() {
+        return rewards.length;
+    }
+
+    public boolean done(int env) {
+        return term[env] || trunc[env];
+    }
+
+    public boolean[] doneMask() {
+        var mask = new boolean[size()];
+        for (int env = 0; env < mask.length; env++) {
+            mask[env] = done(env);
+        }
+        return mask;
+    }
+
+    /**
+     * @return the last observation of the episode that {@code env} finished, the one to bootstrap
+     * a truncated episode from
+     */
+    public NDArray finalState(int env) {
+        if (!done(env)) {
+            throw new IllegalArgumentException("Sub-environment %d didn't finish".formatted(env));
+        }
+        return finalStates.get(env);
+    }
+
+    @Override
+    public void close() {
+        states.close();
+        if (finalStates != null) {
+            finalStates.close();
+        }
+    }
+}
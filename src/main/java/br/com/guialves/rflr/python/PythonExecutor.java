@@ -0,0 +1,192 @@
+package br.com.guialves.rflr.python;
+
+import io.vavr.CheckedFunction0;
+import io.vavr.CheckedRunnable;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.cpython.PyThreadState;
+
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static br.com.guialves.rflr.python.PythonRuntime.initPython;
+import static org.bytedeco.cpython.global.python.*;
+
+/**
+ * Runs Python work of any thread, virtual ones included, on a single owner thread: callers submit
+ * tasks to a queue and get a {@link CompletableFuture}, the owner drains the queue and runs each
+ * batch under one GIL acquisition, instead of a {@link PythonRuntime#insideGil} handoff per call.
+ * <p>
+ * Created from the thread holding the main interpreter GIL, i.e. the one that called
+ * {@link PythonRuntime#initPython()}, which hands the GIL over until {@link #close()}, called from
+ * that same thread. Meanwhile, other threads reach Python through {@link #submit} or
+ * {@link PythonRuntime#insideGil}.
+ */
+@Slf4j
+public final class PythonExecutor implements AutoCloseable {
+
+    private record Task<R>(CheckedFunction0<R> function, CompletableFuture<R> future) {
+
+        void run() {
+            try {
+                future.complete(function.apply());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final Task<Void> STOP = new Task<>(() -> null, new CompletableFuture<>());
+
+    private final int maxBatch;
+    private final BlockingQueue<Task<?>> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong tasks = new AtomicLong();
+    private final Thread creator;
+    private final PyThreadState creatorState;
+    private final Thread owner;
+    private volatile boolean closed;
+
+    public PythonExecutor() {
+        this(64);
+    }
+
+    /**
+     * @param maxBatch tasks run per GIL acquisition at most, bounding the wait of
+     *                 {@link PythonRuntime#insideGil} callers
+     */
+    public PythonExecutor(int maxBatch) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("Max batch must be positive: %d".formatted(maxBatch));
+        }
+        initPython();
+        if (PyGILState_Check() != 1) {
+            throw new IllegalStateException("The PythonExecutor must be created by the thread holding the GIL");
+        }
+
+        this.maxBatch = maxBatch;
+        this.creator = Thread.currentThread();
+        this.creatorState = PyEval_SaveThread();
+        this.owner = Thread.ofPlatform()
+                .name("python-executor")
+                .daemon()
+                .start(this::loop);
+    }
+
+    private void loop() {
+        // a thread state kept for the whole life of the owner, the GIL is only taken per batch
+        var gstate = PyGILState_Ensure();
+        var threadState = PyEval_SaveThread();
+        var batch = new ArrayList<Task<?>>(maxBatch);
+        var stop = false;
+
+        try {
+            while (!stop) {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - 1);
+
+                PyEval_RestoreThread(threadState);
+                batches.incrementAndGet();
+                try {
+                    for (var task : batch) {
+                        if (task == STOP) {
+                            stop = true;
+                        } else {
+                            tasks.incrementAndGet();
+                            task.run();
+                        }
+                    }
+                } finally {
+                    threadState = PyEval_SaveThread();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            PyEval_RestoreThread(threadState);
+            PyGILState_Release(gstate);
+        }
+    }
+
+    /**
+     * Queue {@code function} to run on the owner thread with the GIL held. Runs right away when
+     * already on that thread, e.g. a task submitting another one.
+     */
+    public <R> CompletableFuture<R> submit(CheckedFunction0<R> function) {
+        var future = new CompletableFuture<R>();
+        var task = new Task<>(function, future);
+        if (onThread()) {
+            task.run();
+            return future;
+        }
+        if (closed) {
+            return CompletableFuture.failedFuture(closedException());
+        }
+
+        queue.add(task);
+        // closed meanwhile: the close may have drained the queue already, when the task is still
+        // there nobody else will complete it, otherwise the owner or the close took it
+        if (closed && queue.remove(task)) {
+            future.completeExceptionally(closedException());
+        }
+        return future;
+    }
+
+    private static IllegalStateException closedException() {
+        return new IllegalStateException("The PythonExecutor is closed");
+    }
+
+    public CompletableFuture<Void> submit(CheckedRunnable runnable) {
+        return submit(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public boolean onThread() {
+        return Thread.currentThread() == owner;
+    }
+
+    /**
+     * @return GIL acquisitions of the owner thread so far, each running a batch of tasks
+     */
+    public long batches() {
+        return batches.get();
+    }
+
+    /**
+     * @return tasks run so far
+     */
+    public long tasks() {
+        return tasks.get();
+    }
+
+    /**
+     * Run the tasks already queued, stop the owner thread and take the GIL back.
+     */
+    @Override
+    @SneakyThrows
+    public void close() {
+        if (closed) {
+            log.warn("The PythonExecutor was already closed!");
+            return;
+        }
+        if (Thread.currentThread() != creator) {
+            throw new IllegalStateException("The PythonExecutor must be closed by the thread that created it");
+        }
+        closed = true;
+
+        queue.add(STOP);
+        owner.join();
+        // submitted while closing, after the stop
+        for (Task<?> task; (task = queue.poll()) != null; ) {
+            task.future().completeExceptionally(closedException());
+        }
+        PyEval_RestoreThread(creatorState);
+        log.info("Closed PythonExecutor after {} tasks in {} batches", tasks(), batches());
+    }
+}
@@ -1,16 +1,22 @@
 package br.com.guialves.rflr.python;
 
+import br.com.guialves.rflr.telemetry.Stage;
 import io.vavr.CheckedFunction0;
 import io.vavr.CheckedRunnable;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.bytedeco.cpython.PyObject;
 import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.PointerPointer;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static br.com.guialves.rflr.python.PythonTypeChecks.isPyNull;
 import static org.bytedeco.cpython.global.python.*;
@@ -22,6 +28,54 @@ public final class PythonRuntime {
     private static final boolean DEBUG = false;
     private static boolean initialized = false;
     private static PyObject globals;
+    /**
+     * <code>__main__</code> dict of the sub-interpreter bound to the current thread, if any.
+     */
+    private static final ThreadLocal<PyObject> THREAD_GLOBALS = new ThreadLocal<>();
+    /**
+     * Caches of the sub-interpreter bound to the current thread, if any, like {@link #THREAD_GLOBALS}.
+     */
+    private static final ThreadLocal<InterpreterCaches> THREAD_CACHES = new ThreadLocal<>();
+    /**
+     * Caches of the main interpreter, shared by all its threads.
+     */
+    private static final InterpreterCaches MAIN_CACHES = new InterpreterCaches();
+    /**
+     * Argument array reused by the vectorcalls of a thread, only read by the callee during the call.
+     */
+    private static final ThreadLocal<PointerPointer<PyObject>> VECTORCALL_ARGS =
+            ThreadLocal.withInitial(() -> new PointerPointer<>(8L));
+    private static final int CODE_CACHE_SIZE = Integer.getInteger("python.codeCacheSize", 256);
+
+    private record CodeKey(String source, int start) {
+    }
+
+    /**
+     * Interned attribute names and compiled code of {@link #exec} and {@link #eval}, per interpreter
+     * as Python objects don't cross interpreters. Only used holding the interpreter GIL, which its
+     * threads take in turns, and released with a sub-interpreter.
+     */
+    private static final class InterpreterCaches {
+
+        private final Map<String, PyObject> internedNames = new HashMap<>();
+        private final Map<CodeKey, PyObject> code = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CodeKey, PyObject> eldest) {
+                if (size() <= CODE_CACHE_SIZE) {
+                    return false;
+                }
+                Py_DECREF(eldest.getValue());
+                return true;
+            }
+        };
+
+        void clear() {
+            internedNames.values().forEach(PythonRuntime::decRef);
+            internedNames.clear();
+            code.values().forEach(PythonRuntime::decRef);
+            code.clear();
+        }
+    }
 
     private PythonRuntime() {
         throw new IllegalArgumentException("No PythonRuntime!");
@@ -60,6 +114,14 @@ public final class PythonRuntime {
         System.setProperty("python.initialized", "true");
     }
 
+    /**
+     * @return path of the Python executable bundled with the embedded runtime,
+     * e.g. to spawn <code>multiprocessing</code> workers instead of forking the JVM
+     */
+    public static String pythonExecutable() {
+        return Loader.load(org.bytedeco.cpython.python.class);
+    }
+
     /**
      * Py_Finalize() is intentionally not called due to known issues documented in the
      * Python C API documentation (<a href="https://docs.python.org/3/c-api/init.html">...</a>):
@@ -94,6 +156,37 @@ public final class PythonRuntime {
         }
     }
 
+    /**
+     * Make {@link #exec}, {@link #execIsolated} and {@link #eval} of the current thread run in the
+     * <code>__main__</code> of the interpreter of its current thread state, e.g. a sub-interpreter.
+     */
+    static void bindThreadGlobals() {
+        THREAD_GLOBALS.set(PyModule_GetDict(PyImport_AddModule("__main__")));
+        THREAD_CACHES.set(new InterpreterCaches());
+    }
+
+    /**
+     * Called before the sub-interpreter ends, still holding its GIL, to release its cached objects.
+     */
+    static void unbindThreadGlobals() {
+        var caches = THREAD_CACHES.get();
+        if (caches != null) {
+            caches.clear();
+        }
+        THREAD_CACHES.remove();
+        THREAD_GLOBALS.remove();
+    }
+
+    private static PyObject globals() {
+        var threadGlobals = THREAD_GLOBALS.get();
+        return threadGlobals == null ? globals : threadGlobals;
+    }
+
+    private static InterpreterCaches caches() {
+        var threadCaches = THREAD_CACHES.get();
+        return threadCaches == null ? MAIN_CACHES : threadCaches;
+    }
+
     /**
      * For performance reasons, not all methods are
      * check inside the GIL (Global Interpreter Lock)
@@ -118,8 +211,38 @@ public final class PythonRuntime {
         }
     }
 
+    /**
+     * Run {@code code} in <code>__main__</code>, compiled once and kept in the code cache: meant for
+     * fixed scripts, see {@link #exec(String, Map)} for the ones varying per env.
+     */
     public static void exec(String code) {
         PyErr_Clear();
+        var globals = globals();
+        decRef(evalCode(compiled(code, Py_file_input), globals, globals));
+    }
+
+    /**
+     * {@link #exec(String)} reading {@code params} as local names, so the code is compiled once
+     * whatever the values. Definitions stay local, globals are written through <code>globals()</code>.
+     *
+     * @param params {@link PyObject}s, borrowed, or String, Long, Integer, Double and Boolean values
+     */
+    public static void exec(String code, Map<String, ?> params) {
+        PyErr_Clear();
+        var locals = paramsDict(params);
+        try {
+            decRef(evalCode(compiled(code, Py_file_input), globals(), locals));
+        } finally {
+            Py_DECREF(locals);
+        }
+    }
+
+    /**
+     * Run a one-off script, e.g. generated per env, without compiling it into the code cache.
+     */
+    public static void execUncached(String code) {
+        PyErr_Clear();
+        var globals = globals();
         try (var _ = PyRun_StringFlags(
                 code,
                 Py_file_input,
@@ -133,6 +256,7 @@ public final class PythonRuntime {
 
     public static void execIsolated(String code) {
         PyErr_Clear();
+        var globals = globals();
         var locals = PyDict_New();
         try (var _ = PyRun_StringFlags(code, Py_file_input, globals, locals, null)) {
             checkError();
@@ -146,20 +270,107 @@ public final class PythonRuntime {
         }
     }
 
+    /**
+     * @return new reference to the value of {@code expression}, compiled once and kept in the code cache
+     */
     public static PyObject eval(String expression) {
         PyErr_Clear();
-        try (var result = PyRun_StringFlags(
-                expression,
-                Py_eval_input,
-                globals,
-                globals,
-                null
-        )) {
+        var globals = globals();
+        return evalCode(compiled(expression, Py_eval_input), globals, globals);
+    }
+
+    /**
+     * {@link #eval(String)} reading {@code params} as local names, see {@link #exec(String, Map)}.
+     *
+     * @return new reference to the value of {@code expression}
+     */
+    public static PyObject eval(String expression, Map<String, ?> params) {
+        PyErr_Clear();
+        var locals = paramsDict(params);
+        try {
+            return evalCode(compiled(expression, Py_eval_input), globals(), locals);
+        } finally {
+            Py_DECREF(locals);
+        }
+    }
+
+    /**
+     * @return new reference to the <code>__main__</code> global {@code name}, looked up without compiling
+     */
+    public static PyObject globalVar(String name) {
+        var value = PyDict_GetItemString(globals(), name);
+        if (isPyNull(value)) {
+            throw new IllegalArgumentException("Global not found: " + name);
+        }
+        Py_INCREF(value);
+        return value;
+    }
+
+    /**
+     * Equivalent to Python: <code>globals().pop(name, None)</code>
+     */
+    public static void delGlobalVar(String name) {
+        var globals = globals();
+        if (!isPyNull(PyDict_GetItemString(globals, name))) {
+            PyDict_DelItemString(globals, name);
             checkError();
-            return result;
         }
     }
 
+    /**
+     * @return number of code objects cached by the interpreter of the current thread
+     */
+    public static int codeCacheSize() {
+        return caches().code.size();
+    }
+
+    /**
+     * Code object of {@code source}, compiled on the first use. The cache is bounded, evicting the
+     * least recently used, and per interpreter as each one needs its own objects.
+     */
+    private static PyObject compiled(String source, int start) {
+        var cache = caches().code;
+        var key = new CodeKey(source, start);
+        var code = cache.get(key);
+        if (code == null) {
+            code = Py_CompileString(source, "<gymnasium4j>", start);
+            checkError();
+            cache.put(key, code);
+        }
+        return code;
+    }
+
+    private static PyObject evalCode(PyObject code, PyObject globals, PyObject locals) {
+        var result = PyEval_EvalCode(code, globals, locals);
+        checkError();
+        return result;
+    }
+
+    private static PyObject paramsDict(Map<String, ?> params) {
+        var dict = PyDict_New();
+        params.forEach((name, value) -> {
+            if (value instanceof PyObject obj) {
+                PyDict_SetItemString(dict, name, obj);
+                return;
+            }
+
+            var obj = switch (value) {
+                case String str -> pyStr(str);
+                case Long l -> pyLong(l);
+                case Integer i -> pyLong(i);
+                case Double d -> pyDouble(d);
+                case Boolean b -> pyBool(b);
+                case null, default -> {
+                    Py_DECREF(dict);
+                    throw new IllegalArgumentException("Unsupported parameter %s: %s".formatted(name, value));
+                }
+            };
+            PyDict_SetItemString(dict, name, obj);
+            Py_DECREF(obj);
+        });
+        return dict;
+    }
+
     public static String toStr(PyObject obj) {
         return toStr(obj, "");
     }
@@ -291,7 +502,10 @@ public final class PythonRuntime {
         }
 
         var tuple = newArgs(args);
-        try {
+        try (var stage = Stage.PYTHON_CALL.begin()) {
+            if (stage.active()) {
+                stage.target(targetName(fn));
+            }
             var result = PyObject_CallObject(fn, tuple);
             if (result == null || result.isNull()) {
                 PyErr_Print();
@@ -303,6 +517,98 @@ public final class PythonRuntime {
         }
     }
 
+    /**
+     * {@link #callFunction} through <code>PyObject_Vectorcall</code>: the arguments are passed in a
+     * reused C array instead of a new tuple.
+     *
+     * @return new reference to the result
+     */
+    public static PyObject vectorcall(PyObject fn, PyObject... args) {
+        if (isPyNull(fn)) {
+            throw new IllegalArgumentException("Cannot call null function");
+        }
+
+        try (var stage = Stage.PYTHON_CALL.begin()) {
+            if (stage.active()) {
+                stage.target(targetName(fn));
+            }
+            var result = PyObject_Vectorcall(fn, vectorcallArgs(null, args), args.length, null);
+            if (isPyNull(result)) {
+                PyErr_Print();
+                throw new RuntimeException("Failed to call function");
+            }
+            return result.retainReference();
+        }
+    }
+
+    /**
+     * {@link #callMethod} through <code>PyObject_VectorcallMethod</code>, with the interned name and
+     * without the bound method object nor the argument tuple.
+     *
+     * @return new reference to the result
+     */
+    public static PyObject vectorcallMethod(PyObject obj, String method, PyObject... args) {
+        if (isPyNull(obj)) {
+            throw new IllegalArgumentException("Cannot call method on null PyObject");
+        }
+
+        try (var _ = Stage.PYTHON_CALL.begin().target(method)) {
+            var result = PyObject_VectorcallMethod(internName(method), vectorcallArgs(obj, args), args.length + 1L, null);
+            if (isPyNull(result)) {
+                PyErr_Print();
+                throw new RuntimeException("Failed to call method: " + method);
+            }
+            return result.retainReference();
+        }
+    }
+
+    /**
+     * @return <code>__qualname__</code> of a callable, for telemetry
+     */
+    private static String targetName(PyObject fn) {
+        return hasAttr(fn, "__qualname__") ? attrStr(fn, "__qualname__") : "<callable>";
+    }
+
+    private static PointerPointer<PyObject> vectorcallArgs(PyObject self, PyObject[] args) {
+        int offset = self == null ? 0 : 1;
+        var array = VECTORCALL_ARGS.get();
+        if (array.capacity() < args.length + offset) {
+            array = new PointerPointer<>((long) args.length + offset);
+            VECTORCALL_ARGS.set(array);
+        }
+
+        if (self != null) {
+            array.put(0, self);
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (isPyNull(args[i])) {
+                throw new IllegalArgumentException("Null argument at index " + i);
+            }
+            array.put(i + offset, args[i]);
+        }
+        return array;
+    }
+
+    /**
+     * @return the interned unicode of {@code name}, created once per interpreter and kept alive,
+     * so attribute lookups skip the C string conversion and compare by pointer
+     */
+    public static PyObject internName(String name) {
+        return caches().internedNames.computeIfAbsent(name, key -> PyUnicode_InternFromString(key));
+    }
+
+    /**
+     * {@link #attr} looked up with the interned name.
+     */
+    public static PyObject attrInterned(PyObject obj, String attr) {
+        var result = PyObject_GetAttr(obj, internName(attr));
+        if (isPyNull(result)) {
+            PyErr_Print();
+            throw new IllegalArgumentException("Attribute not found: " + attr);
+        }
+        return result;
+    }
+
     public static PyObject newArgs(PyObject... args) {
         var tuple = PyTuple_New(args.length);
         if (tuple == null || tuple.isNull()) {
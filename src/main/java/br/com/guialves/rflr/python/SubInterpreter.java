@@ -0,0 +1,158 @@
+package br.com.guialves.rflr.python;
+
+import io.vavr.CheckedFunction0;
+import io.vavr.CheckedRunnable;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.cpython.PyInterpreterConfig;
+import org.bytedeco.cpython.PyInterpreterState;
+import org.bytedeco.cpython.PyThreadState;
+import org.bytedeco.javacpp.PointerPointer;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static br.com.guialves.rflr.python.PythonRuntime.initPython;
+import static org.bytedeco.cpython.global.python.*;
+
+/**
+ * A Python sub-interpreter with its own GIL (PEP 684), bound to a dedicated thread: every call runs
+ * on that thread, so sub-interpreters step in parallel while the main interpreter keeps its GIL.
+ * <p>
+ * Created and closed from the thread holding the main interpreter GIL, i.e. the one that called
+ * {@link PythonRuntime#initPython()}. Python objects must not cross interpreters: the objects made
+ * inside {@link #call} belong to this interpreter and are only used there.
+ * <p>
+ * References:
+ * <ul>
+ *   <li>PEP 684 – A Per-Interpreter GIL: <a href="https://peps.python.org/pep-0684/">...</a></li>
+ *   <li>Sub-interpreter support: <a href="https://docs.python.org/3.12/c-api/init.html#sub-interpreter-support">...</a></li>
+ * </ul>
+ */
+@Slf4j
+@Accessors(fluent = true)
+public final class SubInterpreter implements AutoCloseable {
+
+    /**
+     * <code>PyInterpreterConfig_OWN_GIL</code>
+     */
+    private static final int OWN_GIL = 2;
+
+    @Getter
+    private final int id;
+    private final PyInterpreterState interpreterState;
+    /**
+     * Thread state made by the creation, only used to end the interpreter.
+     */
+    private final PyThreadState creationState;
+    private final ExecutorService executor;
+    private Thread thread;
+    private PyThreadState threadState;
+    @Getter
+    private boolean closed;
+
+    SubInterpreter(int id) {
+        initPython();
+        this.id = id;
+
+        var mainState = PyThreadState_Get();
+        var newState = new PointerPointer<PyThreadState>(1L);
+        try (var config = new PyInterpreterConfig()) {
+            config.use_main_obmalloc(0)
+                    .allow_fork(0)
+                    .allow_exec(0)
+                    .allow_threads(1)
+                    .allow_daemon_threads(0)
+                    // single-phase init extensions fail to import instead of being shared unsafely
+                    .check_multi_interp_extensions(1)
+                    .gil(OWN_GIL);
+
+            var status = Py_NewInterpreterFromConfig(newState, config);
+            if (PyStatus_Exception(status) != 0) {
+                var message = status.err_msg();
+                throw new IllegalStateException("Sub-interpreter %d wasn't created: %s"
+                        .formatted(id, message == null || message.isNull() ? "unknown error" : message.getString()));
+            }
+        }
+
+        this.creationState = newState.get(PyThreadState.class, 0);
+        this.interpreterState = PyThreadState_GetInterpreter(creationState);
+        // back to the main interpreter, releasing the new GIL
+        PyThreadState_Swap(mainState);
+
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            var t = new Thread(runnable, "python-interpreter-" + id);
+            t.setDaemon(true);
+            return t;
+        });
+        run(this::attach);
+    }
+
+    /**
+     * Attach the bound thread to the interpreter, holding its GIL from then on: no other thread uses it.
+     */
+    private void attach() {
+        this.thread = Thread.currentThread();
+        this.threadState = PyThreadState_New(interpreterState);
+        PyEval_RestoreThread(threadState);
+        PythonRuntime.bindThreadGlobals();
+    }
+
+    public boolean onThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run {@code function} on the bound thread, inside this interpreter, and wait for its result.
+     * Runs right away when already on that thread.
+     */
+    @SneakyThrows
+    public <R> R call(CheckedFunction0<R> function) {
+        if (onThread()) {
+            return function.apply();
+        }
+        if (closed) {
+            throw new IllegalStateException("The sub-interpreter %d is closed".formatted(id));
+        }
+
+        try {
+            return executor.submit(function::apply).get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    public void run(CheckedRunnable runnable) {
+        call(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    @Override
+    @SneakyThrows
+    public void close() {
+        if (closed) {
+            log.warn("The sub-interpreter {} was already closed!", id);
+            return;
+        }
+
+        run(() -> {
+            PythonRuntime.unbindThreadGlobals();
+            PyThreadState_Clear(threadState);
+            PyThreadState_DeleteCurrent();
+        });
+        this.closed = true;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        var mainState = PyThreadState_Swap(creationState);
+        Py_EndInterpreter(creationState);
+        PyThreadState_Swap(mainState);
+        log.info("Closed sub-interpreter {}", id);
+    }
+}
@@ -0,0 +1,117 @@
+package br.com.guialves.rflr.python;
+
+import br.com.guialves.rflr.python.numpy.NumPyByteBuffer;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static br.com.guialves.rflr.python.PythonRuntime.*;
+
+/**
+ * Fixed set of {@link SubInterpreter}s, handed out round-robin so each env, or group of envs,
+ * steps on its own thread and GIL.
+ * <p>
+ * Extension modules without multi-interpreter support (PEP 489 multi-phase init) fail to import in
+ * a sub-interpreter, {@link #supports} finds it once per set of modules so callers fall back to the
+ * main interpreter.
+ */
+@Slf4j
+public final class SubInterpreterPool implements AutoCloseable {
+
+    private static final String PROBE_IMPORTS_PY = """
+            def probe_imports(names):
+                import importlib
+                for name in names:
+                    try:
+                        importlib.import_module(name)
+                    except ImportError as e:
+                        return '%s: %s' % (name, e)
+                return None
+            """;
+
+    private final SubInterpreter[] interpreters;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Map<List<String>, Boolean> supported = new ConcurrentHashMap<>();
+    private boolean closed;
+
+    /**
+     * Must be created from the thread holding the main interpreter GIL.
+     *
+     * @param size sub-interpreters, usually up to the number of cores
+     */
+    public SubInterpreterPool(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive: %d".formatted(size));
+        }
+
+        initNumPyByteBuffer();
+        this.interpreters = new SubInterpreter[size];
+        for (int i = 0; i < size; i++) {
+            interpreters[i] = new SubInterpreter(i);
+            interpreters[i].run(() -> exec(PROBE_IMPORTS_PY));
+        }
+    }
+
+    /**
+     * The first use of {@link NumPyByteBuffer} imports NumPy, here on the main interpreter: from an
+     * env created in a sub-interpreter, NumPy may refuse to import and the class would stay broken
+     * for the rest of the JVM.
+     */
+    @SneakyThrows
+    private static void initNumPyByteBuffer() {
+        MethodHandles.lookup().ensureInitialized(NumPyByteBuffer.class);
+    }
+
+    public int size() {
+        return interpreters.length;
+    }
+
+    /**
+     * @return the next interpreter, round-robin
+     */
+    public SubInterpreter next() {
+        return interpreters[Math.floorMod(next.getAndIncrement(), interpreters.length)];
+    }
+
+    /**
+     * @param modules imported by the env, e.g. <code>gymnasium</code> and <code>ale_py</code>
+     * @return whether all of them import in a sub-interpreter, checked once per list
+     */
+    public boolean supports(@NonNull List<String> modules) {
+        return supported.computeIfAbsent(List.copyOf(modules), key -> {
+            var names = String.join(",", key);
+            var failure = next().call(() -> {
+                var result = eval("probe_imports(names.split(','))", Map.of("names", names));
+                try {
+                    return toStr(result);
+                } finally {
+                    decRef(result);
+                }
+            });
+
+            if (failure != null) {
+                log.warn("Modules {} don't load in a sub-interpreter, using the main one: {}", key, failure);
+            }
+            return failure == null;
+        });
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            log.warn("The SubInterpreterPool was already closed!");
+            return;
+        }
+        closed = true;
+
+        for (var interpreter : interpreters) {
+            interpreter.close();
+        }
+    }
+}
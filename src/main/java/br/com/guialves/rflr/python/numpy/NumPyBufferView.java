@@ -4,6 +4,7 @@ import lombok.NonNull;
 import lombok.experimental.Delegate;
 import org.bytedeco.cpython.PyObject;
 import org.bytedeco.cpython.Py_buffer;
+import org.bytedeco.javacpp.BytePointer;
 
 import java.nio.ByteBuffer;
 
@@ -25,6 +26,7 @@ public class NumPyBufferView implements AutoCloseable {
     @Delegate
     private final ByteBuffer buffer;
     private final long len;
+    private final BytePointer pointer;
 
     public NumPyBufferView(@NonNull PyObject ndarray) {
         this.view = new Py_buffer();
@@ -35,12 +37,20 @@ public class NumPyBufferView implements AutoCloseable {
 
         this.len = view.len();
         this.buffer = view.buf().capacity(len).asByteBuffer();
+        this.pointer = new BytePointer(view.buf()).capacity(len);
     }
 
     public long len() {
         return len;
     }
 
+    /**
+     * The array memory for native libraries, e.g. an OpenCV Mat, valid until {@link #close()}.
+     */
+    public BytePointer pointer() {
+        return pointer;
+    }
+
     /**
      * Used internally!
      */
@@ -1,9 +1,11 @@
 package br.com.guialves.rflr.python.numpy;
 
 import br.com.guialves.rflr.python.PythonDataStructures;
+import br.com.guialves.rflr.telemetry.Stage;
 import org.bytedeco.cpython.PyObject;
 import org.bytedeco.cpython.Py_buffer;
 
+import java.lang.foreign.MemorySegment;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
@@ -123,8 +125,16 @@ public class NumPyByteBuffer {
      * @throws IllegalArgumentException if the destination buffer capacity is insufficient
      */
     public static void fillFromNumpy(PyObject ndarray, ByteBuffer buffer) {
+        fillFromNumpy(ndarray, buffer, null);
+    }
+
+    /**
+     * {@link #fillFromNumpy(PyObject, ByteBuffer)} recording the copy under {@code envName}.
+     */
+    public static void fillFromNumpy(PyObject ndarray, ByteBuffer buffer, String envName) {
         buffer.clear();
-        try (var view = new NumPyBufferView(ndarray)) {
+        try (var stage = Stage.NUMPY_COPY.begin(envName);
+             var view = new NumPyBufferView(ndarray)) {
             long len = view.len();
             if (len > buffer.capacity()) {
                 throw new IllegalArgumentException(
@@ -133,11 +143,55 @@ public class NumPyByteBuffer {
             }
 
             buffer.put(view.buffer());
+            stage.bytes(len);
         }
 
         buffer.flip();
     }
 
+    /**
+     * Same copy as {@link #fillFromNumpy(PyObject, ByteBuffer)} straight into native memory, reusing
+     * the caller's {@link Py_buffer} struct, so it allocates neither buffer views nor NumPy objects.
+     *
+     * @param ndarray a C-contiguous NumPy {@code ndarray}
+     * @param view    scratch struct, filled and released by each call
+     * @param dst     destination, at least as large as the array
+     * @return bytes copied
+     * @throws IllegalStateException if the array does not expose a contiguous buffer
+     * @throws IllegalArgumentException if the destination is too small
+     */
+    public static long copyFromNumpy(PyObject ndarray, Py_buffer view, MemorySegment dst) {
+        return copyFromNumpy(ndarray, view, dst, null);
+    }
+
+    /**
+     * {@link #copyFromNumpy(PyObject, Py_buffer, MemorySegment)} recording the copy under {@code envName}.
+     */
+    public static long copyFromNumpy(PyObject ndarray, Py_buffer view, MemorySegment dst, String envName) {
+        int rc = PyObject_GetBuffer(ndarray, view, PyBUF_SIMPLE);
+        if (rc != 0) {
+            throw new IllegalStateException("PyObject_GetBuffer failed (array not contiguous?), return code: " + rc);
+        }
+
+        try {
+            long len = view.len();
+            if (len > dst.byteSize()) {
+                throw new IllegalArgumentException(
+                        "Buffer too small: capacity=" + dst.byteSize() + ", required=" + len
+                );
+            }
+
+            try (var stage = Stage.NUMPY_COPY.begin(envName)) {
+                var src = MemorySegment.ofAddress(view.buf().address()).reinterpret(len);
+                MemorySegment.copy(src, 0, dst, 0, len);
+                stage.bytes(len);
+            }
+            return len;
+        } finally {
+            PyBuffer_Release(view);
+        }
+    }
+
     public static int[] toIntArray(PyObject obj) {
 
         if (!hasAttr(obj, "dtype")) {
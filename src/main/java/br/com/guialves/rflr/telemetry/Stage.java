@@ -0,0 +1,55 @@
+package br.com.guialves.rflr.telemetry;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Stages between the Python bridge and the network, each timed into a {@link StageEvent} while
+ * Flight Recorder records it, and into its {@link LatencyHistogram} when started with
+ * <code>-Drflr.telemetry.histograms=true</code>.
+ * <p>
+ * Usage: <code>try (var stage = Stage.ENV_STEP.begin(envName)) { ... }</code>. With both off,
+ * {@link #begin} returns a shared no-op scope: no allocation nor clock read.
+ */
+@Accessors(fluent = true)
+public enum Stage {
+    /**
+     * A call into Python from {@link br.com.guialves.rflr.python.PythonRuntime}.
+     */
+    PYTHON_CALL,
+    /**
+     * A copy out of a NumPy array.
+     */
+    NUMPY_COPY,
+    /**
+     * A step of an environment, Python call and observation copy included.
+     */
+    ENV_STEP,
+    /**
+     * The frame preprocessing of {@link br.com.guialves.rflr.utils.PreProcessingWrapper}.
+     */
+    PREPROCESS,
+    /**
+     * A forward pass of a Q-network.
+     */
+    FORWARD;
+
+    public static final boolean HISTOGRAMS = Boolean.getBoolean("rflr.telemetry.histograms");
+
+    @Getter
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    public StageScope begin() {
+        return begin(null);
+    }
+
+    /**
+     * @param envName environment of the stage, if any
+     */
+    public StageScope begin(String envName) {
+        if (!HISTOGRAMS && !StageEvent.recording()) {
+            return StageScope.NOOP;
+        }
+        return new StageScope(this, envName);
+    }
+}
@@ -0,0 +1,45 @@
+package br.com.guialves.rflr.telemetry;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of a {@link Stage}, e.g. enabled with
+ * <code>-XX:StartFlightRecording:settings=profile</code> or <code>jfr configure</code>,
+ * its duration is the one of the stage.
+ */
+@Name("br.com.guialves.rflr.Stage")
+@Label("RL Pipeline Stage")
+@Category({"Reinforcement Learning", "Pipeline"})
+@Description("Python bridge, copy, environment, preprocessing and network stages")
+@StackTrace(false)
+final class StageEvent extends Event {
+
+    /**
+     * Never committed, only asked whether the event type is enabled.
+     */
+    private static final StageEvent PROBE = new StageEvent();
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Environment")
+    String envName;
+
+    @Label("Bytes Copied")
+    @DataAmount
+    long bytes;
+
+    @Label("Call Target")
+    @Description("Python callable or network")
+    String target;
+
+    static boolean recording() {
+        return PROBE.isEnabled();
+    }
+}
@@ -0,0 +1,71 @@
+package br.com.guialves.rflr.telemetry;
+
+/**
+ * A running {@link Stage}, timed until {@link #close()}.
+ */
+public final class StageScope implements AutoCloseable {
+
+    static final StageScope NOOP = new StageScope();
+
+    private final Stage stage;
+    private final String envName;
+    private final StageEvent event;
+    private final long start;
+    private long bytes;
+    private String target;
+
+    private StageScope() {
+        this.stage = null;
+        this.envName = null;
+        this.event = null;
+        this.start = 0L;
+    }
+
+    StageScope(Stage stage, String envName) {
+        this.stage = stage;
+        this.envName = envName;
+        this.event = new StageEvent();
+        event.begin();
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * @return whether the stage is timed, to skip computing {@link #target} otherwise
+     */
+    public boolean active() {
+        return this != NOOP;
+    }
+
+    public StageScope bytes(long bytes) {
+        if (active()) {
+            this.bytes += bytes;
+        }
+        return this;
+    }
+
+    public StageScope target(String target) {
+        if (active()) {
+            this.target = target;
+        }
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (!active()) {
+            return;
+        }
+
+        if (Stage.HISTOGRAMS) {
+            stage.histogram().record(System.nanoTime() - start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.stage = stage.name();
+            event.envName = envName;
+            event.bytes = bytes;
+            event.target = target;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package br.com.guialves.rflr.utils;
+
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.random.RandomGenerator;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Replay buffer that keeps each (state, nextState) row compressed with a {@link FrameCodec}.
+ * <p>
+ * Inserts copy the raw row and hand it to a pool of codec threads, the row is swapped for its
+ * compressed form once ready, unless the slot was overwritten meanwhile. When the pool falls
+ * behind the inserting thread compresses the row itself, so raw rows stay bounded. The raw rows
+ * swapped out and the compression tasks are reused by the next inserts. Only the sampled rows
+ * are decompressed, straight into the batch buffers.
+ * <p>
+ * Rows are heap arrays of their compressed size, so {@link #memoryBytes()} reports the bytes
+ * currently stored instead of a bound known up front; {@link #metrics()} gives the compression
+ * ratio and codec latencies to size a deployment.
+ * <p>
+ * Not thread-safe, the caller must serialize inserts and sampling (the codec pool is internal).
+ */
+@Slf4j
+@Accessors(fluent = true)
+public class CompressedReplayBuffer implements IReplayBuffer {
+
+    public static final int DEFAULT_CODEC_THREADS = 2;
+
+    private static final byte RAW = 0;
+    private static final FrameCodec[] CODECS = FrameCodec.values();
+    private static final int QUEUE_PER_THREAD = 64;
+
+    /**
+     * @param rawBytes           bytes of the rows handed to the codec before compression
+     * @param compressedBytes    bytes of the same rows as stored, the incompressible ones raw
+     * @param incompressibleRows rows kept raw as they didn't compress
+     */
+    public record Metrics(long rawBytes,
+                          long compressedBytes,
+                          long compressedRows,
+                          long incompressibleRows,
+                          long compressNanos,
+                          long decompressedRows,
+                          long decompressNanos) {
+
+        public double compressionRatio() {
+            return compressedBytes == 0 ? 1.0 : (double) rawBytes / compressedBytes;
+        }
+
+        public double meanCompressMicros() {
+            long rows = compressedRows + incompressibleRows;
+            return rows == 0 ? 0.0 : compressNanos / 1e3 / rows;
+        }
+
+        public double meanDecompressMicros() {
+            return decompressedRows == 0 ? 0.0 : decompressNanos / 1e3 / decompressedRows;
+        }
+    }
+
+    @Getter
+    private final int capacity;
+    @Getter
+    private final EnvStateMetadata stateMetadata;
+    @Getter
+    private final FrameCodec codec;
+    private final int stateBytes;
+    private final long[] actions;
+    private final float[] rewards;
+    private final boolean[] dones;
+    private final AtomicReferenceArray<byte[]> rows;
+    private final ThreadPoolExecutor pool;
+    private final RandomGenerator random;
+
+    /**
+     * Raw rows freed by their compression, and compression tasks, reused by the next inserts.
+     */
+    private final ArrayBlockingQueue<byte[]> freeRows;
+    private final ArrayBlockingQueue<CompressTask> freeTasks;
+    private final ThreadLocal<byte[]> encodeScratch;
+    private final ThreadLocal<byte[]> decodeScratch;
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressedRows = new LongAdder();
+    private final LongAdder incompressibleRows = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressedRows = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    @Getter
+    private int size;
+    private int cursor;
+    private boolean closed;
+
+    public CompressedReplayBuffer(int capacity, @NonNull EnvStateMetadata stateMetadata, @NonNull FrameCodec codec) {
+        this(capacity, stateMetadata, codec, DEFAULT_CODEC_THREADS, RandomGenerator.getDefault());
+    }
+
+    public CompressedReplayBuffer(int capacity,
+                                  @NonNull EnvStateMetadata stateMetadata,
+                                  @NonNull FrameCodec codec,
+                                  int codecThreads,
+                                  @NonNull RandomGenerator random) {
+        if (capacity <= 0 || codecThreads <= 0) {
+            throw new IllegalArgumentException(
+                    "Capacity and codec threads must be positive: %d, %d".formatted(capacity, codecThreads));
+        }
+
+        this.capacity = capacity;
+        this.stateMetadata = stateMetadata;
+        this.codec = codec;
+        this.stateBytes = stateMetadata.size();
+        this.random = random;
+
+        this.actions = new long[capacity];
+        this.rewards = new float[capacity];
+        this.dones = new boolean[capacity];
+        this.rows = new AtomicReferenceArray<>(capacity);
+
+        int maxEncoded = 1 + FrameCodec.maxEncodedBytes(stateBytes);
+        this.encodeScratch = ThreadLocal.withInitial(() -> new byte[maxEncoded]);
+        this.decodeScratch = ThreadLocal.withInitial(() -> new byte[2 * stateBytes]);
+
+        // rows in flight: the queue, one per codec thread and one run by the inserting thread
+        int inFlight = codecThreads * (QUEUE_PER_THREAD + 1) + 1;
+        this.freeRows = new ArrayBlockingQueue<>(inFlight);
+        this.freeTasks = new ArrayBlockingQueue<>(inFlight);
+        this.pool = new ThreadPoolExecutor(codecThreads, codecThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(codecThreads * QUEUE_PER_THREAD),
+                Thread.ofPlatform().name("replay-codec-", 0).daemon().factory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        log.info("CompressedReplayBuffer capacity: {}, state: {} {}, codec: {} x {}",
+                capacity, stateMetadata.djlShape(), stateMetadata.djlType(), codec, codecThreads);
+    }
+
+    /**
+     * @return bytes currently held by the rows, raw or compressed, and the scalar columns
+     */
+    @Override
+    public long memoryBytes() {
+        return storedBytes.get() + (long) capacity * (Long.BYTES + Float.BYTES + 1);
+    }
+
+    public Metrics metrics() {
+        return new Metrics(rawBytes.sum(), compressedBytes.sum(), compressedRows.sum(), incompressibleRows.sum(),
+                compressNanos.sum(), decompressedRows.sum(), decompressNanos.sum());
+    }
+
+    @Override
+    public int add(ByteBuffer state, long action, float reward, ByteBuffer nextState, boolean done) {
+        if (closed) {
+            throw new IllegalStateException("ReplayBuffer already closed!");
+        }
+        checkState(state);
+        checkState(nextState);
+
+        byte[] raw = freeRows.poll();
+        if (raw == null) {
+            raw = new byte[1 + 2 * stateBytes];
+        }
+        raw[0] = RAW;
+        state.get(state.position(), raw, 1, stateBytes);
+        nextState.get(nextState.position(), raw, 1 + stateBytes, stateBytes);
+
+        int slot = cursor;
+        actions[slot] = action;
+        rewards[slot] = reward;
+        dones[slot] = done;
+        replace(slot, raw);
+
+        cursor = slot + 1 == capacity ? 0 : slot + 1;
+        if (size < capacity) size++;
+
+        var task = freeTasks.poll();
+        if (task == null) {
+            task = new CompressTask();
+        }
+        task.slot = slot;
+        task.raw = raw;
+
+        pending.incrementAndGet();
+        pool.execute(task);
+        return slot;
+    }
+
+    private final class CompressTask implements Runnable {
+
+        private int slot;
+        private byte[] raw;
+
+        @Override
+        public void run() {
+            try {
+                compress(slot, raw);
+            } finally {
+                raw = null;
+                freeTasks.offer(this);
+            }
+        }
+    }
+
+    private void checkState(ByteBuffer src) {
+        if (src.remaining() != stateBytes) {
+            throw new IllegalArgumentException(
+                    "State has %d bytes, expected %d".formatted(src.remaining(), stateBytes)
+            );
+        }
+    }
+
+    private void replace(int slot, byte[] row) {
+        byte[] previous = rows.getAndSet(slot, row);
+        storedBytes.addAndGet(row.length - (previous == null ? 0 : previous.length));
+    }
+
+    private void compress(int slot, byte[] raw) {
+        try {
+            long start = System.nanoTime();
+            byte[] scratch = encodeScratch.get();
+            int encoded = codec.encode(raw, 1, stateBytes, scratch, 1);
+            if (encoded < 0 || encoded >= 2 * stateBytes) {
+                // incompressible, keep it raw
+                compressNanos.add(System.nanoTime() - start);
+                rawBytes.add(2L * stateBytes);
+                compressedBytes.add(2L * stateBytes);
+                incompressibleRows.increment();
+                return;
+            }
+
+            scratch[0] = (byte) (codec.ordinal() + 1);
+            byte[] compressed = Arrays.copyOf(scratch, 1 + encoded);
+            compressNanos.add(System.nanoTime() - start);
+
+            // the slot may have been overwritten while compressing
+            if (rows.compareAndSet(slot, raw, compressed)) {
+                storedBytes.addAndGet(compressed.length - raw.length);
+                rawBytes.add(2L * stateBytes);
+                compressedBytes.add(encoded);
+                compressedRows.increment();
+                freeRows.offer(raw);
+            }
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wait for the rows handed to the codec pool, e.g. before reading {@link #metrics()}.
+     */
+    public void awaitCompression() {
+        while (pending.get() > 0) {
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    @Override
+    public int[] sampleIndices(int batchSize) {
+        if (size == 0) {
+            throw new IllegalStateException("Cannot sample from an empty ReplayBuffer!");
+        }
+
+        int[] indices = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            indices[i] = random.nextInt(size);
+        }
+        return indices;
+    }
+
+    @Override
+    public void gatherInto(int[] indices, @NonNull ReplayBatchBuffers dst) {
+        if (closed) {
+            throw new IllegalStateException("ReplayBuffer already closed!");
+        }
+        dst.checkRows(indices.length);
+
+        for (int i = 0; i < indices.length; i++) {
+            int slot = indices[i];
+            if (!contains(slot)) {
+                throw new IndexOutOfBoundsException("Slot %d outside of [0, %d)".formatted(slot, size));
+            }
+
+            byte[] row = rows.get(slot);
+            int rowOffset = 1;
+            if (row[0] != RAW) {
+                long start = System.nanoTime();
+                byte[] decoded = decodeScratch.get();
+                CODECS[row[0] - 1].decode(row, 1, row.length - 1, stateBytes, decoded);
+                decompressNanos.add(System.nanoTime() - start);
+                decompressedRows.increment();
+                row = decoded;
+                rowOffset = 0;
+            }
+
+            long offset = (long) i * stateBytes;
+            MemorySegment.copy(row, rowOffset, dst.statesSegment, JAVA_BYTE, offset, stateBytes);
+            MemorySegment.copy(row, rowOffset + stateBytes, dst.nextStatesSegment, JAVA_BYTE, offset, stateBytes);
+            dst.actionsSegment.setAtIndex(JAVA_LONG, i, actions[slot]);
+            dst.rewardsSegment.setAtIndex(JAVA_FLOAT, i, rewards[slot]);
+            dst.donesSegment.set(JAVA_BYTE, i, (byte) (dones[slot] ? 1 : 0));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            log.warn("The CompressedReplayBuffer was already closed!");
+            return;
+        }
+        this.closed = true;
+        // the queued rows never run, so they don't count down themselves
+        var dropped = pool.shutdownNow();
+        pending.addAndGet(-dropped.size());
+
+        var metrics = metrics();
+        log.info("CompressedReplayBuffer {} ratio: {}, compress: {} us, decompress: {} us",
+                codec, "%.2f".formatted(metrics.compressionRatio()),
+                "%.1f".formatted(metrics.meanCompressMicros()),
+                "%.1f".formatted(metrics.meanDecompressMicros()));
+    }
+}
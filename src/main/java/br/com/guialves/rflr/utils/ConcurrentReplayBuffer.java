@@ -0,0 +1,220 @@
+package br.com.guialves.rflr.utils;
+
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.random.RandomGenerator;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Multi-producer variant of {@link ReplayBuffer}, for many actor threads feeding one learner.
+ * <p>
+ * Producers claim a ticket with one atomic increment, the slot is {@code ticket % capacity},
+ * and then copy their transition without any lock, so inserts from different actors only
+ * contend on that counter. Each slot has a seqlock stamp: odd while a producer writes it,
+ * {@code 2 * (lap + 1)} once published. A producer lapping a slow one waits for the previous
+ * lap of its slot to be published, which only happens if the ring is smaller than the
+ * transitions in flight.
+ * <p>
+ * Sampling never blocks inserts: rows are copied optimistically and copied again if the stamp
+ * changed meanwhile, so a batch never holds a half-written transition. A slot overwritten while
+ * its row is gathered yields the newer transition, as the slot holds it.
+ * <p>
+ * Inserts are thread-safe, sampling is expected from one thread at a time (the learner or
+ * its {@link ReplayBatchSampler} prefetch).
+ */
+@Slf4j
+@Accessors(fluent = true)
+public class ConcurrentReplayBuffer implements IReplayBuffer {
+
+    private static final long ALIGNMENT = 64;
+    private static final long EMPTY = 0;
+
+    @Getter
+    private final int capacity;
+    @Getter
+    private final EnvStateMetadata stateMetadata;
+    @Getter
+    private final long memoryBytes;
+    private final int stateBytes;
+    private final Arena arena;
+    private final MemorySegment states;
+    private final MemorySegment nextStates;
+    private final MemorySegment actions;
+    private final MemorySegment rewards;
+    private final MemorySegment dones;
+    private final AtomicLongArray stamps;
+    private final AtomicLong tickets = new AtomicLong();
+    private final RandomGenerator random;
+
+    private volatile boolean closed;
+
+    public ConcurrentReplayBuffer(int capacity, @NonNull EnvStateMetadata stateMetadata) {
+        this(capacity, stateMetadata, RandomGenerator.getDefault());
+    }
+
+    public ConcurrentReplayBuffer(int capacity,
+                                  @NonNull EnvStateMetadata stateMetadata,
+                                  @NonNull RandomGenerator random) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.stateMetadata = stateMetadata;
+        this.stateBytes = stateMetadata.size();
+        this.memoryBytes = ReplayBuffer.memoryBytes(capacity, stateMetadata) + (long) capacity * Long.BYTES;
+        this.random = random;
+        this.arena = Arena.ofShared();
+
+        long statesBytes = (long) capacity * stateBytes;
+        this.states = arena.allocate(statesBytes, ALIGNMENT);
+        this.nextStates = arena.allocate(statesBytes, ALIGNMENT);
+        this.actions = arena.allocate((long) capacity * Long.BYTES, ALIGNMENT);
+        this.rewards = arena.allocate((long) capacity * Float.BYTES, ALIGNMENT);
+        this.dones = arena.allocate(capacity, ALIGNMENT);
+        this.stamps = new AtomicLongArray(capacity);
+
+        log.info("ConcurrentReplayBuffer capacity: {}, state: {} {}, memory: {} MiB",
+                capacity, stateMetadata.djlShape(), stateMetadata.djlType(), memoryBytes >> 20);
+    }
+
+    /**
+     * Includes the slots claimed by producers still copying, {@link #gatherInto(int[], ReplayBatchBuffers)}
+     * waits for them.
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(tickets.get(), capacity);
+    }
+
+    /**
+     * @return transitions inserted since creation, overwritten ones included
+     */
+    public long inserted() {
+        return tickets.get();
+    }
+
+    @Override
+    public int add(ByteBuffer state, long action, float reward, ByteBuffer nextState, boolean done) {
+        if (closed) {
+            throw new IllegalStateException("ReplayBuffer already closed!");
+        }
+        checkState(state);
+        checkState(nextState);
+
+        long ticket = tickets.getAndIncrement();
+        int slot = (int) (ticket % capacity);
+        long published = 2 * (ticket / capacity);
+
+        // the previous lap of this slot may still be written by a slower producer
+        while (!stamps.compareAndSet(slot, published, published + 1)) {
+            Thread.onSpinWait();
+        }
+        VarHandle.releaseFence();
+
+        long offset = (long) slot * stateBytes;
+        copyState(state, states, offset);
+        copyState(nextState, nextStates, offset);
+        actions.setAtIndex(JAVA_LONG, slot, action);
+        rewards.setAtIndex(JAVA_FLOAT, slot, reward);
+        dones.set(JAVA_BYTE, slot, (byte) (done ? 1 : 0));
+
+        stamps.setRelease(slot, published + 2);
+        return slot;
+    }
+
+    private void checkState(ByteBuffer src) {
+        if (src.remaining() != stateBytes) {
+            throw new IllegalArgumentException(
+                    "State has %d bytes, expected %d".formatted(src.remaining(), stateBytes)
+            );
+        }
+    }
+
+    private void copyState(ByteBuffer src, MemorySegment dst, long offset) {
+        if (src.hasArray()) {
+            MemorySegment.copy(src.array(), src.arrayOffset() + src.position(),
+                    dst, JAVA_BYTE, offset, stateBytes);
+        } else {
+            MemorySegment.copy(MemorySegment.ofBuffer(src), 0, dst, offset, stateBytes);
+        }
+    }
+
+    @Override
+    public int[] sampleIndices(int batchSize) {
+        int size = size();
+        if (size == 0) {
+            throw new IllegalStateException("Cannot sample from an empty ReplayBuffer!");
+        }
+
+        int[] indices = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            indices[i] = random.nextInt(size);
+        }
+        return indices;
+    }
+
+    @Override
+    public void gatherInto(int[] indices, @NonNull ReplayBatchBuffers dst) {
+        if (closed) {
+            throw new IllegalStateException("ReplayBuffer already closed!");
+        }
+        dst.checkRows(indices.length);
+
+        for (int i = 0; i < indices.length; i++) {
+            int slot = indices[i];
+            if (!contains(slot)) {
+                throw new IndexOutOfBoundsException("Slot %d outside of [0, %d)".formatted(slot, size()));
+            }
+
+            while (!tryCopy(slot, i, dst)) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Seqlock read: the row is only valid if the slot was published before and after the copy.
+     */
+    private boolean tryCopy(int slot, int row, ReplayBatchBuffers dst) {
+        long stamp = stamps.getAcquire(slot);
+        if (stamp == EMPTY || (stamp & 1) != 0) {
+            return false;
+        }
+
+        long src = (long) slot * stateBytes;
+        long rowOffset = (long) row * stateBytes;
+        MemorySegment.copy(states, src, dst.statesSegment, rowOffset, stateBytes);
+        MemorySegment.copy(nextStates, src, dst.nextStatesSegment, rowOffset, stateBytes);
+        dst.actionsSegment.setAtIndex(JAVA_LONG, row, actions.getAtIndex(JAVA_LONG, slot));
+        dst.rewardsSegment.setAtIndex(JAVA_FLOAT, row, rewards.getAtIndex(JAVA_FLOAT, slot));
+        dst.donesSegment.set(JAVA_BYTE, row, dones.get(JAVA_BYTE, slot));
+
+        VarHandle.loadLoadFence();
+        return stamps.get(slot) == stamp;
+    }
+
+    /**
+     * Producers must be stopped first, closing frees the memory they write to.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            log.warn("The ConcurrentReplayBuffer was already closed!");
+            return;
+        }
+        this.closed = true;
+        arena.close();
+    }
+}
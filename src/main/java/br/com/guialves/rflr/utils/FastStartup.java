@@ -0,0 +1,141 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.engine.Engine;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static br.com.guialves.rflr.python.PythonRuntime.*;
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static org.bytedeco.cpython.global.python.*;
+
+/**
+ * Startup mode for short jobs, e.g. evaluations: Python is initialized with startup-friendly
+ * environment defaults, then the configured modules are imported on a background thread while
+ * the calling thread loads the DJL engine, instead of on the first {@code NumPyByteBuffer} use
+ * and the first env script.
+ * <p>
+ * JVM class loading is covered by a JDK 25 AOT cache made by a training run, see the
+ * <code>aot-train</code> and <code>aot</code> Maven profiles:
+ * <code>-XX:AOTCacheOutput=rflr.aot</code> once, then <code>-XX:AOTCache=rflr.aot</code> on each launch.
+ * <p>
+ * References:
+ * <ul>
+ *   <li>JEP 483 – Ahead-of-Time Class Loading &amp; Linking: <a href="https://openjdk.org/jeps/483">...</a></li>
+ *   <li>JEP 514 – Ahead-of-Time Command-Line Ergonomics: <a href="https://openjdk.org/jeps/514">...</a></li>
+ *   <li>Python environment variables: <a href="https://docs.python.org/3.12/using/cmdline.html#environment-variables">...</a></li>
+ * </ul>
+ */
+@Slf4j
+public final class FastStartup {
+
+    /**
+     * Comma-separated modules to pre-import, <code>numpy,gymnasium</code> by default.
+     */
+    public static final String MODULES = "rflr.startup.modules";
+    /**
+     * Writable directory for the bytecode caches, shared by the jobs when site-packages is read-only.
+     */
+    public static final String PYCACHE_PREFIX = "rflr.startup.pycachePrefix";
+    private static final String DEFAULT_MODULES = "numpy,gymnasium";
+    private static final MethodHandle SETENV = Linker.nativeLinker().defaultLookup().find("setenv")
+            .map(symbol -> Linker.nativeLinker().downcallHandle(symbol,
+                    FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT)))
+            .orElse(null);
+
+    private FastStartup() {
+        throw new IllegalArgumentException("No FastStartup!");
+    }
+
+    /**
+     * {@link #warmUp(List)} of the modules in {@link #MODULES}.
+     */
+    public static void warmUp() {
+        var modules = Arrays.stream(System.getProperty(MODULES, DEFAULT_MODULES).split(","))
+                .map(String::strip)
+                .filter(module -> !module.isEmpty())
+                .toList();
+        warmUp(modules);
+    }
+
+    /**
+     * Called first thing from the thread that will use Python, e.g. at the start of main: it
+     * initializes Python, hands the GIL to a background thread importing {@code modules} while
+     * the DJL engine loads, and holds the GIL again on return.
+     * <p>
+     * Failed imports are only logged, the first real use reports them.
+     */
+    @SneakyThrows
+    public static void warmUp(List<String> modules) {
+        if (Boolean.getBoolean("python.initialized")) {
+            log.debug("Python was already initialized, the startup flags don't apply");
+        } else {
+            startupEnvironment();
+        }
+        initPython();
+        if (PyGILState_Check() != 1) {
+            throw new IllegalStateException("FastStartup must run on the thread holding the GIL");
+        }
+
+        var mainState = PyEval_SaveThread();
+        var imports = CompletableFuture.runAsync(
+                () -> insideGil(() -> importModules(modules)),
+                runnable -> Thread.ofPlatform().name("python-prewarm").daemon().start(runnable));
+        try {
+            long start = System.nanoTime();
+            var engine = Engine.getInstance();
+            log.info("Loaded {} {} in {} ms", engine.getEngineName(), engine.getVersion(),
+                    (System.nanoTime() - start) / 1_000_000);
+        } finally {
+            var failure = imports.handle((_, e) -> e).join();
+            PyEval_RestoreThread(mainState);
+            if (failure != null) {
+                log.warn("Python modules {} weren't pre-imported", modules, failure);
+            }
+        }
+    }
+
+    private static void importModules(List<String> modules) {
+        for (var module : modules) {
+            long start = System.nanoTime();
+            exec("__import__(name)", Map.of("name", module));
+            log.info("Imported {} in {} ms", module, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Defaults read by the interpreter at initialization, variables already set are kept.
+     */
+    private static void startupEnvironment() {
+        // no scan of the user site-packages, the packages come from JAVA_RL_SITE_PACKAGES
+        setDefaultEnv("PYTHONNOUSERSITE", "1");
+        var pycachePrefix = System.getProperty(PYCACHE_PREFIX);
+        if (pycachePrefix != null) {
+            setDefaultEnv("PYTHONPYCACHEPREFIX", pycachePrefix);
+        }
+    }
+
+    @SneakyThrows
+    private static void setDefaultEnv(String name, String value) {
+        if (SETENV == null) {
+            log.debug("No setenv on this platform, {} isn't set", name);
+            return;
+        }
+
+        try (var arena = Arena.ofConfined()) {
+            int rc = (int) SETENV.invokeExact(arena.allocateFrom(name), arena.allocateFrom(value), 0);
+            if (rc != 0) {
+                log.warn("setenv {} failed: {}", name, rc);
+            }
+        }
+    }
+}
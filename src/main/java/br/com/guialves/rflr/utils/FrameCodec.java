@@ -0,0 +1,157 @@
+package br.com.guialves.rflr.utils;
+
+import lombok.SneakyThrows;
+
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codecs of the {@link CompressedReplayBuffer} rows, a row being a state followed by its next state.
+ * <p>
+ * {@link #DEFLATE} uses {@link Deflater#BEST_SPEED}, its 32 KiB window catches the frames shared by
+ * the two stacks. {@link #DELTA_RLE} stores the state as the difference to the previous pixel and
+ * the next state as the difference to the state, then run-length encodes the mostly zero result
+ * (PackBits), trading ratio for a codec several times faster.
+ * <p>
+ * Both keep per-thread scratch state, so encoding and decoding are thread-safe.
+ */
+public enum FrameCodec {
+
+    DEFLATE {
+        private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+        private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+        @Override
+        int encode(byte[] src, int offset, int stateBytes, byte[] dst, int dstOffset) {
+            var deflater = deflaters.get();
+            deflater.reset();
+            deflater.setInput(src, offset, 2 * stateBytes);
+            deflater.finish();
+            int written = deflater.deflate(dst, dstOffset, dst.length - dstOffset);
+            return deflater.finished() ? written : -1;
+        }
+
+        @Override
+        @SneakyThrows
+        void decode(byte[] src, int offset, int length, int stateBytes, byte[] row) {
+            var inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(src, offset, length);
+            if (inflater.inflate(row, 0, 2 * stateBytes) != 2 * stateBytes) {
+                throw new IllegalStateException("Truncated deflate row");
+            }
+        }
+    },
+
+    DELTA_RLE {
+        private final ThreadLocal<byte[]> deltas = ThreadLocal.withInitial(() -> new byte[0]);
+
+        @Override
+        int encode(byte[] src, int offset, int stateBytes, byte[] dst, int dstOffset) {
+            var delta = deltas.get();
+            if (delta.length < 2 * stateBytes) {
+                delta = new byte[2 * stateBytes];
+                deltas.set(delta);
+            }
+
+            byte previous = 0;
+            for (int i = 0; i < stateBytes; i++) {
+                byte value = src[offset + i];
+                delta[i] = (byte) (value - previous);
+                delta[stateBytes + i] = (byte) (src[offset + stateBytes + i] - value);
+                previous = value;
+            }
+            return packBits(delta, 2 * stateBytes, dst, dstOffset);
+        }
+
+        @Override
+        void decode(byte[] src, int offset, int length, int stateBytes, byte[] row) {
+            unpackBits(src, offset, length, row, 2 * stateBytes);
+
+            byte previous = 0;
+            for (int i = 0; i < stateBytes; i++) {
+                previous = (byte) (row[i] + previous);
+                row[i] = previous;
+                row[stateBytes + i] = (byte) (row[stateBytes + i] + previous);
+            }
+        }
+    };
+
+    private static final int MAX_RUN = 128;
+
+    /**
+     * @return bytes written, or -1 if the row doesn't fit in {@code dst}
+     */
+    abstract int encode(byte[] src, int offset, int stateBytes, byte[] dst, int dstOffset);
+
+    /**
+     * @param row receives the {@code 2 * stateBytes} bytes of the state and the next state
+     */
+    abstract void decode(byte[] src, int offset, int length, int stateBytes, byte[] row);
+
+    /**
+     * @return scratch size that fits any encoded row
+     */
+    static int maxEncodedBytes(int stateBytes) {
+        int rowBytes = 2 * stateBytes;
+        return rowBytes + rowBytes / MAX_RUN + 64;
+    }
+
+    /**
+     * Control byte {@code c >= 0}: {@code c + 1} literal bytes follow; {@code c < 0}: the next byte
+     * repeats {@code 1 - c} times.
+     */
+    private static int packBits(byte[] src, int length, byte[] dst, int dstOffset) {
+        int in = 0;
+        int out = dstOffset;
+
+        while (in < length) {
+            int run = 1;
+            while (in + run < length && run < MAX_RUN && src[in + run] == src[in]) run++;
+
+            if (run >= 2) {
+                if (out + 2 > dst.length) return -1;
+                dst[out++] = (byte) (1 - run);
+                dst[out++] = src[in];
+                in += run;
+            } else {
+                int start = in++;
+                while (in < length && in - start < MAX_RUN
+                        && !(in + 1 < length && src[in] == src[in + 1])) {
+                    in++;
+                }
+                int literals = in - start;
+                if (out + 1 + literals > dst.length) return -1;
+                dst[out++] = (byte) (literals - 1);
+                System.arraycopy(src, start, dst, out, literals);
+                out += literals;
+            }
+        }
+
+        return out - dstOffset;
+    }
+
+    private static void unpackBits(byte[] src, int offset, int length, byte[] dst, int dstLength) {
+        int in = offset;
+        int end = offset + length;
+        int out = 0;
+
+        while (in < end) {
+            int control = src[in++];
+            if (control >= 0) {
+                int literals = control + 1;
+                System.arraycopy(src, in, dst, out, literals);
+                in += literals;
+                out += literals;
+            } else {
+                int run = 1 - control;
+                byte value = src[in++];
+                for (int i = 0; i < run; i++) dst[out++] = value;
+            }
+        }
+
+        if (out != dstLength) {
+            throw new IllegalStateException("Decoded %d bytes, expected %d".formatted(out, dstLength));
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package br.com.guialves.rflr.utils;
+
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.util.random.RandomGenerator;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Replay buffer for stacked observations, shape {@code (k, ...frame)}, that stores every frame once.
+ * <p>
+ * Frames go to an off-heap ring and are identified by a monotonic frame id, each transition
+ * only keeps the id of the newest frame of its state and of its next state. Both stacks are
+ * always the {@code k} consecutive ids ending there, so they are rebuilt by index in
+ * {@link #gatherInto(int[], ReplayBatchBuffers)}.
+ * <p>
+ * Episode boundaries are found by content: if the state isn't the last stored next state,
+ * a new episode started (reset, truncation...) and its {@code k} frames are pushed; if the
+ * next state is the state shifted by one frame (sliding window) only its newest frame is
+ * pushed, otherwise all its {@code k} frames are. So a 4-frame sliding window stores about one
+ * frame per transition instead of eight, and other stacking schemes are still correct.
+ * <p>
+ * Frames are evicted FIFO. The default frame ring holds {@code capacity / 32} extra frames for
+ * the stacks pushed at episode starts; with episodes shorter than {@code 32 * k} steps on average
+ * the oldest transitions are evicted before the transition ring is full, see {@link #size()}.
+ * <p>
+ * Not thread-safe, the caller must serialize inserts and sampling.
+ */
+@Slf4j
+@Accessors(fluent = true)
+public class FrameStackReplayBuffer implements IReplayBuffer {
+
+    private static final long ALIGNMENT = 64;
+
+    @Getter
+    private final int capacity;
+    @Getter
+    private final EnvStateMetadata stateMetadata;
+    @Getter
+    private final long memoryBytes;
+    @Getter
+    private final int stackSize;
+    @Getter
+    private final long frameCapacity;
+    private final int frameBytes;
+    private final int stateBytes;
+    private final Arena arena;
+    private final MemorySegment frames;
+    private final MemorySegment stateFrameIds;
+    private final MemorySegment nextFrameIds;
+    private final MemorySegment actions;
+    private final MemorySegment rewards;
+    private final MemorySegment dones;
+    private final RandomGenerator random;
+
+    @Getter
+    private int size;
+    private int head;
+    private long frameCount;
+    private long lastFrameId = -1;
+    private boolean closed;
+
+    public FrameStackReplayBuffer(int capacity, @NonNull EnvStateMetadata stateMetadata) {
+        this(capacity, stateMetadata, defaultFrameCapacity(capacity, stateMetadata), RandomGenerator.getDefault());
+    }
+
+    public FrameStackReplayBuffer(int capacity,
+                                  @NonNull EnvStateMetadata stateMetadata,
+                                  long frameCapacity,
+                                  @NonNull RandomGenerator random) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        var shape = stateMetadata.djlShape();
+        if (shape.dimension() < 2) {
+            throw new IllegalArgumentException("Expected stacked frames (k, ...frame), got " + shape);
+        }
+
+        this.stackSize = Math.toIntExact(shape.get(0));
+        if (frameCapacity < 2L * stackSize) {
+            throw new IllegalArgumentException("Frame capacity must hold at least two stacks: " + frameCapacity);
+        }
+
+        this.capacity = capacity;
+        this.stateMetadata = stateMetadata;
+        this.stateBytes = stateMetadata.size();
+        this.frameBytes = stateBytes / stackSize;
+        this.frameCapacity = frameCapacity;
+        this.random = random;
+        this.memoryBytes = memoryBytes(capacity, stateMetadata, frameCapacity);
+        this.arena = Arena.ofShared();
+
+        this.frames = arena.allocate(frameCapacity * frameBytes, ALIGNMENT);
+        this.stateFrameIds = arena.allocate((long) capacity * Long.BYTES, ALIGNMENT);
+        this.nextFrameIds = arena.allocate((long) capacity * Long.BYTES, ALIGNMENT);
+        this.actions = arena.allocate((long) capacity * Long.BYTES, ALIGNMENT);
+        this.rewards = arena.allocate((long) capacity * Float.BYTES, ALIGNMENT);
+        this.dones = arena.allocate(capacity, ALIGNMENT);
+
+        log.info("FrameStackReplayBuffer capacity: {}, frames: {}, state: {} {}, memory: {} MiB",
+                capacity, frameCapacity, stateMetadata.djlShape(), stateMetadata.djlType(), memoryBytes >> 20);
+    }
+
+    public static long defaultFrameCapacity(int capacity, EnvStateMetadata stateMetadata) {
+        long stackSize = stateMetadata.djlShape().get(0);
+        return capacity + capacity / 32 + 2 * stackSize;
+    }
+
+    public static long memoryBytes(int capacity, EnvStateMetadata stateMetadata, long frameCapacity) {
+        long frameBytes = stateMetadata.size() / stateMetadata.djlShape().get(0);
+        long perTransition = 2L * Long.BYTES + Long.BYTES + Float.BYTES + Byte.BYTES;
+        return frameCapacity * frameBytes + capacity * perTransition;
+    }
+
+    @Override
+    public int add(ByteBuffer state, long action, float reward, ByteBuffer nextState, boolean done) {
+        if (closed) {
+            throw new IllegalStateException("ReplayBuffer already closed!");
+        }
+
+        var stateSrc = segmentOf(state);
+        var nextStateSrc = segmentOf(nextState);
+
+        long stateId;
+        if (lastFrameId >= 0 && isStoredStack(stateSrc, lastFrameId)) {
+            stateId = lastFrameId;
+        } else {
+            pushFrames(stateSrc, 0, stackSize);
+            stateId = frameCount - 1;
+        }
+
+        if (isShifted(stateSrc, nextStateSrc)) {
+            pushFrames(nextStateSrc, stackSize - 1, 1);
+        } else {
+            pushFrames(nextStateSrc, 0, stackSize);
+        }
+        long nextId = frameCount - 1;
+
+        if (size == capacity) {
+            evictOldest();
+        }
+
+        int slot = (int) ((head + (long) size) % capacity);
+        stateFrameIds.setAtIndex(JAVA_LONG, slot, stateId);
+        nextFrameIds.setAtIndex(JAVA_LONG, slot, nextId);
+        actions.setAtIndex(JAVA_LONG, slot, action);
+        rewards.setAtIndex(JAVA_FLOAT, slot, reward);
+        dones.set(JAVA_BYTE, slot, (byte) (done ? 1 : 0));
+
+        size++;
+        lastFrameId = nextId;
+        return slot;
+    }
+
+    private MemorySegment segmentOf(ByteBuffer src) {
+        if (src.remaining() != stateBytes) {
+            throw new IllegalArgumentException(
+                    "State has %d bytes, expected %d".formatted(src.remaining(), stateBytes)
+            );
+        }
+        return MemorySegment.ofBuffer(src);
+    }
+
+    private boolean isStoredStack(MemorySegment src, long newestFrameId) {
+        long oldest = newestFrameId - stackSize + 1;
+        if (oldest < 0) return false;
+
+        for (int j = 0; j < stackSize; j++) {
+            long srcOffset = (long) j * frameBytes;
+            long ringOffset = ringOffset(oldest + j);
+            if (MemorySegment.mismatch(src, srcOffset, srcOffset + frameBytes,
+                    frames, ringOffset, ringOffset + frameBytes) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the next state drops the oldest frame of the state and appends one frame
+     */
+    private boolean isShifted(MemorySegment state, MemorySegment nextState) {
+        long overlap = stateBytes - frameBytes;
+        return MemorySegment.mismatch(state, frameBytes, stateBytes, nextState, 0, overlap) == -1;
+    }
+
+    private void pushFrames(MemorySegment src, int fromFrame, int count) {
+        for (int j = 0; j < count; j++) {
+            long frameId = frameCount;
+            long overwritten = frameId - frameCapacity;
+            if (overwritten >= 0) {
+                evictReferencing(overwritten);
+            }
+
+            MemorySegment.copy(src, (long) (fromFrame + j) * frameBytes,
+                    frames, ringOffset(frameId), frameBytes);
+            frameCount++;
+        }
+    }
+
+    /**
+     * Transitions are ordered by frame id, so the ones using an overwritten frame are the oldest.
+     */
+    private void evictReferencing(long frameId) {
+        while (size > 0 && stateFrameIds.getAtIndex(JAVA_LONG, head) - stackSize + 1 <= frameId) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        head = head + 1 == capacity ? 0 : head + 1;
+        size--;
+    }
+
+    private long ringOffset(long frameId) {
+        return (frameId % frameCapacity) * frameBytes;
+    }
+
+    @Override
+    public boolean contains(int slot) {
+        if (slot < 0 || slot >= capacity) return false;
+        int age = slot >= head ? slot - head : slot + capacity - head;
+        return age < size;
+    }
+
+    @Override
+    public int[] sampleIndices(int batchSize) {
+        if (size == 0) {
+            throw new IllegalStateException("Cannot sample from an empty ReplayBuffer!");
+        }
+
+        int[] indices = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            indices[i] = (int) ((head + (long) random.nextInt(size)) % capacity);
+        }
+        return indices;
+    }
+
+    @Override
+    public void gatherInto(int[] indices, @NonNull ReplayBatchBuffers dst) {
+        if (closed) {
+            throw new IllegalStateException("ReplayBuffer already closed!");
+        }
+
+        dst.checkRows(indices.length);
+
+        for (int i = 0; i < indices.length; i++) {
+            int slot = indices[i];
+            if (!contains(slot)) {
+                throw new IndexOutOfBoundsException("Slot %d is not stored".formatted(slot));
+            }
+
+            long row = (long) i * stateBytes;
+            copyStack(stateFrameIds.getAtIndex(JAVA_LONG, slot), dst.statesSegment, row);
+            copyStack(nextFrameIds.getAtIndex(JAVA_LONG, slot), dst.nextStatesSegment, row);
+            dst.actionsSegment.setAtIndex(JAVA_LONG, i, actions.getAtIndex(JAVA_LONG, slot));
+            dst.rewardsSegment.setAtIndex(JAVA_FLOAT, i, rewards.getAtIndex(JAVA_FLOAT, slot));
+            dst.donesSegment.set(JAVA_BYTE, i, dones.get(JAVA_BYTE, slot));
+        }
+    }
+
+    private void copyStack(long newestFrameId, MemorySegment dst, long dstOffset) {
+        long oldest = newestFrameId - stackSize + 1;
+        for (int j = 0; j < stackSize; j++) {
+            MemorySegment.copy(frames, ringOffset(oldest + j),
+                    dst, dstOffset + (long) j * frameBytes, frameBytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            log.warn("The FrameStackReplayBuffer was already closed!");
+            return;
+        }
+        this.closed = true;
+        arena.close();
+    }
+}
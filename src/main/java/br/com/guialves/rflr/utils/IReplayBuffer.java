@@ -0,0 +1,101 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import br.com.guialves.rflr.gymnasium4j.EnvStepResult;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Experience replay storage for (state, action, reward, nextState, done) transitions.
+ * <p>
+ * Actions are discrete (DQN to Rainbow), so they are stored as int64.
+ * The state columns keep the dtype described by {@link EnvStateMetadata}.
+ */
+public interface IReplayBuffer extends AutoCloseable {
+
+    int capacity();
+
+    int size();
+
+    /**
+     * @return bytes reserved for the whole capacity, known up front
+     */
+    long memoryBytes();
+
+    EnvStateMetadata stateMetadata();
+
+    /**
+     * Store one transition, overwriting the oldest one when full.
+     *
+     * @param state raw bytes of the state (from position to limit)
+     * @param nextState raw bytes of the next state (from position to limit)
+     * @return the slot where the transition was written
+     */
+    int add(ByteBuffer state, long action, float reward, ByteBuffer nextState, boolean done);
+
+    default int add(NDArray state, long action, float reward, NDArray nextState, boolean done) {
+        return add(state.toByteBuffer(), action, reward, nextState.toByteBuffer(), done);
+    }
+
+    /**
+     * Only termination marks the transition as done, truncated episodes must still bootstrap.
+     */
+    default int add(NDArray state, long action, EnvStepResult result) {
+        return add(state, action, (float) result.reward(), result.state(), result.term());
+    }
+
+    /**
+     * @return true if the slot holds a transition that can be gathered
+     */
+    default boolean contains(int slot) {
+        return slot >= 0 && slot < size();
+    }
+
+    /**
+     * @return slots sampled uniformly among the stored transitions
+     */
+    int[] sampleIndices(int batchSize);
+
+    /**
+     * Copy the given slots into the first {@code indices.length} rows of the column buffers.
+     */
+    void gatherInto(int[] indices, ReplayBatchBuffers dst);
+
+    /**
+     * Sample a batch into the column buffers, writing the weights too when they are weighted.
+     *
+     * @return the sampled slots
+     */
+    default int[] sampleInto(int batchSize, ReplayBatchBuffers dst) {
+        int[] indices = sampleIndices(batchSize);
+        gatherInto(indices, dst);
+        return indices;
+    }
+
+    /**
+     * @return true if the batches carry importance-sampling weights
+     */
+    default boolean weighted() {
+        return false;
+    }
+
+    /**
+     * Copy the given slots into one tensor per column, with the batch as the first dimension.
+     * Allocates new column buffers, use a {@link ReplayBatchSampler} to reuse them.
+     */
+    default ReplayBatch gather(int[] indices, NDManager manager) {
+        var dst = new ReplayBatchBuffers(stateMetadata(), Math.max(1, indices.length), false);
+        gatherInto(indices, dst);
+        return dst.toBatch(indices, manager);
+    }
+
+    default ReplayBatch sample(int batchSize, NDManager manager) {
+        var dst = new ReplayBatchBuffers(stateMetadata(), batchSize, weighted());
+        return dst.toBatch(sampleInto(batchSize, dst), manager);
+    }
+
+    @Override
+    void close();
+}
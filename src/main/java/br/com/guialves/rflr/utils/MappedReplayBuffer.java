@@ -0,0 +1,455 @@
+package br.com.guialves.rflr.utils;
+
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+import java.util.zip.CRC32C;
+
+import static java.lang.foreign.ValueLayout.*;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Disk-backed replay buffer for capacities that don't fit in RAM (10M+ transitions).
+ * <p>
+ * Transitions are fixed-size records laid out in segment files mapped with
+ * {@link FileChannel#map(FileChannel.MapMode, long, long, Arena)}, so the OS page cache decides
+ * what stays in memory. Each segment holds {@code recordsPerSegment} records and is created
+ * (sparse) when the ring first reaches it. Sampling copies straight from the mapping into the
+ * batch buffers, without intermediate {@code byte[]}.
+ * <p>
+ * Record layout (8-byte aligned):
+ * <pre>
+ * | sequence (8) | crc (4) | reward (4) | action (8) | done (1) | pad (7) | state | nextState | pad |
+ * </pre>
+ * <p>
+ * Crash safety: {@link #commit()} forces the mapped segments and then atomically replaces the
+ * checksummed header (ring position and insert sequence), the records up to it are durable. The
+ * records written after the last commit are only in the page cache: an OS crash or a power loss
+ * can write back some of their pages and not others, e.g. the sequence stamp without the rest of
+ * a multi-page frame. Each record therefore carries a CRC32C of its sequence and content, and on
+ * reopen the records after the commit are recovered only while their sequence keeps increasing
+ * and their checksum matches, the first torn one ends the ring.
+ * <p>
+ * Not thread-safe, the caller must serialize inserts and sampling.
+ */
+@Slf4j
+@Accessors(fluent = true)
+public class MappedReplayBuffer implements IReplayBuffer {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 1L << 30;
+    public static final int DEFAULT_COMMIT_INTERVAL = 0;
+
+    static final String HEADER_FILE = "replay.header";
+    private static final int MAGIC = 0x52504C59;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 512;
+    private static final long INVALID_SEQUENCE = -1;
+
+    private static final long SEQUENCE_OFFSET = 0;
+    private static final long CRC_OFFSET = 8;
+    private static final long REWARD_OFFSET = 12;
+    private static final long ACTION_OFFSET = 16;
+    private static final long DONE_OFFSET = 24;
+    private static final long STATE_OFFSET = 32;
+
+
+    @Getter
+    private final Path directory;
+    @Getter
+    private final int capacity;
+    @Getter
+    private final EnvStateMetadata stateMetadata;
+    @Getter
+    private final int recordBytes;
+    @Getter
+    private final int recordsPerSegment;
+    private final int stateBytes;
+    private final int commitInterval;
+    private final Arena arena;
+    private final MemorySegment[] segments;
+    private final boolean[] dirty;
+    private final RandomGenerator random;
+    private final CRC32C recordCrc = new CRC32C();
+    private final ByteBuffer sequenceBytes = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    @Getter
+    private int size;
+    private int head;
+    private long sequence;
+    private int uncommitted;
+    private boolean closed;
+
+    public MappedReplayBuffer(@NonNull Path directory, int capacity, @NonNull EnvStateMetadata stateMetadata) {
+        this(directory, capacity, stateMetadata, DEFAULT_SEGMENT_BYTES, DEFAULT_COMMIT_INTERVAL,
+                RandomGenerator.getDefault());
+    }
+
+    /**
+     * Create the buffer, or reopen it if {@code directory} already has a compatible header.
+     *
+     * @param segmentBytes   max bytes per segment file
+     * @param commitInterval inserts between automatic {@link #commit()}, 0 to only commit explicitly and on close
+     */
+    @SneakyThrows
+    public MappedReplayBuffer(@NonNull Path directory,
+                              int capacity,
+                              @NonNull EnvStateMetadata stateMetadata,
+                              long segmentBytes,
+                              int commitInterval,
+                              @NonNull RandomGenerator random) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.directory = directory;
+        this.capacity = capacity;
+        this.stateMetadata = stateMetadata;
+        this.stateBytes = stateMetadata.size();
+        this.recordBytes = recordBytes(stateMetadata);
+        this.recordsPerSegment = (int) Math.clamp(segmentBytes / recordBytes, 1, capacity);
+        this.commitInterval = commitInterval;
+        this.random = random;
+        this.arena = Arena.ofShared();
+
+        int segmentCount = (capacity + recordsPerSegment - 1) / recordsPerSegment;
+        this.segments = new MemorySegment[segmentCount];
+        this.dirty = new boolean[segmentCount];
+
+        Files.createDirectories(directory);
+        if (Files.exists(directory.resolve(HEADER_FILE))) {
+            reopen();
+        } else {
+            writeHeader();
+        }
+
+        log.info("MappedReplayBuffer {} capacity: {}, record: {} bytes, segments: {} x {} records, size: {}",
+                directory, capacity, recordBytes, segmentCount, recordsPerSegment, size);
+    }
+
+    public static int recordBytes(EnvStateMetadata stateMetadata) {
+        long bytes = STATE_OFFSET + 2L * stateMetadata.size();
+        return Math.toIntExact((bytes + 7) & ~7L);
+    }
+
+    /**
+     * @return bytes the segment files take on disk once full, only the touched pages stay in RAM
+     */
+    @Override
+    public long memoryBytes() {
+        return (long) capacity * recordBytes;
+    }
+
+    @Override
+    public int add(ByteBuffer state, long action, float reward, ByteBuffer nextState, boolean done) {
+        if (closed) {
+            throw new IllegalStateException("ReplayBuffer already closed!");
+        }
+        checkState(state);
+        checkState(nextState);
+
+        int slot = (int) ((head + (long) size) % capacity);
+        var segment = writableSegment(slot);
+        long offset = recordOffset(slot);
+
+        segment.set(JAVA_LONG, offset + SEQUENCE_OFFSET, INVALID_SEQUENCE);
+        VarHandle.releaseFence();
+
+        MemorySegment.copy(MemorySegment.ofBuffer(state), 0, segment, offset + STATE_OFFSET, stateBytes);
+        MemorySegment.copy(MemorySegment.ofBuffer(nextState), 0, segment, offset + STATE_OFFSET + stateBytes, stateBytes);
+        segment.set(JAVA_LONG, offset + ACTION_OFFSET, action);
+        segment.set(JAVA_FLOAT, offset + REWARD_OFFSET, reward);
+        segment.set(JAVA_BYTE, offset + DONE_OFFSET, (byte) (done ? 1 : 0));
+        segment.set(JAVA_INT, offset + CRC_OFFSET, recordCrc(segment, offset, sequence));
+
+        VarHandle.releaseFence();
+        segment.set(JAVA_LONG, offset + SEQUENCE_OFFSET, sequence);
+
+        sequence++;
+        if (size == capacity) {
+            head = head + 1 == capacity ? 0 : head + 1;
+        } else {
+            size++;
+        }
+
+        if (commitInterval > 0 && ++uncommitted >= commitInterval) {
+            commit();
+        }
+        return slot;
+    }
+
+    private void checkState(ByteBuffer src) {
+        if (src.remaining() != stateBytes) {
+            throw new IllegalArgumentException(
+                    "State has %d bytes, expected %d".formatted(src.remaining(), stateBytes)
+            );
+        }
+    }
+
+    private MemorySegment writableSegment(int slot) {
+        int index = slot / recordsPerSegment;
+        dirty[index] = true;
+        var segment = segments[index];
+        return segment != null ? segment : map(index);
+    }
+
+    /**
+     * Segments are created on first use, the file grows sparse to its full size.
+     */
+    @SneakyThrows
+    private MemorySegment map(int index) {
+        long records = Math.min(recordsPerSegment, capacity - (long) index * recordsPerSegment);
+        try (var channel = FileChannel.open(segmentPath(index), CREATE, READ, WRITE)) {
+            var segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, records * recordBytes, arena);
+            segments[index] = segment;
+            log.debug("Mapped segment {} with {} records", index, records);
+            return segment;
+        }
+    }
+
+    Path segmentPath(int index) {
+        return directory.resolve("segment-%05d.bin".formatted(index));
+    }
+
+    private long recordOffset(int slot) {
+        return (long) (slot % recordsPerSegment) * recordBytes;
+    }
+
+    private long recordSequence(int slot) {
+        var segment = segments[slot / recordsPerSegment];
+        if (segment == null) return INVALID_SEQUENCE;
+        return segment.get(JAVA_LONG, recordOffset(slot) + SEQUENCE_OFFSET);
+    }
+
+    /**
+     * Checksum of everything after the crc field, and of {@code recordSequence}, so a stamp
+     * written back without the rest of the record, or the other way around, doesn't match.
+     */
+    private int recordCrc(MemorySegment segment, long offset, long recordSequence) {
+        recordCrc.reset();
+        recordCrc.update(sequenceBytes.clear().putLong(recordSequence).flip());
+        recordCrc.update(segment.asSlice(offset + REWARD_OFFSET, recordBytes - REWARD_OFFSET).asByteBuffer());
+        return (int) recordCrc.getValue();
+    }
+
+    /**
+     * @return whether {@code slot} holds the complete record of {@code expectedSequence}
+     */
+    private boolean intact(int slot, long expectedSequence) {
+        if (expectedSequence == INVALID_SEQUENCE || recordSequence(slot) != expectedSequence) return false;
+        var segment = segments[slot / recordsPerSegment];
+        long offset = recordOffset(slot);
+        return segment.get(JAVA_INT, offset + CRC_OFFSET) == recordCrc(segment, offset, expectedSequence);
+    }
+
+    @Override
+    public boolean contains(int slot) {
+        if (slot < 0 || slot >= capacity) return false;
+        int age = slot >= head ? slot - head : slot + capacity - head;
+        return age < size;
+    }
+
+    @Override
+    public int[] sampleIndices(int batchSize) {
+        if (size == 0) {
+            throw new IllegalStateException("Cannot sample from an empty ReplayBuffer!");
+        }
+
+        int[] indices = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            indices[i] = (int) ((head + (long) random.nextInt(size)) % capacity);
+        }
+        return indices;
+    }
+
+    @Override
+    public void gatherInto(int[] indices, @NonNull ReplayBatchBuffers dst) {
+        if (closed) {
+            throw new IllegalStateException("ReplayBuffer already closed!");
+        }
+
+        dst.checkRows(indices.length);
+
+        for (int i = 0; i < indices.length; i++) {
+            int slot = indices[i];
+            if (!contains(slot)) {
+                throw new IndexOutOfBoundsException("Slot %d is not stored".formatted(slot));
+            }
+
+            var segment = segments[slot / recordsPerSegment];
+            long offset = recordOffset(slot);
+            long row = (long) i * stateBytes;
+
+            MemorySegment.copy(segment, offset + STATE_OFFSET, dst.statesSegment, row, stateBytes);
+            MemorySegment.copy(segment, offset + STATE_OFFSET + stateBytes, dst.nextStatesSegment, row, stateBytes);
+            dst.actionsSegment.setAtIndex(JAVA_LONG, i, segment.get(JAVA_LONG, offset + ACTION_OFFSET));
+            dst.rewardsSegment.setAtIndex(JAVA_FLOAT, i, segment.get(JAVA_FLOAT, offset + REWARD_OFFSET));
+            dst.donesSegment.set(JAVA_BYTE, i, segment.get(JAVA_BYTE, offset + DONE_OFFSET));
+        }
+    }
+
+    /**
+     * Flush the written segments to disk and then publish the ring position in the header,
+     * a restarted run reopens the buffer at least up to this point.
+     */
+    public void commit() {
+        if (closed) {
+            throw new IllegalStateException("ReplayBuffer already closed!");
+        }
+
+        for (int i = 0; i < segments.length; i++) {
+            if (dirty[i]) {
+                segments[i].force();
+                dirty[i] = false;
+            }
+        }
+
+        writeHeader();
+        uncommitted = 0;
+    }
+
+    @SneakyThrows
+    private void writeHeader() {
+        var header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(capacity)
+                .putInt(recordBytes)
+                .putInt(recordsPerSegment)
+                .putInt(stateBytes);
+
+        byte[] dtype = stateMetadata.djlType().name().getBytes(StandardCharsets.US_ASCII);
+        header.putInt(dtype.length).put(dtype);
+
+        long[] shape = stateMetadata.djlShape().getShape();
+        header.putInt(shape.length);
+        for (long dim : shape) header.putLong(dim);
+
+        header.putInt(head)
+                .putInt(size)
+                .putLong(sequence);
+
+        var crc = new CRC32C();
+        crc.update(header.array(), 0, header.position());
+        header.putInt((int) crc.getValue());
+        header.flip();
+
+        var headerFile = directory.resolve(HEADER_FILE);
+        var tmpFile = directory.resolve(HEADER_FILE + ".tmp");
+        try (var channel = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) channel.write(header);
+            channel.force(true);
+        }
+        Files.move(tmpFile, headerFile, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private void reopen() throws IOException {
+        var header = ByteBuffer.wrap(Files.readAllBytes(directory.resolve(HEADER_FILE)))
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IllegalStateException("Not a replay buffer header: " + directory);
+        }
+
+        expectHeader("capacity", capacity, header.getInt());
+        expectHeader("record bytes", recordBytes, header.getInt());
+        expectHeader("records per segment", recordsPerSegment, header.getInt());
+        expectHeader("state bytes", stateBytes, header.getInt());
+
+        byte[] dtype = new byte[header.getInt()];
+        header.get(dtype);
+        long[] shape = new long[header.getInt()];
+        for (int i = 0; i < shape.length; i++) shape[i] = header.getLong();
+
+        var storedType = new String(dtype, StandardCharsets.US_ASCII);
+        if (!storedType.equals(stateMetadata.djlType().name())
+                || !Arrays.equals(shape, stateMetadata.djlShape().getShape())) {
+            throw new IllegalStateException("Replay buffer stores %s %s, expected %s %s".formatted(
+                    storedType, Arrays.toString(shape), stateMetadata.djlType(), stateMetadata.djlShape()));
+        }
+
+        int storedHead = header.getInt();
+        int storedSize = header.getInt();
+        long storedSequence = header.getLong();
+
+        var crc = new CRC32C();
+        crc.update(header.array(), 0, header.position());
+        if (header.getInt() != (int) crc.getValue()) {
+            throw new IllegalStateException("Corrupted replay buffer header: " + directory);
+        }
+
+        for (int i = 0; i < segments.length; i++) {
+            if (Files.exists(segmentPath(i))) map(i);
+        }
+
+        this.head = storedHead;
+        this.size = storedSize;
+        this.sequence = storedSequence;
+        recover();
+    }
+
+    private static void expectHeader(String field, int expected, int stored) {
+        if (expected != stored) {
+            throw new IllegalStateException("Replay buffer %s is %d, expected %d".formatted(field, stored, expected));
+        }
+    }
+
+    /**
+     * Roll forward over the records completed after the last commit, checking their checksum as
+     * their pages may not have all reached the disk. When the ring is full the next slot is the
+     * oldest record, if a crash tore it, it's dropped from the ring.
+     */
+    private void recover() {
+        long committed = sequence;
+        while (true) {
+            int slot = (int) ((head + (long) size) % capacity);
+            if (!intact(slot, sequence)) break;
+
+            sequence++;
+            if (size == capacity) {
+                head = head + 1 == capacity ? 0 : head + 1;
+            } else {
+                size++;
+            }
+        }
+
+        if (size == capacity && !intact(head, recordSequence(head))) {
+            head = head + 1 == capacity ? 0 : head + 1;
+            size--;
+            log.warn("Dropped a torn record at the head of {}", directory);
+        }
+
+        if (sequence != committed) {
+            log.info("Recovered {} records written after the last commit of {}", sequence - committed, directory);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            log.warn("The MappedReplayBuffer was already closed!");
+            return;
+        }
+
+        commit();
+        this.closed = true;
+        arena.close();
+    }
+}
@@ -0,0 +1,17 @@
+package br.com.guialves.rflr.utils;
+
+public final class MinSegmentTree extends SegmentTree {
+
+    public MinSegmentTree(int size) {
+        super(size, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    protected double combine(double left, double right) {
+        return Math.min(left, right);
+    }
+
+    public double min() {
+        return tree[1];
+    }
+}
@@ -0,0 +1,215 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDArray;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import br.com.guialves.rflr.gymnasium4j.EnvStepResult;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+/**
+ * Streaming n-step return builder between {@code IEnv.step} and the replay buffer.
+ * <p>
+ * Each env keeps a ring with the last {@code n} (state, action) pairs and their partial returns.
+ * Every reward is added to the pending returns, so when the ring is full the oldest entry
+ * already holds {@code R_t^(n) = r_t + gamma r_{t+1} + ... + gamma^(n-1) r_{t+n-1}} and is emitted
+ * together with {@code s_{t+n}} and the bootstrap discount {@code gamma^n}. Each step costs at
+ * most {@code n} multiply-adds (n is the fixed horizon), keeping the returns exact instead of
+ * "un-discounting" a rolling sum, which drifts.
+ * <p>
+ * On termination every pending entry is flushed with {@code done = true}; on truncation they are
+ * flushed with {@code done = false} and their shorter discount {@code gamma^k}, since the
+ * episode still has a value to bootstrap from.
+ * <p>
+ * States are copied into one off-heap segment for all envs and handed to the {@link Sink} through
+ * views created up front, so steady-state stepping doesn't allocate. Not thread-safe across
+ * envs, each env index must be stepped by one thread at a time and the sink serialized.
+ * <p>
+ * Reference: <a href="https://arxiv.org/abs/1710.02298">Rainbow: Combining Improvements in Deep Reinforcement Learning</a>
+ */
+@Accessors(fluent = true)
+public class NStepAccumulator implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * @param state    s_t, a view valid only during the call
+         * @param discount gamma^k, k being the number of rewards in the return
+         */
+        void accept(int env, ByteBuffer state, long action, float nStepReturn,
+                    ByteBuffer nextState, float discount, boolean done);
+    }
+
+    @Getter
+    private final int envs;
+    @Getter
+    private final int n;
+    @Getter
+    private final double gamma;
+    @Getter
+    private final float fullDiscount;
+    private final int stateBytes;
+    private final Sink sink;
+    private final Arena arena;
+    private final MemorySegment states;
+    private final ByteBuffer[] stateViews;
+
+    private final long[] actions;
+    private final double[] returns;
+    private final double[] discounts;
+    private final int[] start;
+    private final int[] count;
+
+    public NStepAccumulator(int envs,
+                            int n,
+                            double gamma,
+                            @NonNull EnvStateMetadata stateMetadata,
+                            @NonNull Sink sink) {
+        if (envs <= 0 || n <= 0) {
+            throw new IllegalArgumentException("Envs and n must be positive: %d, %d".formatted(envs, n));
+        }
+
+        this.envs = envs;
+        this.n = n;
+        this.gamma = gamma;
+        this.fullDiscount = (float) discount(gamma, n);
+        this.stateBytes = stateMetadata.size();
+        this.sink = sink;
+
+        int entries = Math.multiplyExact(envs, n);
+        this.arena = Arena.ofShared();
+        this.states = arena.allocate((long) entries * stateBytes, 64);
+        this.stateViews = new ByteBuffer[entries];
+        for (int i = 0; i < entries; i++) {
+            stateViews[i] = states.asSlice((long) i * stateBytes, stateBytes)
+                    .asByteBuffer()
+                    .order(ByteOrder.nativeOrder());
+        }
+
+        this.actions = new long[entries];
+        this.returns = new double[entries];
+        this.discounts = new double[entries];
+        this.start = new int[envs];
+        this.count = new int[envs];
+    }
+
+    /**
+     * Feed the replay buffer directly. It has no discount column, so the transitions flushed by
+     * a truncation before reaching {@code n} rewards are dropped: every stored transition is then
+     * either terminal or bootstraps with {@link #fullDiscount()}.
+     */
+    public NStepAccumulator(int envs, int n, double gamma, @NonNull IReplayBuffer replay) {
+        this(envs, n, gamma, replay.stateMetadata(), toReplay(replay, (float) discount(gamma, n)));
+    }
+
+    private static Sink toReplay(IReplayBuffer replay, float fullDiscount) {
+        return (_, state, action, nStepReturn, nextState, discount, done) -> {
+            if (done || discount == fullDiscount) {
+                replay.add(state, action, nStepReturn, nextState, done);
+            }
+        };
+    }
+
+    private static double discount(double gamma, int steps) {
+        double discount = 1.0;
+        for (int i = 0; i < steps; i++) discount *= gamma;
+        return discount;
+    }
+
+    /**
+     * @param state     s_t, copied
+     * @param nextState s_{t+1}, passed to the sink as s_{t+n} of the emitted transitions
+     */
+    public void step(int env, ByteBuffer state, long action, float reward, ByteBuffer nextState,
+                     boolean term, boolean trunc) {
+        if (state.remaining() != stateBytes) {
+            throw new IllegalArgumentException(
+                    "State has %d bytes, expected %d".formatted(state.remaining(), stateBytes)
+            );
+        }
+
+        int base = env * n;
+        int pending = count[env];
+        int entry = base + (start[env] + pending) % n;
+
+        copyState(state, entry);
+        actions[entry] = action;
+        returns[entry] = 0.0;
+        discounts[entry] = 1.0;
+        count[env] = ++pending;
+
+        for (int i = 0; i < pending; i++) {
+            int e = base + (start[env] + i) % n;
+            returns[e] += discounts[e] * reward;
+            discounts[e] *= gamma;
+        }
+
+        if (term || trunc) {
+            flush(env, nextState, term);
+        } else if (pending == n) {
+            emitOldest(env, nextState, false);
+        }
+    }
+
+    /**
+     * Only termination marks the transitions as done, truncated episodes must still bootstrap.
+     */
+    public void step(int env, @NonNull NDArray state, long action, @NonNull EnvStepResult result) {
+        step(env, state.toByteBuffer(), action, (float) result.reward(), result.state().toByteBuffer(),
+                result.term(), result.trunc());
+    }
+
+    private void copyState(ByteBuffer src, int entry) {
+        long offset = (long) entry * stateBytes;
+        if (src.hasArray()) {
+            MemorySegment.copy(src.array(), src.arrayOffset() + src.position(),
+                    states, JAVA_BYTE, offset, stateBytes);
+        } else {
+            MemorySegment.copy(MemorySegment.ofBuffer(src), 0, states, offset, stateBytes);
+        }
+    }
+
+    private void flush(int env, ByteBuffer nextState, boolean done) {
+        while (count[env] > 0) {
+            emitOldest(env, nextState, done);
+        }
+        start[env] = 0;
+    }
+
+    private void emitOldest(int env, ByteBuffer nextState, boolean done) {
+        int entry = env * n + start[env];
+        var state = stateViews[entry].clear();
+        int position = nextState.position();
+
+        sink.accept(env, state, actions[entry], (float) returns[entry],
+                nextState, (float) discounts[entry], done);
+
+        nextState.position(position);
+        start[env] = start[env] + 1 == n ? 0 : start[env] + 1;
+        count[env]--;
+    }
+
+    /**
+     * Drop the pending transitions of the env, e.g. after an external reset.
+     */
+    public void reset(int env) {
+        start[env] = 0;
+        count[env] = 0;
+    }
+
+    public int pending(int env) {
+        return count[env];
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
@@ -0,0 +1,97 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.modality.cv.Image;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+
+import java.nio.ByteBuffer;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC1;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+
+/**
+ * Grayscale and resize of uint8 RGB frames (height, width, 3) with OpenCV, reading the frame
+ * memory in place and writing into caller-owned memory, e.g. the NumPy observation mapped by
+ * {@link br.com.guialves.rflr.python.numpy.NumPyBufferView} into the stacked frames buffer.
+ * <p>
+ * The gray is OpenCV's BT.601 luminance, not the channel mean of the DJL path.
+ * Not thread-safe, the intermediate gray Mat is reused across calls.
+ */
+@Slf4j
+@Accessors(fluent = true)
+public final class OpenCvFramePreprocessor implements AutoCloseable {
+
+    @Getter
+    private final int height;
+    @Getter
+    private final int width;
+    @Getter
+    private final int outSize;
+    private final int interpolation;
+    private final Size dsize;
+    private final Mat gray;
+    private boolean closed;
+
+    public OpenCvFramePreprocessor(int height, int width, int outSize, @NonNull Image.Interpolation interpolation) {
+        if (height <= 0 || width <= 0 || outSize <= 0) {
+            throw new IllegalArgumentException("Frame sizes must be positive: %dx%d -> %d"
+                    .formatted(height, width, outSize));
+        }
+        this.height = height;
+        this.width = width;
+        this.outSize = outSize;
+        this.interpolation = switch (interpolation) {
+            case NEAREST -> opencv_imgproc.INTER_NEAREST;
+            case BILINEAR -> opencv_imgproc.INTER_LINEAR;
+            case AREA -> opencv_imgproc.INTER_AREA;
+            case BICUBIC -> opencv_imgproc.INTER_CUBIC;
+        };
+        this.dsize = new Size(outSize, outSize);
+        this.gray = new Mat(height, width, CV_8UC1);
+    }
+
+    /**
+     * A Mat over {@code size x size} bytes of {@code dst} from its position, to reuse as destination.
+     */
+    public static Mat destination(@NonNull ByteBuffer dst, int size) {
+        if (!dst.isDirect() || dst.remaining() < size * size) {
+            throw new IllegalArgumentException("The destination must be a direct buffer of at least %d bytes"
+                    .formatted(size * size));
+        }
+        return new Mat(size, size, CV_8UC1, new BytePointer(dst));
+    }
+
+    /**
+     * @param frame {@code height x width x 3} bytes, not copied
+     * @param dst   a Mat from {@link #destination(ByteBuffer, int)} of {@code outSize}, written in place
+     */
+    public void process(@NonNull Pointer frame, @NonNull Mat dst) {
+        if (frame.limit() - frame.position() < (long) height * width * 3) {
+            throw new IllegalArgumentException("The frame has %d bytes, expected %d"
+                    .formatted(frame.limit() - frame.position(), (long) height * width * 3));
+        }
+
+        try (var src = new Mat(height, width, CV_8UC3, frame)) {
+            opencv_imgproc.cvtColor(src, gray, opencv_imgproc.COLOR_RGB2GRAY);
+            opencv_imgproc.resize(gray, dst, dsize, 0, 0, interpolation);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            log.warn("The OpenCvFramePreprocessor was already closed!");
+            return;
+        }
+        closed = true;
+        gray.close();
+        dsize.close();
+    }
+}
@@ -7,11 +7,20 @@ import ai.djl.ndarray.NDArrays;
 import ai.djl.ndarray.NDList;
 import ai.djl.ndarray.NDManager;
 import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
 import ai.djl.util.Pair;
+import br.com.guialves.rflr.gymnasium4j.Env;
+import br.com.guialves.rflr.gymnasium4j.EnvInfo;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
 import br.com.guialves.rflr.gymnasium4j.EnvStepResult;
 import br.com.guialves.rflr.gymnasium4j.IEnv;
+import br.com.guialves.rflr.python.numpy.NumPyBufferView;
+import br.com.guialves.rflr.telemetry.Stage;
 import lombok.experimental.Delegate;
+import org.bytedeco.opencv.opencv_core.Mat;
 
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -47,31 +56,137 @@ import static br.com.guialves.rflr.gymnasium4j.ActionSpaceType.ActionResult;
  *   <li>After resizing, arrays are transposed to CHW (Channels, Height, Width) for neural network input</li>
  *   <li>Frame concatenation happens along the channel dimension (axis 0 after transpose)</li>
  * </ul>
+ *
+ * <p><b>Sliding Window:</b>
+ * By default each step stacks {@code concatenate} fresh frames, each after {@code skip} env steps.
+ * With {@code slidingWindow} the last preprocessed frames are kept in a ring and each step pushes
+ * one new frame, the stack overlaps the previous one except for its oldest frame.
+ *
+ * <p><b>Backends:</b>
+ * {@link Backend#DJL} preprocesses each frame with NDArray operations on the engine.
+ * {@link Backend#VECTOR} runs grayscale and resize in a single pass over the raw uint8 frame with
+ * {@link VectorFramePreprocessor}, it needs <code>--add-modules jdk.incubator.vector</code>.
+ * {@link Backend#OPENCV} maps the NumPy observation of a Gym {@link Env} as an OpenCV Mat and
+ * writes the gray resized frame straight into the stacked frames buffer, no tensor in between.
+ * Its gray is OpenCV's luminance instead of the channel mean.
  */
 public class PreProcessingWrapper implements IEnv {
 
+    public enum Backend {
+        DJL,
+        VECTOR,
+        OPENCV
+    }
+
     @Delegate
     private final IEnv env;
     private final int skip;
     private final int resize;
     private final int concatenate;
     private final Image.Interpolation interpolation;
+    private final EnvStateMetadata stateMetadata;
+    private final boolean slidingWindow;
+    private final Backend backend;
+    private final int frameBytes;
+    /**
+     * Sliding window frames, each stored at its slot and again at slot + concatenate, so the
+     * last {@code concatenate} frames are always contiguous whatever the ring position.
+     * Direct with OpenCV, which also stacks fresh frames from slot 0 on.
+     */
+    private final ByteBuffer ring;
+    private int head;
+    private VectorFramePreprocessor vectorPreprocessor;
+    private final Env gymEnv;
+    private final Mat[] slotMats;
+    private OpenCvFramePreprocessor opencvPreprocessor;
 
     public PreProcessingWrapper(IEnv env, int skip, int resize, int concatenate) {
         this(env, skip, resize, concatenate, Image.Interpolation.BILINEAR);
     }
 
     public PreProcessingWrapper(IEnv env, int skip, int resize, int concatenate, Image.Interpolation interpolation) {
+        this(env, skip, resize, concatenate, interpolation, false);
+    }
+
+    /**
+     * @param slidingWindow stack the last {@code concatenate} frames, as in the DQN paper: each step
+     *                      runs {@code skip} env steps and pushes a single new frame, instead of
+     *                      {@code concatenate x skip} env steps for a stack of fresh frames
+     */
+    public PreProcessingWrapper(IEnv env, int skip, int resize, int concatenate,
+                                Image.Interpolation interpolation, boolean slidingWindow) {
+        this(env, skip, resize, concatenate, interpolation, slidingWindow, Backend.DJL);
+    }
+
+    /**
+     * @param backend {@link Backend#VECTOR} supports the mean grayscale with BILINEAR or AREA interpolation,
+     *                {@link Backend#OPENCV} needs {@code env} to be a Gym {@link Env}, AREA suits its downscale
+     */
+    public PreProcessingWrapper(IEnv env, int skip, int resize, int concatenate,
+                                Image.Interpolation interpolation, boolean slidingWindow, Backend backend) {
+        if (backend == Backend.VECTOR && interpolation != Image.Interpolation.BILINEAR
+                && interpolation != Image.Interpolation.AREA) {
+            throw new IllegalArgumentException("The %s backend doesn't support the %s interpolation"
+                    .formatted(backend, interpolation));
+        }
+        if (backend == Backend.VECTOR && ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            throw new IllegalStateException("The %s backend needs the JVM flag --add-modules jdk.incubator.vector"
+                    .formatted(backend));
+        }
+        if (backend == Backend.OPENCV && !(env instanceof Env)) {
+            throw new IllegalArgumentException("The %s backend needs a Gym Env to map its observations, got %s"
+                    .formatted(backend, env.getClass().getSimpleName()));
+        }
         this.env = env;
         this.skip = skip;
         this.concatenate = concatenate;
         this.resize = resize;
         this.interpolation = interpolation;
+        this.stateMetadata = EnvStateMetadata.of(DataType.UINT8, concatenate, resize, resize);
+        this.slidingWindow = slidingWindow;
+        this.backend = backend;
+        this.frameBytes = resize * resize;
+
+        if (backend == Backend.OPENCV) {
+            this.gymEnv = (Env) env;
+            this.ring = ByteBuffer.allocateDirect(2 * stateMetadata.size());
+            this.slotMats = new Mat[2 * concatenate];
+            for (int slot = 0; slot < slotMats.length; slot++) {
+                slotMats[slot] = OpenCvFramePreprocessor.destination(ring.slice(slot * frameBytes, frameBytes), resize);
+            }
+        } else {
+            this.gymEnv = null;
+            this.ring = slidingWindow ? ByteBuffer.allocate(2 * stateMetadata.size()) : null;
+            this.slotMats = null;
+        }
+    }
+
+    /**
+     * @return metadata of the stacked grayscale frames (concatenate, resize, resize) as uint8
+     */
+    @Override
+    public EnvStateMetadata stateMetadata() {
+        return stateMetadata;
     }
 
     @Override
     public EnvStepResult step(ActionResult action) {
-        var parent = env.manager();
+        return step(action, env.manager());
+    }
+
+    /**
+     * Preprocessed step with the state attached to {@code parent}, not delegated: the wrapped env
+     * would return a raw frame.
+     */
+    @Override
+    public EnvStepResult step(ActionResult action, NDManager parent) {
+        if (slidingWindow) {
+            return slidingStep(action, parent);
+        }
+        if (backend == Backend.OPENCV) {
+            return opencvStep(action, parent);
+        }
+
         try (var sub = parent.newSubManager()) {
             var frames = new ArrayList<NDArray>();
             var rewards = new ArrayList<Double>();
@@ -83,14 +198,15 @@ public class PreProcessingWrapper implements IEnv {
             for (int i = 0; i < concatenate; i++) {
                 var skipResult = skipFrames(action, sub);
 
-                try (var grayState = grayscaleFrame(skipResult.state())) {
-                    var resizedState = resizeFrame(grayState);
-                    frames.add(resizedState);
-                }
+                frames.add(preprocessFrame(skipResult.state(), sub));
 
                 rewards.add(skipResult.reward());
                 term  = skipResult.term();
                 trunc = skipResult.trunc();
+                if (info instanceof EnvInfo previousInfo) {
+                    // only the info of the last frame is kept
+                    previousInfo.close();
+                }
                 info  = skipResult.info();
 
                 if (term || trunc) {
@@ -108,15 +224,185 @@ public class PreProcessingWrapper implements IEnv {
         }
     }
 
-    private EnvStepResult skipFrames(ActionResult action, NDManager sub) {
-        EnvStepResult stepResult = null;
-        for (int i = 0; i < skip; i++) {
-            stepResult = env.step(action, sub);
-            if (stepResult.done()) {
+    /**
+     * Stacks fresh frames from ring slot 0 on, as {@link #finishConcatenateFrames} repeating the
+     * last frame and reward when the episode ends early.
+     */
+    private EnvStepResult opencvStep(ActionResult action, NDManager parent) {
+        double totalReward = 0;
+        EnvStepResult last = null;
+        int frames = 0;
+
+        while (frames < concatenate) {
+            if (last != null && last.info() instanceof EnvInfo previousInfo) {
+                // only the info of the last frame is kept
+                previousInfo.close();
+            }
+            last = opencvSkipFrames(action, frames++);
+            totalReward += last.reward();
+            if (last.term() || last.trunc()) {
                 break;
             }
         }
-        return stepResult;
+
+        for (int slot = frames; slot < concatenate; slot++) {
+            ring.put(slot * frameBytes, ring, (frames - 1) * frameBytes, frameBytes);
+            totalReward += last.reward();
+        }
+
+        return new EnvStepResult(totalReward, last.term(), last.trunc(), last.info(), ringFrames(0, parent));
+    }
+
+    private EnvStepResult slidingStep(ActionResult action, NDManager parent) {
+        if (backend == Backend.OPENCV) {
+            int first = nextSlot();
+            var result = opencvSkipFrames(action, first);
+            advance(first, 1);
+            return new EnvStepResult(result.reward(), result.term(), result.trunc(),
+                    result.info(), stackedFrames(parent));
+        }
+
+        try (var sub = parent.newSubManager()) {
+            var skipResult = skipFrames(action, sub);
+            pushFrame(skipResult.state(), 1);
+            return new EnvStepResult(skipResult.reward(), skipResult.term(), skipResult.trunc(),
+                    skipResult.info(), stackedFrames(parent));
+        }
+    }
+
+    /**
+     * Preprocess the frame into the next {@code times} ring slots.
+     */
+    private void pushFrame(NDArray rawState, int times) {
+        int first = nextSlot();
+        preprocessInto(rawState, ring, first * frameBytes);
+        advance(first, times);
+    }
+
+    private int nextSlot() {
+        return head + 1 == concatenate ? 0 : head + 1;
+    }
+
+    /**
+     * Make the frame written at slot {@code first} the newest {@code times} frames.
+     */
+    private void advance(int first, int times) {
+        for (int i = 0; i < times; i++) {
+            head = nextSlot();
+            if (head != first) {
+                ring.put(head * frameBytes, ring, first * frameBytes, frameBytes);
+            }
+            ring.put((head + concatenate) * frameBytes, ring, first * frameBytes, frameBytes);
+        }
+    }
+
+    /**
+     * @return the last frames, oldest first, copied once into a new tensor
+     */
+    private NDArray stackedFrames(NDManager parent) {
+        return ringFrames(nextSlot(), parent);
+    }
+
+    private NDArray ringFrames(int slot, NDManager parent) {
+        var window = ring.slice(slot * frameBytes, stateMetadata.size());
+        if (window.isDirect()) {
+            // DJL would alias direct memory, overwritten by the next frames: one copy into a new tensor
+            var state = parent.create(stateMetadata.djlShape(), DataType.UINT8);
+            state.set(window);
+            return state;
+        }
+        return parent.create(window, stateMetadata.djlShape(), DataType.UINT8);
+    }
+
+    private EnvStepResult skipFrames(ActionResult action, NDManager sub) {
+        // a single Python call for the whole repeat when the env supports it
+        return env.repeatStep(action, skip, false, sub);
+    }
+
+    /**
+     * The repeat with the last observation preprocessed by OpenCV into ring {@code slot}, without state.
+     */
+    private EnvStepResult opencvSkipFrames(ActionResult action, int slot) {
+        return gymEnv.repeatStep(action, skip, false, observation -> opencvPreprocess(observation, slot));
+    }
+
+    private void opencvPreprocess(NumPyBufferView observation, int slot) {
+        if (opencvPreprocessor == null) {
+            var rawShape = gymEnv.stateMetadata().djlShape();
+            if (rawShape.dimension() != 3 || rawShape.get(2) != 3 || gymEnv.stateMetadata().djlType() != DataType.UINT8) {
+                throw new IllegalArgumentException("Expected a uint8 RGB frame (height, width, 3), got %s %s"
+                        .formatted(gymEnv.stateMetadata().djlType(), rawShape));
+            }
+            opencvPreprocessor = new OpenCvFramePreprocessor((int) rawShape.get(0), (int) rawShape.get(1),
+                    resize, interpolation);
+        }
+        try (var _ = Stage.PREPROCESS.begin(envName()).bytes(frameBytes)) {
+            opencvPreprocessor.process(observation.pointer(), slotMats[slot]);
+        }
+    }
+
+    /**
+     * Repeats the preprocessed {@link #step(ActionResult, NDManager)}, not delegated either.
+     */
+    @Override
+    public EnvStepResult repeatStep(ActionResult action, int repeat, boolean maxPool, NDManager manager) {
+        return IEnv.super.repeatStep(action, repeat, maxPool, manager);
+    }
+
+    /**
+     * @return the grayscale resized frame (1, resize, resize) attached to {@code manager}
+     */
+    private NDArray preprocessFrame(NDArray rawState, NDManager manager) {
+        if (backend == Backend.DJL) {
+            try (var _ = Stage.PREPROCESS.begin(envName()).bytes(frameBytes);
+                 var gray = grayscaleFrame(rawState)) {
+                return resizeFrame(gray);
+            }
+        }
+
+        var frame = ByteBuffer.allocate(frameBytes);
+        preprocessInto(rawState, frame, 0);
+        return manager.create(frame, new Shape(1, resize, resize), DataType.UINT8);
+    }
+
+    /**
+     * Write the grayscale resized frame into {@code dst} at {@code offset}.
+     */
+    private void preprocessInto(NDArray rawState, ByteBuffer dst, int offset) {
+        try (var _ = Stage.PREPROCESS.begin(envName()).bytes(frameBytes)) {
+            if (backend == Backend.DJL) {
+                try (var gray = grayscaleFrame(rawState);
+                     var resized = resizeFrame(gray)) {
+                    dst.put(offset, resized.toByteBuffer(), 0, frameBytes);
+                }
+                return;
+            }
+
+            var frame = MemorySegment.ofBuffer(rawState.toByteBuffer());
+            vectorPreprocessor(rawState.getShape())
+                    .process(frame, MemorySegment.ofBuffer(dst).asSlice(offset, frameBytes));
+        }
+    }
+
+    private String envName() {
+        return env instanceof Env gym ? gym.envName() : null;
+    }
+
+    private VectorFramePreprocessor vectorPreprocessor(Shape rawShape) {
+        if (rawShape.dimension() != 3 || rawShape.get(2) != 3) {
+            throw new IllegalArgumentException("Expected an RGB frame (height, width, 3), got %s".formatted(rawShape));
+        }
+        int height = (int) rawShape.get(0);
+        int width = (int) rawShape.get(1);
+        if (vectorPreprocessor == null
+                || vectorPreprocessor.height() != height || vectorPreprocessor.width() != width) {
+            var vectorResize = interpolation == Image.Interpolation.AREA
+                    ? VectorFramePreprocessor.Resize.AREA
+                    : VectorFramePreprocessor.Resize.BILINEAR;
+            vectorPreprocessor = new VectorFramePreprocessor(height, width, resize, resize,
+                    VectorFramePreprocessor.Grayscale.MEAN, vectorResize);
+        }
+        return vectorPreprocessor;
     }
 
     private NDArray grayscaleFrame(NDArray state) {
@@ -155,12 +441,34 @@ public class PreProcessingWrapper implements IEnv {
     @Override
     public Pair<NDArray, Map<Object, Object>> reset() {
         var parent = env.manager();
+
+        if (backend == Backend.OPENCV) {
+            // the stack starts as the first frame repeated
+            int first = slidingWindow ? nextSlot() : 0;
+            var info = gymEnv.reset(observation -> opencvPreprocess(observation, first));
+            if (slidingWindow) {
+                advance(first, concatenate);
+                return new Pair<>(stackedFrames(parent), info);
+            }
+            for (int slot = 1; slot < concatenate; slot++) {
+                ring.put(slot * frameBytes, ring, 0, frameBytes);
+            }
+            return new Pair<>(ringFrames(0, parent), info);
+        }
+
         var resetResult = env.reset();
         var rawState = resetResult.getKey();
         var info = resetResult.getValue();
 
-        try (var gray = grayscaleFrame(rawState);
-             var resized = resizeFrame(gray)) {
+        if (slidingWindow) {
+            // the window starts as the first frame repeated
+            try (rawState) {
+                pushFrame(rawState, concatenate);
+            }
+            return new Pair<>(stackedFrames(parent), info);
+        }
+
+        try (var resized = preprocessFrame(rawState, parent)) {
 
             var frames  = new ArrayList<NDArray>();
             var rewards = new ArrayList<Double>();
@@ -176,4 +484,25 @@ public class PreProcessingWrapper implements IEnv {
             return new Pair<>(state, info);
         }
     }
+
+    /**
+     * Frees the native memory of the OpenCV backend, then closes the wrapped env.
+     */
+    @Override
+    public void close() {
+        if (opencvPreprocessor != null) {
+            opencvPreprocessor.close();
+            opencvPreprocessor = null;
+        }
+        if (slotMats != null) {
+            for (int slot = 0; slot < slotMats.length; slot++) {
+                if (slotMats[slot] != null) {
+                    // only the header, the pixels belong to the ring
+                    slotMats[slot].close();
+                    slotMats[slot] = null;
+                }
+            }
+        }
+        env.close();
+    }
 }
@@ -0,0 +1,374 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.random.RandomGenerator;
+
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+
+/**
+ * Proportional prioritized experience replay on top of an {@link IReplayBuffer}.
+ * <p>
+ * The priorities {@code p_i^alpha} are kept in a {@link SumSegmentTree} (sampling) and a
+ * {@link MinSegmentTree} (max importance-sampling weight), indexed by the replay slot.
+ * Sampling a batch is stratified: the total priority is split into {@code batchSize}
+ * segments and one prefix sum is drawn from each, so sampling, weights and priority
+ * updates are O(batch * log N) over primitive arrays.
+ * <p>
+ * Inserts and sampling are serialized by a lock, so one actor and one learner can share it.
+ * With {@link PriorityUpdateMode#BATCHED} the learner's {@link #updatePriorities(int[], float[])}
+ * only copies into a staging array and returns, the trees are updated all at once on the next
+ * {@link #sample(int, double, NDManager)} (or {@link #flushPriorityUpdates()}), so priority
+ * updates never hold the lock the inserts need.
+ * <p>
+ * Reference: <a href="https://arxiv.org/abs/1511.05952">Prioritized Experience Replay</a>
+ */
+@Slf4j
+@Accessors(fluent = true)
+public class PrioritizedReplayBuffer implements IReplayBuffer {
+
+    public enum PriorityUpdateMode {
+        IMMEDIATE,
+        BATCHED
+    }
+
+    private static final int INITIAL_PENDING = 1024;
+
+    private final IReplayBuffer buffer;
+    private final SumSegmentTree sumTree;
+    private final MinSegmentTree minTree;
+    private final RandomGenerator random;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Object pendingLock = new Object();
+
+    @Getter
+    private final double alpha;
+    @Getter
+    private final double epsilon;
+    @Getter
+    private final PriorityUpdateMode updateMode;
+    @Getter
+    @Setter
+    private volatile double beta;
+    private double maxPriority = 1.0;
+
+    private int[] pendingIndices = new int[INITIAL_PENDING];
+    private double[] pendingPriorities = new double[INITIAL_PENDING];
+    private int pendingCount;
+    private int[] drainIndices = new int[INITIAL_PENDING];
+    private double[] drainPriorities = new double[INITIAL_PENDING];
+
+    public PrioritizedReplayBuffer(@NonNull IReplayBuffer buffer, double alpha, double beta) {
+        this(buffer, alpha, beta, 1e-6, PriorityUpdateMode.IMMEDIATE, RandomGenerator.getDefault());
+    }
+
+    public PrioritizedReplayBuffer(@NonNull IReplayBuffer buffer,
+                                   double alpha,
+                                   double beta,
+                                   double epsilon,
+                                   @NonNull PriorityUpdateMode updateMode,
+                                   @NonNull RandomGenerator random) {
+        if (alpha < 0) {
+            throw new IllegalArgumentException("Alpha must be >= 0: " + alpha);
+        }
+        if (epsilon <= 0) {
+            throw new IllegalArgumentException("Epsilon must be positive: " + epsilon);
+        }
+
+        this.buffer = buffer;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.epsilon = epsilon;
+        this.updateMode = updateMode;
+        this.random = random;
+        this.sumTree = new SumSegmentTree(buffer.capacity());
+        this.minTree = new MinSegmentTree(buffer.capacity());
+    }
+
+    @Override
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public int size() {
+        return buffer.size();
+    }
+
+    @Override
+    public long memoryBytes() {
+        return buffer.memoryBytes() + sumTree.memoryBytes() + minTree.memoryBytes();
+    }
+
+    @Override
+    public EnvStateMetadata stateMetadata() {
+        return buffer.stateMetadata();
+    }
+
+    /**
+     * New transitions get the max priority seen so far, so they are replayed at least once.
+     */
+    @Override
+    public int add(ByteBuffer state, long action, float reward, ByteBuffer nextState, boolean done) {
+        lock.lock();
+        try {
+            int slot = buffer.add(state, action, reward, nextState, done);
+            setPriority(slot, maxPriority);
+            return slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(int slot) {
+        return buffer.contains(slot);
+    }
+
+    @Override
+    public int[] sampleIndices(int batchSize) {
+        lock.lock();
+        try {
+            applyPendingUpdates();
+            return sampleProportional(batchSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void gatherInto(int[] indices, ReplayBatchBuffers dst) {
+        lock.lock();
+        try {
+            buffer.gatherInto(indices, dst);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean weighted() {
+        return true;
+    }
+
+    @Override
+    public int[] sampleInto(int batchSize, ReplayBatchBuffers dst) {
+        return sampleInto(batchSize, beta, dst);
+    }
+
+    @Override
+    public ReplayBatch sample(int batchSize, NDManager manager) {
+        return sample(batchSize, beta, manager);
+    }
+
+    /**
+     * Sample proportionally to the priorities and attach the importance-sampling weights
+     * {@code (N * P(i))^-beta}, normalized by the max weight so they only scale the loss down.
+     *
+     * @param beta importance-sampling correction, annealed towards 1 during training
+     */
+    public ReplayBatch sample(int batchSize, double beta, @NonNull NDManager manager) {
+        var dst = new ReplayBatchBuffers(stateMetadata(), batchSize, true);
+        return dst.toBatch(sampleInto(batchSize, beta, dst), manager);
+    }
+
+    /**
+     * Same as {@link #sample(int, double, NDManager)}, writing the rows and weights into reusable buffers.
+     */
+    public int[] sampleInto(int batchSize, double beta, @NonNull ReplayBatchBuffers dst) {
+        if (!dst.weighted()) {
+            throw new IllegalArgumentException("Prioritized replay needs weighted batch buffers");
+        }
+        dst.checkRows(batchSize);
+
+        lock.lock();
+        try {
+            applyPendingUpdates();
+
+            int[] indices = sampleProportional(batchSize);
+
+            double total = sumTree.sum();
+            double size = buffer.size();
+            double maxWeight = Math.pow(minTree.min() / total * size, -beta);
+
+            for (int i = 0; i < batchSize; i++) {
+                double probability = sumTree.get(indices[i]) / total;
+                dst.weightsSegment.setAtIndex(JAVA_FLOAT, i, (float) (Math.pow(probability * size, -beta) / maxWeight));
+            }
+
+            buffer.gatherInto(indices, dst);
+            return indices;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int[] sampleProportional(int batchSize) {
+        if (buffer.size() == 0) {
+            throw new IllegalStateException("Cannot sample from an empty ReplayBuffer!");
+        }
+
+        int[] indices = new int[batchSize];
+        double segment = sumTree.sum() / batchSize;
+
+        for (int i = 0; i < batchSize; i++) {
+            double prefixSum = (i + random.nextDouble()) * segment;
+            int slot = sumTree.findPrefixSumIndex(prefixSum);
+
+            // rounding can walk past the last stored slot, and slots evicted by the storage
+            // (e.g. frame eviction) keep their priority until they are found here
+            while (!buffer.contains(slot) && sumTree.sum() > 0) {
+                clearPriority(slot);
+                slot = sumTree.findPrefixSumIndex(random.nextDouble() * sumTree.sum());
+            }
+            indices[i] = slot;
+        }
+
+        return indices;
+    }
+
+    /**
+     * Slots evicted by the storage since they were sampled, e.g. by frame eviction while the
+     * learner computed the TD errors, are skipped.
+     *
+     * @param indices slots returned by the sampled {@link ReplayBatch#indices()}
+     * @param priorities new priorities, usually the TD errors (the absolute value is used)
+     * @throws IndexOutOfBoundsException if a slot is outside the capacity
+     */
+    public void updatePriorities(int[] indices, float[] priorities) {
+        if (indices.length != priorities.length) {
+            throw new IllegalArgumentException("Indices and priorities must match: %d != %d"
+                    .formatted(indices.length, priorities.length));
+        }
+        for (int slot : indices) {
+            Objects.checkIndex(slot, buffer.capacity());
+        }
+
+        if (updateMode == PriorityUpdateMode.BATCHED) {
+            enqueue(indices, priorities);
+            return;
+        }
+
+        lock.lock();
+        try {
+            for (int i = 0; i < indices.length; i++) {
+                updatePriority(indices[i], priorities[i]);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param tdErrors (batch) float32 TD errors
+     */
+    public void updatePriorities(int[] indices, @NonNull NDArray tdErrors) {
+        try (var abs = tdErrors.abs();
+             var f32 = abs.toType(DataType.FLOAT32, false)) {
+            updatePriorities(indices, f32.toFloatArray());
+        }
+    }
+
+    /**
+     * Apply the staged {@link PriorityUpdateMode#BATCHED} updates now.
+     */
+    public void flushPriorityUpdates() {
+        lock.lock();
+        try {
+            applyPendingUpdates();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(int[] indices, float[] priorities) {
+        synchronized (pendingLock) {
+            int required = pendingCount + indices.length;
+            if (required > pendingIndices.length) {
+                int newLength = Math.max(required, pendingIndices.length * 2);
+                pendingIndices = Arrays.copyOf(pendingIndices, newLength);
+                pendingPriorities = Arrays.copyOf(pendingPriorities, newLength);
+            }
+
+            System.arraycopy(indices, 0, pendingIndices, pendingCount, indices.length);
+            for (int i = 0; i < priorities.length; i++) {
+                pendingPriorities[pendingCount + i] = priorities[i];
+            }
+            pendingCount = required;
+        }
+    }
+
+    /**
+     * Swap the staging and draining arrays, so the learner can keep enqueueing
+     * while the trees are updated. Must be called holding {@link #lock}.
+     */
+    private void applyPendingUpdates() {
+        int count;
+        synchronized (pendingLock) {
+            if (pendingCount == 0) return;
+
+            var indices = pendingIndices;
+            var priorities = pendingPriorities;
+            pendingIndices = drainIndices;
+            pendingPriorities = drainPriorities;
+            drainIndices = indices;
+            drainPriorities = priorities;
+
+            count = pendingCount;
+            pendingCount = 0;
+        }
+
+        for (int i = 0; i < count; i++) {
+            updatePriority(drainIndices[i], drainPriorities[i]);
+        }
+    }
+
+    private void updatePriority(int slot, double priority) {
+        // evicted since it was sampled
+        if (!buffer.contains(slot)) return;
+
+        double p = Math.abs(priority) + epsilon;
+        maxPriority = Math.max(maxPriority, p);
+        setPriority(slot, p);
+    }
+
+    private void setPriority(int slot, double priority) {
+        double value = Math.pow(priority, alpha);
+        sumTree.set(slot, value);
+        minTree.set(slot, value);
+    }
+
+    private void clearPriority(int slot) {
+        sumTree.set(slot, 0.0);
+        minTree.set(slot, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @return the stored priority of the slot, already raised to alpha
+     */
+    public double priority(int slot) {
+        lock.lock();
+        try {
+            return sumTree.get(slot);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        buffer.close();
+    }
+}
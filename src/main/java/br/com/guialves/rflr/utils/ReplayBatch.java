@@ -0,0 +1,52 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDArray;
+
+/**
+ * A sampled batch, one tensor per column with the batch as the first dimension.
+ *
+ * @param indices   replay slots of each row, used to update priorities
+ * @param states    (batch, ...state shape)
+ * @param actions   (batch) int64
+ * @param rewards   (batch) float32
+ * @param nextStates (batch, ...state shape)
+ * @param dones     (batch) boolean
+ * @param weights   (batch) float32 importance-sampling weights, null for uniform sampling
+ */
+public record ReplayBatch(int[] indices,
+                          NDArray states,
+                          NDArray actions,
+                          NDArray rewards,
+                          NDArray nextStates,
+                          NDArray dones,
+                          NDArray weights) implements AutoCloseable {
+
+    public ReplayBatch(int[] indices,
+                       NDArray states,
+                       NDArray actions,
+                       NDArray rewards,
+                       NDArray nextStates,
+                       NDArray dones) {
+        this(indices, states, actions, rewards, nextStates, dones, null);
+    }
+
+    public ReplayBatch withWeights(NDArray weights) {
+        return new ReplayBatch(indices, states, actions, rewards, nextStates, dones, weights);
+    }
+
+    public int size() {
+        return indices.length;
+    }
+
+    @Override
+    public void close() {
+        states.close();
+        actions.close();
+        rewards.close();
+        nextStates.close();
+        dones.close();
+        if (weights != null) {
+            weights.close();
+        }
+    }
+}
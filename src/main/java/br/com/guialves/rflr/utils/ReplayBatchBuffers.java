@@ -0,0 +1,130 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * One direct {@link ByteBuffer} per batch column, filled row by row by
+ * {@link IReplayBuffer#gatherInto(int[], ReplayBatchBuffers)} and handed to
+ * {@link NDManager#create(java.nio.Buffer, Shape, DataType)} as a single tensor per column.
+ * <p>
+ * On the CPU the PyTorch engine wraps a direct buffer without copying it, so the tensors of
+ * {@link #toBatch(int[], NDManager)} alias these buffers: they must not be refilled before
+ * the batch is closed, see {@link ReplayBatchSampler} for the double-buffered reuse.
+ */
+@Accessors(fluent = true)
+public class ReplayBatchBuffers {
+
+    private static final ByteOrder NATIVE_ORDER = ByteOrder.nativeOrder();
+
+    @Getter
+    private final int capacity;
+    @Getter
+    private final EnvStateMetadata stateMetadata;
+    @Getter
+    private final boolean weighted;
+    private final int stateBytes;
+
+    private final ByteBuffer states;
+    private final ByteBuffer nextStates;
+    private final ByteBuffer actions;
+    private final ByteBuffer rewards;
+    private final ByteBuffer dones;
+    private final ByteBuffer weights;
+
+    final MemorySegment statesSegment;
+    final MemorySegment nextStatesSegment;
+    final MemorySegment actionsSegment;
+    final MemorySegment rewardsSegment;
+    final MemorySegment donesSegment;
+    final MemorySegment weightsSegment;
+
+    /**
+     * @param capacity max rows of a batch
+     * @param weighted true to also hold the importance-sampling weights of prioritized replay
+     */
+    public ReplayBatchBuffers(@NonNull EnvStateMetadata stateMetadata, int capacity, boolean weighted) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.stateMetadata = stateMetadata;
+        this.weighted = weighted;
+        this.stateBytes = stateMetadata.size();
+
+        this.states = directBuffer((long) capacity * stateBytes);
+        this.nextStates = directBuffer((long) capacity * stateBytes);
+        this.actions = directBuffer((long) capacity * Long.BYTES);
+        this.rewards = directBuffer((long) capacity * Float.BYTES);
+        this.dones = directBuffer(capacity);
+        this.weights = weighted ? directBuffer((long) capacity * Float.BYTES) : null;
+
+        this.statesSegment = MemorySegment.ofBuffer(states);
+        this.nextStatesSegment = MemorySegment.ofBuffer(nextStates);
+        this.actionsSegment = MemorySegment.ofBuffer(actions);
+        this.rewardsSegment = MemorySegment.ofBuffer(rewards);
+        this.donesSegment = MemorySegment.ofBuffer(dones);
+        this.weightsSegment = weighted ? MemorySegment.ofBuffer(weights) : null;
+    }
+
+    private static ByteBuffer directBuffer(long bytes) {
+        return ByteBuffer.allocateDirect(Math.toIntExact(bytes)).order(NATIVE_ORDER);
+    }
+
+    public int stateBytes() {
+        return stateBytes;
+    }
+
+    public long memoryBytes() {
+        long bytes = 2L * states.capacity() + actions.capacity() + rewards.capacity() + dones.capacity();
+        return weighted ? bytes + weights.capacity() : bytes;
+    }
+
+    void checkRows(int rows) {
+        if (rows > capacity) {
+            throw new IllegalArgumentException("Batch of %d rows exceeds the buffers capacity %d"
+                    .formatted(rows, capacity));
+        }
+    }
+
+    /**
+     * Wrap the first {@code indices.length} rows of each column as tensors, without copying on the CPU.
+     */
+    public ReplayBatch toBatch(int[] indices, @NonNull NDManager manager) {
+        int rows = indices.length;
+        checkRows(rows);
+
+        var stateShape = new Shape(rows).addAll(stateMetadata.djlShape());
+        var batchShape = new Shape(rows);
+
+        var batch = new ReplayBatch(
+                indices,
+                manager.create(rows(states, rows, stateBytes), stateShape, stateMetadata.djlType()),
+                manager.create(rows(actions, rows, Long.BYTES), batchShape, DataType.INT64),
+                manager.create(rows(rewards, rows, Float.BYTES), batchShape, DataType.FLOAT32),
+                manager.create(rows(nextStates, rows, stateBytes), stateShape, stateMetadata.djlType()),
+                manager.create(rows(dones, rows, Byte.BYTES), batchShape, DataType.BOOLEAN)
+        );
+
+        return weighted
+                ? batch.withWeights(manager.create(rows(weights, rows, Float.BYTES), batchShape, DataType.FLOAT32))
+                : batch;
+    }
+
+    private ByteBuffer rows(ByteBuffer column, int rows, int rowBytes) {
+        if (rows == capacity) {
+            return column.clear();
+        }
+        return column.slice(0, rows * rowBytes).order(NATIVE_ORDER);
+    }
+}
@@ -0,0 +1,128 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDManager;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Samples fixed-size batches into reused {@link ReplayBatchBuffers}, so a training step costs
+ * the row copies plus one {@code NDManager.create} per column, whatever the batch size.
+ * <p>
+ * The batch tensors alias the buffers, so the previous batch must be closed before asking for
+ * the next one. With {@code prefetch} two buffer sets are used: while the learner trains on one,
+ * the next batch is sampled into the other on a background thread, and {@link #next()} only
+ * waits for it if the copy is not done yet.
+ * <p>
+ * When prefetching, the replay is sampled concurrently with the caller's thread, so inserts
+ * must be safe against it (e.g. {@link PrioritizedReplayBuffer} serializes them with its lock).
+ */
+@Slf4j
+@Accessors(fluent = true)
+public class ReplayBatchSampler implements AutoCloseable {
+
+    @Getter
+    private final IReplayBuffer replay;
+    @Getter
+    private final int batchSize;
+    @Getter
+    private final boolean prefetch;
+    private final NDManager manager;
+    private final ReplayBatchBuffers[] buffers;
+    private final ExecutorService executor;
+
+    private Future<int[]> pending;
+    private ReplayBatch current;
+    private int nextBuffers;
+    private boolean closed;
+
+    public ReplayBatchSampler(@NonNull IReplayBuffer replay, int batchSize, @NonNull NDManager manager) {
+        this(replay, batchSize, manager, false);
+    }
+
+    public ReplayBatchSampler(@NonNull IReplayBuffer replay,
+                              int batchSize,
+                              @NonNull NDManager manager,
+                              boolean prefetch) {
+        this.replay = replay;
+        this.batchSize = batchSize;
+        this.manager = manager;
+        this.prefetch = prefetch;
+
+        this.buffers = new ReplayBatchBuffers[prefetch ? 2 : 1];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new ReplayBatchBuffers(replay.stateMetadata(), batchSize, replay.weighted());
+        }
+
+        this.executor = prefetch
+                ? Executors.newSingleThreadExecutor(Thread.ofPlatform().name("replay-prefetch").daemon().factory())
+                : null;
+    }
+
+    /**
+     * @return bytes of the reused batch buffers
+     */
+    public long memoryBytes() {
+        return buffers[0].memoryBytes() * buffers.length;
+    }
+
+    /**
+     * @return the next batch, to be closed before calling this again
+     */
+    public ReplayBatch next() {
+        if (closed) {
+            throw new IllegalStateException("ReplayBatchSampler already closed!");
+        }
+        if (current != null && !current.states().isReleased()) {
+            throw new IllegalStateException("The previous batch must be closed first, its tensors share the reused buffers");
+        }
+
+        var dst = buffers[nextBuffers];
+        int[] indices = pending != null ? await(pending) : replay.sampleInto(batchSize, dst);
+        pending = null;
+        current = dst.toBatch(indices, manager);
+
+        if (prefetch) {
+            // the other buffers belong to the previous batch, already closed
+            nextBuffers = 1 - nextBuffers;
+            var prefetched = buffers[nextBuffers];
+            pending = executor.submit(() -> replay.sampleInto(batchSize, prefetched));
+        }
+
+        return current;
+    }
+
+    @SneakyThrows(InterruptedException.class)
+    private static int[] await(Future<int[]> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Prefetch failed", e.getCause());
+        }
+    }
+
+    /**
+     * Waits for an in-flight prefetch, the replay and the last batch are left to the caller.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            log.warn("The ReplayBatchSampler was already closed!");
+            return;
+        }
+        this.closed = true;
+        if (executor != null) {
+            executor.close();
+        }
+    }
+}
@@ -1,5 +1,512 @@
 package br.com.guialves.rflr.utils;
 
-public class ReplayBuffer {
+import ai.djl.ndarray.types.DataType;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.random.RandomGenerator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+import static java.lang.foreign.ValueLayout.*;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Fixed-capacity circular replay buffer with columnar off-heap storage.
+ * <p>
+ * Each column (states, actions, rewards, next states and dones) is one contiguous
+ * {@link MemorySegment}, so 1M transitions are five native allocations instead of
+ * millions of {@code NDArray}s. The states keep the dtype of the environment
+ * (uint8 frames stay uint8), and the whole memory is reserved in the constructor,
+ * which makes {@link #memoryBytes()} exact before the first insert.
+ * <p>
+ * {@link #add(ByteBuffer, long, float, ByteBuffer, boolean)} is O(1) and doesn't allocate
+ * for heap buffers; rows are only copied out by {@link #gatherInto(int[], ReplayBatchBuffers)}.
+ * <p>
+ * {@link #snapshot(Path)} writes the columns to a directory and {@link #restore(Path)} reads them
+ * back, both with sequential {@link FileChannel} I/O straight from the off-heap memory. The ring
+ * is split in chunks of about {@value #SNAPSHOT_CHUNK_BYTES} bytes of transitions, and repeated
+ * snapshots to the same directory only write the chunks touched since the previous one.
+ * <p>
+ * Snapshots are append-only: each one writes its chunks to a new segment file, then atomically
+ * replaces the header pointing to the segment and checksum of every chunk. Files referenced by
+ * the previous header are never modified, so a crash at any point leaves the previous snapshot
+ * intact, and the segments no chunk points to anymore are deleted once the header is replaced.
+ * <p>
+ * Not thread-safe, the caller must serialize inserts, sampling and snapshots.
+ */
+@Slf4j
+@Accessors(fluent = true)
+public class ReplayBuffer implements IReplayBuffer {
+
+    private static final long ALIGNMENT = 64;
+
+    static final String SNAPSHOT_HEADER_FILE = "snapshot.header";
+    static final int SNAPSHOT_CHUNK_BYTES = 1 << 20;
+    private static final String SNAPSHOT_SEGMENT_PREFIX = "segment-";
+    private static final String SNAPSHOT_SEGMENT_SUFFIX = ".bin";
+    private static final int SNAPSHOT_MAGIC = 0x52504C53;
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int SNAPSHOT_HEADER_BYTES = 512;
+    private static final int SNAPSHOT_CHUNK_REF_BYTES = Long.BYTES + Long.BYTES + Integer.BYTES;
+    private static final long MAX_IO_BYTES = 1L << 30;
+
+    private record Column(MemorySegment segment, int rowBytes) {
+    }
+
+    /**
+     * Where a snapshot stores a chunk: its segment file, the offset of its columns there and
+     * their CRC32C.
+     */
+    record SnapshotChunk(long segment, long offset, int crc) {
+    }
+
+    @Getter
+    private final int capacity;
+    @Getter
+    private final EnvStateMetadata stateMetadata;
+    @Getter
+    private final long memoryBytes;
+    private final int stateBytes;
+    private final Arena arena;
+    private final MemorySegment states;
+    private final MemorySegment nextStates;
+    private final MemorySegment actions;
+    private final MemorySegment rewards;
+    private final MemorySegment dones;
+    private final RandomGenerator random;
+    private final int chunkRows;
+    private final boolean[] dirtyChunks;
+    private final SnapshotChunk[] snapshotChunks;
+
+    @Getter
+    private int size;
+    private int cursor;
+    private boolean closed;
+    private Path snapshotDirectory;
+
+    public ReplayBuffer(int capacity, @NonNull EnvStateMetadata stateMetadata) {
+        this(capacity, stateMetadata, RandomGenerator.getDefault());
+    }
+
+    public ReplayBuffer(int capacity,
+                        @NonNull EnvStateMetadata stateMetadata,
+                        @NonNull RandomGenerator random) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.stateMetadata = stateMetadata;
+        this.stateBytes = stateMetadata.size();
+        this.memoryBytes = memoryBytes(capacity, stateMetadata);
+        this.random = random;
+        this.arena = Arena.ofShared();
+
+        long statesBytes = (long) capacity * stateBytes;
+        this.states = arena.allocate(statesBytes, ALIGNMENT);
+        this.nextStates = arena.allocate(statesBytes, ALIGNMENT);
+        this.actions = arena.allocate((long) capacity * Long.BYTES, ALIGNMENT);
+        this.rewards = arena.allocate((long) capacity * Float.BYTES, ALIGNMENT);
+        this.dones = arena.allocate(capacity, ALIGNMENT);
+
+        this.chunkRows = Math.clamp(SNAPSHOT_CHUNK_BYTES / bytesPerTransition(stateMetadata), 1, capacity);
+        this.dirtyChunks = new boolean[(capacity + chunkRows - 1) / chunkRows];
+        this.snapshotChunks = new SnapshotChunk[dirtyChunks.length];
+
+        log.info("ReplayBuffer capacity: {}, state: {} {}, memory: {} MiB",
+                capacity, stateMetadata.djlShape(), stateMetadata.djlType(), memoryBytes >> 20);
+    }
+
+    /**
+     * @return bytes needed by a buffer of this capacity, to check if it fits before allocating it
+     */
+    public static long memoryBytes(int capacity, EnvStateMetadata stateMetadata) {
+        return (long) capacity * bytesPerTransition(stateMetadata);
+    }
+
+    public static long bytesPerTransition(EnvStateMetadata stateMetadata) {
+        return 2L * stateMetadata.size() + Long.BYTES + Float.BYTES + Byte.BYTES;
+    }
+
+    @Override
+    public int add(ByteBuffer state, long action, float reward, ByteBuffer nextState, boolean done) {
+        if (closed) {
+            throw new IllegalStateException("ReplayBuffer already closed!");
+        }
+
+        int slot = cursor;
+        long offset = (long) slot * stateBytes;
+
+        copyState(state, states, offset);
+        copyState(nextState, nextStates, offset);
+        actions.setAtIndex(JAVA_LONG, slot, action);
+        rewards.setAtIndex(JAVA_FLOAT, slot, reward);
+        dones.set(JAVA_BYTE, slot, (byte) (done ? 1 : 0));
+        dirtyChunks[slot / chunkRows] = true;
+
+        cursor = slot + 1 == capacity ? 0 : slot + 1;
+        if (size < capacity) size++;
+
+        return slot;
+    }
+
+    private void copyState(ByteBuffer src, MemorySegment dst, long offset) {
+        if (src.remaining() != stateBytes) {
+            throw new IllegalArgumentException(
+                    "State has %d bytes, expected %d".formatted(src.remaining(), stateBytes)
+            );
+        }
+
+        if (src.hasArray()) {
+            MemorySegment.copy(src.array(), src.arrayOffset() + src.position(),
+                    dst, JAVA_BYTE, offset, stateBytes);
+        } else {
+            MemorySegment.copy(MemorySegment.ofBuffer(src), 0, dst, offset, stateBytes);
+        }
+    }
+
+    /**
+     * The ring only wraps when full, so the valid slots are always [0, size).
+     */
+    @Override
+    public int[] sampleIndices(int batchSize) {
+        if (size == 0) {
+            throw new IllegalStateException("Cannot sample from an empty ReplayBuffer!");
+        }
+
+        int[] indices = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            indices[i] = random.nextInt(size);
+        }
+        return indices;
+    }
+
+    @Override
+    public void gatherInto(int[] indices, @NonNull ReplayBatchBuffers dst) {
+        if (closed) {
+            throw new IllegalStateException("ReplayBuffer already closed!");
+        }
+        dst.checkRows(indices.length);
+
+        for (int i = 0; i < indices.length; i++) {
+            int slot = checkSlot(indices[i]);
+            long src = (long) slot * stateBytes;
+            long row = (long) i * stateBytes;
+
+            MemorySegment.copy(states, src, dst.statesSegment, row, stateBytes);
+            MemorySegment.copy(nextStates, src, dst.nextStatesSegment, row, stateBytes);
+            dst.actionsSegment.setAtIndex(JAVA_LONG, i, actions.getAtIndex(JAVA_LONG, slot));
+            dst.rewardsSegment.setAtIndex(JAVA_FLOAT, i, rewards.getAtIndex(JAVA_FLOAT, slot));
+            dst.donesSegment.set(JAVA_BYTE, i, dones.get(JAVA_BYTE, slot));
+        }
+    }
+
+    private int checkSlot(int slot) {
+        if (!contains(slot)) {
+            throw new IndexOutOfBoundsException("Slot %d outside of [0, %d)".formatted(slot, size));
+        }
+        return slot;
+    }
+
+    private List<Column> columns() {
+        return List.of(
+                new Column(states, stateBytes),
+                new Column(nextStates, stateBytes),
+                new Column(actions, Long.BYTES),
+                new Column(rewards, Float.BYTES),
+                new Column(dones, Byte.BYTES)
+        );
+    }
+
+    /**
+     * Write the stored transitions to {@code directory}: the chunks go to a new segment file, then
+     * a checksummed header pointing to them replaces the previous one atomically. Snapshotting
+     * again to the same directory only writes the chunks changed since, the others stay in the
+     * segments written before. A crash before the header is replaced leaves the previous snapshot
+     * as it was.
+     *
+     * @return bytes written to the segment file
+     */
+    @SneakyThrows
+    public long snapshot(@NonNull Path directory) {
+        if (closed) {
+            throw new IllegalStateException("ReplayBuffer already closed!");
+        }
+
+        Files.createDirectories(directory);
+        boolean incremental = directory.equals(snapshotDirectory)
+                && Files.exists(directory.resolve(SNAPSHOT_HEADER_FILE));
+
+        var chunks = incremental ? snapshotChunks.clone() : new SnapshotChunk[snapshotChunks.length];
+        int storedChunks = (size + chunkRows - 1) / chunkRows;
+        long written = 0;
+        if (IntStream.range(0, storedChunks).anyMatch(chunk -> chunks[chunk] == null || dirtyChunks[chunk])) {
+            long segment = nextSegment(directory);
+            try (var channel = FileChannel.open(directory.resolve(segmentFile(segment)), CREATE_NEW, WRITE)) {
+                var crc = new CRC32C();
+                for (int chunk = 0; chunk < storedChunks; chunk++) {
+                    if (chunks[chunk] != null && !dirtyChunks[chunk]) {
+                        continue;
+                    }
+
+                    long offset = written;
+                    long fromRow = (long) chunk * chunkRows;
+                    long rows = Math.min(fromRow + chunkRows, size) - fromRow;
+                    crc.reset();
+                    for (var column : columns()) {
+                        var slice = column.segment().asSlice(fromRow * column.rowBytes(), rows * column.rowBytes());
+                        crc.update(slice.asByteBuffer());
+                        written += write(channel, written, slice);
+                    }
+                    chunks[chunk] = new SnapshotChunk(segment, offset, (int) crc.getValue());
+                }
+                channel.force(false);
+            }
+        }
+
+        writeSnapshotHeader(directory, Arrays.copyOf(chunks, storedChunks));
+        System.arraycopy(chunks, 0, snapshotChunks, 0, chunks.length);
+        Arrays.fill(dirtyChunks, false);
+        this.snapshotDirectory = directory;
+        deleteUnreferencedSegments(directory, snapshotChunks);
+
+        log.info("ReplayBuffer {} snapshot of {} transitions to {}: {} MiB written",
+                incremental ? "incremental" : "full", size, directory, written >> 20);
+        return written;
+    }
+
+    private static String segmentFile(long segment) {
+        return SNAPSHOT_SEGMENT_PREFIX + segment + SNAPSHOT_SEGMENT_SUFFIX;
+    }
+
+    /**
+     * @return the segment of a segment file, -1 for the other files
+     */
+    private static long segmentOf(Path file) {
+        var name = file.getFileName().toString();
+        if (!name.startsWith(SNAPSHOT_SEGMENT_PREFIX) || !name.endsWith(SNAPSHOT_SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name, SNAPSHOT_SEGMENT_PREFIX.length(),
+                    name.length() - SNAPSHOT_SEGMENT_SUFFIX.length(), 10);
+        } catch (NumberFormatException _) {
+            return -1;
+        }
+    }
+
+    /**
+     * After every segment in the directory, including the ones left by a crashed snapshot.
+     */
+    private static long nextSegment(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.mapToLong(ReplayBuffer::segmentOf).max().orElse(-1) + 1;
+        }
+    }
+
+    private static void deleteUnreferencedSegments(Path directory, SnapshotChunk[] chunks) throws IOException {
+        var referenced = Arrays.stream(chunks)
+                .filter(Objects::nonNull)
+                .map(SnapshotChunk::segment)
+                .collect(Collectors.toSet());
+        try (var files = Files.list(directory)) {
+            for (var file : files.toList()) {
+                long segment = segmentOf(file);
+                if (segment >= 0 && !referenced.contains(segment)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static long write(FileChannel channel, long position, MemorySegment segment) throws IOException {
+        long bytes = segment.byteSize();
+        for (long done = 0; done < bytes; ) {
+            long length = Math.min(MAX_IO_BYTES, bytes - done);
+            var buffer = segment.asSlice(done, length).asByteBuffer();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + done + buffer.position());
+            }
+            done += length;
+        }
+        return bytes;
+    }
+
+    private static void read(FileChannel channel, long position, MemorySegment segment) throws IOException {
+        long bytes = segment.byteSize();
+        for (long done = 0; done < bytes; ) {
+            long length = Math.min(MAX_IO_BYTES, bytes - done);
+            var buffer = segment.asSlice(done, length).asByteBuffer();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + done + buffer.position()) < 0) {
+                    throw new IllegalStateException("Truncated replay buffer snapshot segment");
+                }
+            }
+            done += length;
+        }
+    }
+
+    /**
+     * Replaces the header atomically, the point where a snapshot becomes the one restored.
+     */
+    void writeSnapshotHeader(Path directory, SnapshotChunk[] chunks) throws IOException {
+        var header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES + chunks.length * SNAPSHOT_CHUNK_REF_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(SNAPSHOT_MAGIC)
+                .putInt(SNAPSHOT_VERSION)
+                .putInt(capacity)
+                .putInt(stateBytes);
+
+        byte[] dtype = stateMetadata.djlType().name().getBytes(StandardCharsets.US_ASCII);
+        header.putInt(dtype.length).put(dtype);
+
+        long[] shape = stateMetadata.djlShape().getShape();
+        header.putInt(shape.length);
+        for (long dim : shape) header.putLong(dim);
+
+        header.putInt(size).putInt(cursor);
+
+        header.putInt(chunkRows).putInt(chunks.length);
+        for (var chunk : chunks) {
+            header.putLong(chunk.segment()).putLong(chunk.offset()).putInt(chunk.crc());
+        }
+
+        var crc = new CRC32C();
+        crc.update(header.array(), 0, header.position());
+        header.putInt((int) crc.getValue());
+        header.flip();
+
+        var headerFile = directory.resolve(SNAPSHOT_HEADER_FILE);
+        var tmpFile = directory.resolve(SNAPSHOT_HEADER_FILE + ".tmp");
+        try (var channel = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) channel.write(header);
+            channel.force(true);
+        }
+        Files.move(tmpFile, headerFile, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    public static ReplayBuffer restore(@NonNull Path directory) {
+        return restore(directory, RandomGenerator.getDefault());
+    }
+
+    /**
+     * Rebuild a buffer from {@link #snapshot(Path)}, reading the chunks of each segment
+     * sequentially into the off-heap memory and checking their CRC32C. The next snapshot to the
+     * same directory is incremental.
+     */
+    @SneakyThrows
+    public static ReplayBuffer restore(@NonNull Path directory, @NonNull RandomGenerator random) {
+        var header = ByteBuffer.wrap(Files.readAllBytes(directory.resolve(SNAPSHOT_HEADER_FILE)))
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        if (header.getInt() != SNAPSHOT_MAGIC || header.getInt() != SNAPSHOT_VERSION) {
+            throw new IllegalStateException("Not a replay buffer snapshot: " + directory);
+        }
+
+        int capacity = header.getInt();
+        int stateBytes = header.getInt();
+
+        byte[] dtype = new byte[header.getInt()];
+        header.get(dtype);
+        int[] shape = new int[header.getInt()];
+        for (int i = 0; i < shape.length; i++) shape[i] = Math.toIntExact(header.getLong());
+
+        int size = header.getInt();
+        int cursor = header.getInt();
+
+        int chunkRows = header.getInt();
+        var chunks = new SnapshotChunk[header.getInt()];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new SnapshotChunk(header.getLong(), header.getLong(), header.getInt());
+        }
+
+        var crc = new CRC32C();
+        crc.update(header.array(), 0, header.position());
+        if (header.getInt() != (int) crc.getValue()) {
+            throw new IllegalStateException("Corrupted replay buffer snapshot header: " + directory);
+        }
+        if (chunkRows <= 0 || chunks.length != (size + chunkRows - 1) / chunkRows) {
+            throw new IllegalStateException("Snapshot has %d chunks of %d rows for %d transitions".formatted(
+                    chunks.length, chunkRows, size));
+        }
+
+        var stateMetadata = EnvStateMetadata.of(DataType.valueOf(new String(dtype, StandardCharsets.US_ASCII)), shape);
+        if (stateMetadata.size() != stateBytes) {
+            throw new IllegalStateException("Snapshot state has %d bytes, %s %s has %d".formatted(
+                    stateBytes, stateMetadata.djlType(), stateMetadata.djlShape(), stateMetadata.size()));
+        }
+
+        var buffer = new ReplayBuffer(capacity, stateMetadata, random);
+        var channels = new HashMap<Long, FileChannel>();
+        try {
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                long fromRow = (long) chunk * chunkRows;
+                long rows = Math.min(fromRow + chunkRows, size) - fromRow;
+                var channel = channels.get(chunks[chunk].segment());
+                if (channel == null) {
+                    channel = FileChannel.open(directory.resolve(segmentFile(chunks[chunk].segment())), READ);
+                    channels.put(chunks[chunk].segment(), channel);
+                }
+
+                long position = chunks[chunk].offset();
+                crc.reset();
+                for (var column : buffer.columns()) {
+                    var slice = column.segment().asSlice(fromRow * column.rowBytes(), rows * column.rowBytes());
+                    read(channel, position, slice);
+                    crc.update(slice.asByteBuffer());
+                    position += slice.byteSize();
+                }
+                if ((int) crc.getValue() != chunks[chunk].crc()) {
+                    throw new IllegalStateException("Corrupted replay buffer snapshot chunk %d: %s".formatted(chunk, directory));
+                }
+            }
+        } catch (RuntimeException | IOException e) {
+            buffer.close();
+            throw e;
+        } finally {
+            for (var channel : channels.values()) channel.close();
+        }
+
+        buffer.size = size;
+        buffer.cursor = cursor;
+        buffer.snapshotDirectory = directory;
+        // a chunk size changed since the snapshot makes the next one full
+        if (chunkRows == buffer.chunkRows) {
+            System.arraycopy(chunks, 0, buffer.snapshotChunks, 0, chunks.length);
+        }
+
+        log.info("ReplayBuffer restored {} transitions from {}", size, directory);
+        return buffer;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            log.warn("The ReplayBuffer was already closed!");
+            return;
+        }
+        this.closed = true;
+        arena.close();
+    }
 }
@@ -0,0 +1,56 @@
+package br.com.guialves.rflr.utils;
+
+import java.util.Arrays;
+
+/**
+ * Array-backed binary segment tree over primitive doubles.
+ * <p>
+ * The leaves live in {@code tree[capacity, 2 * capacity)} and every internal node {@code i}
+ * combines its children {@code 2i} and {@code 2i + 1}, so updates are O(log N)
+ * and the root {@code tree[1]} is read in O(1).
+ * <p>
+ * Reference: <a href="https://arxiv.org/abs/1511.05952">Prioritized Experience Replay</a>
+ */
+public abstract sealed class SegmentTree permits SumSegmentTree, MinSegmentTree {
+
+    protected final int capacity;
+    protected final double[] tree;
+
+    protected SegmentTree(int size, double neutral) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive: " + size);
+        }
+
+        this.capacity = size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+        this.tree = new double[2 * capacity];
+        Arrays.fill(tree, neutral);
+    }
+
+    protected abstract double combine(double left, double right);
+
+    public void set(int index, double value) {
+        int node = index + capacity;
+        tree[node] = value;
+
+        node >>= 1;
+        while (node >= 1) {
+            tree[node] = combine(tree[2 * node], tree[2 * node + 1]);
+            node >>= 1;
+        }
+    }
+
+    public double get(int index) {
+        return tree[index + capacity];
+    }
+
+    /**
+     * @return leaves available, the requested size rounded up to a power of two
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    public long memoryBytes() {
+        return (long) tree.length * Double.BYTES;
+    }
+}
@@ -0,0 +1,40 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDArray;
+
+/**
+ * A batch of sequences of {@code time} contiguous transitions, the first {@code burnIn}
+ * of them only meant to warm up the recurrent state.
+ *
+ * @param indices sequence slots of each row, used to update priorities
+ * @param burnIn  leading steps of each row without loss
+ * @param states  (batch, time + 1, ...state shape), the last one to bootstrap from
+ * @param actions (batch, time) int64
+ * @param rewards (batch, time) float32
+ * @param dones   (batch, time) boolean, true on the terminal step
+ * @param mask    (batch, time) boolean, false on the padding after a short episode
+ * @param weights (batch) float32 importance-sampling weights
+ */
+public record SequenceBatch(int[] indices,
+                            int burnIn,
+                            NDArray states,
+                            NDArray actions,
+                            NDArray rewards,
+                            NDArray dones,
+                            NDArray mask,
+                            NDArray weights) implements AutoCloseable {
+
+    public int size() {
+        return indices.length;
+    }
+
+    @Override
+    public void close() {
+        states.close();
+        actions.close();
+        rewards.close();
+        dones.close();
+        mask.close();
+        weights.close();
+    }
+}
@@ -0,0 +1,456 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import br.com.guialves.rflr.gymnasium4j.EnvStepResult;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.random.RandomGenerator;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Sequence replay for recurrent agents (R2D2): samples windows of {@code burnIn + length}
+ * contiguous transitions of one episode.
+ * <p>
+ * Observations are stored once in an off-heap ring, an episode of {@code n} transitions takes
+ * {@code n + 1} consecutive observations, the action, reward and done of each transition being
+ * stored next to its first observation. An episode index keeps the start and length of each
+ * episode, and a new sequence starts every {@code stride} transitions of it, so overlapping
+ * windows are only (start, length) pairs and are never copied. A sequence is indexed once its
+ * window is complete, or when the episode ends, shorter and padded.
+ * <p>
+ * The columns are off-heap segments like the {@link ReplayBuffer} ones, but not shared with it:
+ * its rows hold a state and a next state per transition, twice the observations, and its ring
+ * doesn't keep an episode contiguous, which the windows need.
+ * <p>
+ * Each sequence has a priority in a {@link SumSegmentTree} / {@link MinSegmentTree}, sampling
+ * is proportional to {@code p^alpha} like {@link PrioritizedReplayBuffer} ({@code alpha = 0}
+ * is uniform), and a batch is gathered in one pass into {@code (batch, time, ...)} tensors.
+ * <p>
+ * Reference: <a href="https://openreview.net/forum?id=r1lyTjAqYX">Recurrent Experience Replay in Distributed Reinforcement Learning</a>
+ * <p>
+ * Not thread-safe, the caller must serialize inserts, sampling and priority updates.
+ */
+@Slf4j
+@Accessors(fluent = true)
+public class SequenceReplayBuffer implements AutoCloseable {
+
+    /**
+     * Weight of the max in R2D2's sequence priority {@code eta * max|td| + (1 - eta) * mean|td|}.
+     */
+    public static final double PRIORITY_ETA = 0.9;
+
+    private static final long ALIGNMENT = 64;
+    private static final double EPSILON = 1e-6;
+    private static final ByteOrder NATIVE_ORDER = ByteOrder.nativeOrder();
+
+    @Getter
+    private final int capacity;
+    @Getter
+    private final EnvStateMetadata stateMetadata;
+    @Getter
+    private final int burnIn;
+    @Getter
+    private final int length;
+    @Getter
+    private final int stride;
+    @Getter
+    private final double alpha;
+    private final int time;
+    private final int stateBytes;
+    private final RandomGenerator random;
+
+    private final Arena arena;
+    private final MemorySegment observations;
+    private final MemorySegment actions;
+    private final MemorySegment rewards;
+    private final MemorySegment dones;
+
+    private final long[] episodeStarts;
+    private final int[] episodeLengths;
+    private final long[] sequenceStarts;
+    private final int[] sequenceLengths;
+    private final SumSegmentTree sumTree;
+    private final MinSegmentTree minTree;
+    private double maxPriority = 1.0;
+
+    private long observationCount;
+    private long episodeCount;
+    private long sequenceCount;
+    private long oldestSequence;
+    private boolean episodeOpen;
+    private int nextWindow;
+    private boolean closed;
+
+    public SequenceReplayBuffer(int capacity,
+                                @NonNull EnvStateMetadata stateMetadata,
+                                int burnIn,
+                                int length,
+                                int stride) {
+        this(capacity, stateMetadata, burnIn, length, stride, 0.0, RandomGenerator.getDefault());
+    }
+
+    /**
+     * @param capacity observations kept, at least two full windows
+     * @param burnIn   leading steps of each window that only warm up the recurrent state
+     * @param length   trained steps of each window
+     * @param stride   steps between the starts of two windows, below {@code burnIn + length} to overlap
+     * @param alpha    prioritization exponent, 0 for uniform sampling
+     */
+    public SequenceReplayBuffer(int capacity,
+                                @NonNull EnvStateMetadata stateMetadata,
+                                int burnIn,
+                                int length,
+                                int stride,
+                                double alpha,
+                                @NonNull RandomGenerator random) {
+        if (burnIn < 0 || length <= 0 || stride <= 0 || alpha < 0) {
+            throw new IllegalArgumentException("Invalid burn-in %d, length %d, stride %d or alpha %s"
+                    .formatted(burnIn, length, stride, alpha));
+        }
+        if (capacity < 2 * (burnIn + length + 1)) {
+            throw new IllegalArgumentException("Capacity %d must hold two windows of %d observations"
+                    .formatted(capacity, burnIn + length + 1));
+        }
+
+        this.capacity = capacity;
+        this.stateMetadata = stateMetadata;
+        this.burnIn = burnIn;
+        this.length = length;
+        this.stride = stride;
+        this.alpha = alpha;
+        this.time = burnIn + length;
+        this.stateBytes = stateMetadata.size();
+        this.random = random;
+
+        this.arena = Arena.ofShared();
+        this.observations = arena.allocate((long) capacity * stateBytes, ALIGNMENT);
+        this.actions = arena.allocate((long) capacity * Long.BYTES, ALIGNMENT);
+        this.rewards = arena.allocate((long) capacity * Float.BYTES, ALIGNMENT);
+        this.dones = arena.allocate(capacity, ALIGNMENT);
+
+        // every live episode and sequence starts at a distinct stored observation
+        this.episodeStarts = new long[capacity];
+        this.episodeLengths = new int[capacity];
+        this.sequenceStarts = new long[capacity];
+        this.sequenceLengths = new int[capacity];
+        this.sumTree = new SumSegmentTree(capacity);
+        this.minTree = new MinSegmentTree(capacity);
+
+        log.info("SequenceReplayBuffer capacity: {}, state: {} {}, window: {} + {} every {}",
+                capacity, stateMetadata.djlShape(), stateMetadata.djlType(), burnIn, length, stride);
+    }
+
+    /**
+     * @return steps of each window, burn-in included
+     */
+    public int time() {
+        return time;
+    }
+
+    /**
+     * @return sequences that can be sampled
+     */
+    public int sequences() {
+        return (int) (sequenceCount - oldestSequence);
+    }
+
+    /**
+     * @return episodes in the index, the oldest may be partly overwritten
+     */
+    public int episodes() {
+        return (int) Math.min(episodeCount, capacity);
+    }
+
+    /**
+     * Store one transition. Within an episode {@code state} must be the previous {@code nextState},
+     * it's only copied on the first step.
+     */
+    public void add(ByteBuffer state, long action, float reward, ByteBuffer nextState, boolean term, boolean trunc) {
+        if (closed) {
+            throw new IllegalStateException("SequenceReplayBuffer already closed!");
+        }
+        checkState(state);
+        checkState(nextState);
+
+        if (!episodeOpen) {
+            int episode = slot(episodeCount++);
+            episodeStarts[episode] = observationCount;
+            episodeLengths[episode] = 0;
+            writeObservation(state);
+            episodeOpen = true;
+            nextWindow = 0;
+        }
+
+        int row = slot(observationCount - 1);
+        actions.setAtIndex(JAVA_LONG, row, action);
+        rewards.setAtIndex(JAVA_FLOAT, row, reward);
+        dones.set(JAVA_BYTE, row, (byte) (term ? 1 : 0));
+        writeObservation(nextState);
+
+        int episode = slot(episodeCount - 1);
+        long episodeStart = episodeStarts[episode];
+        int transitions = ++episodeLengths[episode];
+
+        if (nextWindow + time == transitions) {
+            addSequence(episodeStart + nextWindow, time);
+            nextWindow += stride;
+        }
+
+        if (term || trunc) {
+            // the windows still open end with the episode, shorter
+            while (nextWindow < transitions) {
+                addSequence(episodeStart + nextWindow, transitions - nextWindow);
+                nextWindow += stride;
+            }
+            episodeOpen = false;
+        }
+    }
+
+    public void add(@NonNull NDArray state, long action, @NonNull EnvStepResult result) {
+        add(state.toByteBuffer(), action, (float) result.reward(), result.state().toByteBuffer(),
+                result.term(), result.trunc());
+    }
+
+    private void checkState(ByteBuffer src) {
+        if (src.remaining() != stateBytes) {
+            throw new IllegalArgumentException(
+                    "State has %d bytes, expected %d".formatted(src.remaining(), stateBytes)
+            );
+        }
+    }
+
+    private int slot(long id) {
+        return (int) (id % capacity);
+    }
+
+    private void writeObservation(ByteBuffer src) {
+        long id = observationCount;
+
+        // sequences starting at the overwritten observation are gone, the later ones are newer
+        long overwritten = id - capacity;
+        while (oldestSequence < sequenceCount && sequenceStarts[slot(oldestSequence)] <= overwritten) {
+            clearPriority(slot(oldestSequence++));
+        }
+
+        int row = slot(id);
+        long offset = (long) row * stateBytes;
+        if (src.hasArray()) {
+            MemorySegment.copy(src.array(), src.arrayOffset() + src.position(),
+                    observations, JAVA_BYTE, offset, stateBytes);
+        } else {
+            MemorySegment.copy(MemorySegment.ofBuffer(src), 0, observations, offset, stateBytes);
+        }
+        actions.setAtIndex(JAVA_LONG, row, 0L);
+        rewards.setAtIndex(JAVA_FLOAT, row, 0f);
+        dones.set(JAVA_BYTE, row, (byte) 0);
+
+        observationCount++;
+    }
+
+    private void addSequence(long start, int transitions) {
+        int slot = slot(sequenceCount++);
+        sequenceStarts[slot] = start;
+        sequenceLengths[slot] = transitions;
+        setPriority(slot, maxPriority);
+    }
+
+    /**
+     * Sample sequences proportionally to their priorities, with the importance-sampling weights
+     * normalized by the max weight.
+     */
+    public SequenceBatch sample(int batchSize, double beta, @NonNull NDManager manager) {
+        if (sequences() == 0) {
+            throw new IllegalStateException("Cannot sample from an empty SequenceReplayBuffer!");
+        }
+
+        int[] indices = new int[batchSize];
+        double segment = sumTree.sum() / batchSize;
+        for (int i = 0; i < batchSize; i++) {
+            int slot = sumTree.findPrefixSumIndex((i + random.nextDouble()) * segment);
+            // rounding can land on an empty leaf
+            while (sumTree.get(slot) <= 0) {
+                slot = sumTree.findPrefixSumIndex(random.nextDouble() * sumTree.sum());
+            }
+            indices[i] = slot;
+        }
+
+        float[] weights = new float[batchSize];
+        double total = sumTree.sum();
+        double size = sequences();
+        double maxWeight = Math.pow(minTree.min() / total * size, -beta);
+        for (int i = 0; i < batchSize; i++) {
+            double probability = sumTree.get(indices[i]) / total;
+            weights[i] = (float) (Math.pow(probability * size, -beta) / maxWeight);
+        }
+
+        return gather(indices, weights, manager);
+    }
+
+    /**
+     * Copy the given sequences into {@code (batch, time, ...)} tensors, padding the short ones.
+     *
+     * @param weights importance-sampling weights of each row
+     */
+    public SequenceBatch gather(int[] indices, float[] weights, @NonNull NDManager manager) {
+        if (closed) {
+            throw new IllegalStateException("SequenceReplayBuffer already closed!");
+        }
+
+        int batch = indices.length;
+        long rowStates = (long) (time + 1) * stateBytes;
+        // direct buffers are zeroed, so the padding is already there
+        var statesBuffer = directBuffer(batch * rowStates);
+        var actionsBuffer = directBuffer((long) batch * time * Long.BYTES);
+        var rewardsBuffer = directBuffer((long) batch * time * Float.BYTES);
+        var donesBuffer = directBuffer((long) batch * time);
+        var maskBuffer = directBuffer((long) batch * time);
+
+        var statesDst = MemorySegment.ofBuffer(statesBuffer);
+        var actionsDst = MemorySegment.ofBuffer(actionsBuffer);
+        var rewardsDst = MemorySegment.ofBuffer(rewardsBuffer);
+        var donesDst = MemorySegment.ofBuffer(donesBuffer);
+        var maskDst = MemorySegment.ofBuffer(maskBuffer);
+
+        for (int b = 0; b < batch; b++) {
+            int slot = indices[b];
+            if (slot < 0 || slot >= capacity || sumTree.get(slot) <= 0) {
+                throw new IndexOutOfBoundsException("Sequence %d is not stored".formatted(slot));
+            }
+
+            long start = sequenceStarts[slot];
+            int transitions = sequenceLengths[slot];
+            long step = (long) b * time;
+
+            copyRange(observations, start, transitions + 1, stateBytes, statesDst, b * rowStates);
+            copyRange(actions, start, transitions, Long.BYTES, actionsDst, step * Long.BYTES);
+            copyRange(rewards, start, transitions, Float.BYTES, rewardsDst, step * Float.BYTES);
+            copyRange(dones, start, transitions, Byte.BYTES, donesDst, step);
+            maskDst.asSlice(step, transitions).fill((byte) 1);
+        }
+
+        var stepShape = new Shape(batch, time);
+        return new SequenceBatch(
+                indices,
+                burnIn,
+                manager.create(statesBuffer, new Shape(batch, time + 1).addAll(stateMetadata.djlShape()),
+                        stateMetadata.djlType()),
+                manager.create(actionsBuffer, stepShape, DataType.INT64),
+                manager.create(rewardsBuffer, stepShape, DataType.FLOAT32),
+                manager.create(donesBuffer, stepShape, DataType.BOOLEAN),
+                manager.create(maskBuffer, stepShape, DataType.BOOLEAN),
+                manager.create(weights)
+        );
+    }
+
+    /**
+     * Copy {@code count} consecutive ring elements starting at {@code firstId}, in two pieces if it wraps.
+     */
+    private void copyRange(MemorySegment src, long firstId, int count, int elementBytes,
+                           MemorySegment dst, long dstOffset) {
+        int first = slot(firstId);
+        int head = Math.min(count, capacity - first);
+        MemorySegment.copy(src, (long) first * elementBytes, dst, dstOffset, (long) head * elementBytes);
+        if (head < count) {
+            MemorySegment.copy(src, 0, dst, dstOffset + (long) head * elementBytes,
+                    (long) (count - head) * elementBytes);
+        }
+    }
+
+    private static ByteBuffer directBuffer(long bytes) {
+        return ByteBuffer.allocateDirect(Math.toIntExact(bytes)).order(NATIVE_ORDER);
+    }
+
+    /**
+     * @param indices    slots returned by the sampled {@link SequenceBatch#indices()}
+     * @param priorities new priorities of the sequences (the absolute value is used)
+     */
+    public void updatePriorities(int[] indices, float[] priorities) {
+        if (indices.length != priorities.length) {
+            throw new IllegalArgumentException("Indices and priorities must match: %d != %d"
+                    .formatted(indices.length, priorities.length));
+        }
+
+        for (int i = 0; i < indices.length; i++) {
+            int slot = indices[i];
+            // the sequence may have been evicted since it was sampled
+            if (sumTree.get(slot) <= 0) continue;
+
+            double p = Math.abs(priorities[i]) + EPSILON;
+            maxPriority = Math.max(maxPriority, p);
+            setPriority(slot, p);
+        }
+    }
+
+    /**
+     * R2D2 priorities {@code eta * max|td| + (1 - eta) * mean|td|} over the trained steps of each
+     * sequence, the burn-in and the padding excluded.
+     *
+     * @param batch    the sampled batch, for its indices, burn-in and mask
+     * @param tdErrors (batch, time) TD errors, or (batch, time - burnIn) of the trained steps only
+     */
+    public void updatePriorities(@NonNull SequenceBatch batch, @NonNull NDArray tdErrors) {
+        var shape = tdErrors.getShape();
+        if (shape.dimension() != 2 || shape.get(0) != batch.size() || (shape.get(1) != time && shape.get(1) != length)) {
+            throw new IllegalArgumentException("TD errors %s don't match a batch of %d x %d or %d steps"
+                    .formatted(shape, batch.size(), time, length));
+        }
+
+        try (var trained = shape.get(1) == time ? tdErrors.get(":, {}:", burnIn) : tdErrors.duplicate();
+             var trainedMask = batch.mask().get(":, {}:", burnIn);
+             var mask = trainedMask.toType(tdErrors.getDataType(), false);
+             var abs = trained.abs();
+             var masked = abs.mul(mask);
+             // |td| >= 0, so the zeroed padding never wins the max
+             var max = masked.max(new int[]{1});
+             var sum = masked.sum(new int[]{1});
+             var count = mask.sum(new int[]{1});
+             var nonEmpty = count.maximum(1);
+             var mean = sum.div(nonEmpty);
+             var weightedMax = max.mul(PRIORITY_ETA);
+             var weightedMean = mean.mul(1 - PRIORITY_ETA);
+             var mixed = weightedMax.add(weightedMean);
+             var f32 = mixed.toType(DataType.FLOAT32, false)) {
+            updatePriorities(batch.indices(), f32.toFloatArray());
+        }
+    }
+
+    private void setPriority(int slot, double priority) {
+        double value = Math.pow(priority, alpha);
+        sumTree.set(slot, value);
+        minTree.set(slot, value);
+    }
+
+    private void clearPriority(int slot) {
+        sumTree.set(slot, 0.0);
+        minTree.set(slot, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @return the stored priority of the sequence, already raised to alpha, 0 if not stored
+     */
+    public double priority(int slot) {
+        return sumTree.get(slot);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            log.warn("The SequenceReplayBuffer was already closed!");
+            return;
+        }
+        this.closed = true;
+        arena.close();
+    }
+}
@@ -0,0 +1,38 @@
+package br.com.guialves.rflr.utils;
+
+public final class SumSegmentTree extends SegmentTree {
+
+    public SumSegmentTree(int size) {
+        super(size, 0.0);
+    }
+
+    @Override
+    protected double combine(double left, double right) {
+        return left + right;
+    }
+
+    public double sum() {
+        return tree[1];
+    }
+
+    /**
+     * Walk down from the root to the leaf where the cumulative sum exceeds {@code prefixSum},
+     * used to sample proportionally to the stored values.
+     *
+     * @param prefixSum value in [0, sum())
+     * @return leaf index
+     */
+    public int findPrefixSumIndex(double prefixSum) {
+        int node = 1;
+        while (node < capacity) {
+            int left = 2 * node;
+            if (tree[left] > prefixSum) {
+                node = left;
+            } else {
+                prefixSum -= tree[left];
+                node = left + 1;
+            }
+        }
+        return node - capacity;
+    }
+}
@@ -0,0 +1,301 @@
+package br.com.guialves.rflr.utils;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+/**
+ * Grayscale, resize and two-frame max-pool of uint8 RGB frames (height, width, 3) into a
+ * preallocated uint8 (outHeight, outWidth) frame, with the <code>jdk.incubator.vector</code> API
+ * (run with <code>--add-modules jdk.incubator.vector</code>).
+ * <p>
+ * Each needed source row is max-pooled, widened to floats and filtered horizontally, the gray
+ * weights folded into the horizontal taps over the interleaved channels, then the filtered rows
+ * are combined vertically. Resizing follows the PyTorch kernels used by the DJL path:
+ * <ul>
+ *   <li>{@link Resize#BILINEAR}: half-pixel centers, no antialiasing</li>
+ *   <li>{@link Resize#AREA}: adaptive average pooling</li>
+ * </ul>
+ * Not thread-safe, the scratch rows are reused across calls.
+ */
+@Accessors(fluent = true)
+public final class VectorFramePreprocessor {
+
+    public enum Grayscale {
+        /**
+         * Mean of the channels, as {@link PreProcessingWrapper} does with DJL
+         */
+        MEAN(1 / 3f, 1 / 3f, 1 / 3f),
+        /**
+         * ITU-R BT.601 luma
+         */
+        LUMINANCE(0.299f, 0.587f, 0.114f);
+
+        private final float[] weights;
+
+        Grayscale(float r, float g, float b) {
+            this.weights = new float[]{r, g, b};
+        }
+    }
+
+    public enum Resize {
+        BILINEAR,
+        AREA
+    }
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final int CHANNELS = 3;
+
+    /**
+     * Taps of a 1-D resampling, {@code count} source indexes and weights per output index.
+     */
+    private record Taps(int count, int[] index, float[] weight) {
+
+        static Taps of(int in, int out, Resize resize) {
+            return switch (resize) {
+                case BILINEAR -> bilinear(in, out);
+                case AREA -> area(in, out);
+            };
+        }
+
+        private static Taps bilinear(int in, int out) {
+            var index = new int[out * 2];
+            var weight = new float[out * 2];
+            float scale = (float) in / out;
+            for (int o = 0; o < out; o++) {
+                float src = Math.max((o + 0.5f) * scale - 0.5f, 0f);
+                int i0 = Math.min((int) src, in - 1);
+                int i1 = Math.min(i0 + 1, in - 1);
+                float lambda = Math.min(src - i0, 1f);
+
+                index[o * 2] = i0;
+                index[o * 2 + 1] = i1;
+                weight[o * 2] = 1f - lambda;
+                weight[o * 2 + 1] = lambda;
+            }
+            return new Taps(2, index, weight);
+        }
+
+        private static Taps area(int in, int out) {
+            int count = 0;
+            for (int o = 0; o < out; o++) {
+                count = Math.max(count, end(o, in, out) - start(o, in, out));
+            }
+
+            // shorter windows are padded with zero weights
+            var index = new int[out * count];
+            var weight = new float[out * count];
+            for (int o = 0; o < out; o++) {
+                int start = start(o, in, out);
+                int length = end(o, in, out) - start;
+                for (int t = 0; t < length; t++) {
+                    index[o * count + t] = start + t;
+                    weight[o * count + t] = 1f / length;
+                }
+                Arrays.fill(index, o * count + length, (o + 1) * count, start);
+            }
+            return new Taps(count, index, weight);
+        }
+
+        private static int start(int o, int in, int out) {
+            return Math.floorDiv(o * in, out);
+        }
+
+        private static int end(int o, int in, int out) {
+            return Math.ceilDiv((o + 1) * in, out);
+        }
+    }
+
+    @Getter
+    private final int height;
+    @Getter
+    private final int width;
+    @Getter
+    private final int outHeight;
+    @Getter
+    private final int outWidth;
+    private final int rowBytes;
+    private final int paddedWidth;
+
+    // horizontal taps over the interleaved row, [tap][output column], padded with zero weights
+    private final int[][] columnIndex;
+    private final float[][] columnWeight;
+    private final Taps rowTaps;
+    private final boolean[] rowNeeded;
+
+    private final byte[] row;
+    private final byte[] previousRow;
+    private final float[] rowFloats;
+    private final float[] filteredRows;
+    private final float[] outRow;
+
+    public VectorFramePreprocessor(int height, int width, int outHeight, int outWidth,
+                                   @NonNull Grayscale grayscale, @NonNull Resize resize) {
+        if (height <= 0 || width <= 0 || outHeight <= 0 || outWidth <= 0) {
+            throw new IllegalArgumentException("Frame sizes must be positive: %dx%d -> %dx%d"
+                    .formatted(height, width, outHeight, outWidth));
+        }
+
+        this.height = height;
+        this.width = width;
+        this.outHeight = outHeight;
+        this.outWidth = outWidth;
+        this.rowBytes = width * CHANNELS;
+        this.paddedWidth = roundUp(outWidth, FLOATS.length());
+
+        var columns = Taps.of(width, outWidth, resize);
+        this.columnIndex = new int[columns.count() * CHANNELS][paddedWidth];
+        this.columnWeight = new float[columns.count() * CHANNELS][paddedWidth];
+        for (int x = 0; x < outWidth; x++) {
+            for (int t = 0; t < columns.count(); t++) {
+                int source = columns.index()[x * columns.count() + t];
+                float weight = columns.weight()[x * columns.count() + t];
+                for (int c = 0; c < CHANNELS; c++) {
+                    columnIndex[t * CHANNELS + c][x] = source * CHANNELS + c;
+                    columnWeight[t * CHANNELS + c][x] = weight * grayscale.weights[c];
+                }
+            }
+        }
+
+        this.rowTaps = Taps.of(height, outHeight, resize);
+        this.rowNeeded = new boolean[height];
+        for (int i = 0; i < rowTaps.index().length; i++) {
+            if (rowTaps.weight()[i] != 0f) {
+                rowNeeded[rowTaps.index()[i]] = true;
+            }
+        }
+
+        this.row = new byte[roundUp(rowBytes, BYTES.length())];
+        this.previousRow = new byte[row.length];
+        this.rowFloats = new float[row.length];
+        this.filteredRows = new float[height * paddedWidth];
+        this.outRow = new float[paddedWidth];
+    }
+
+    private static int roundUp(int value, int multiple) {
+        return Math.ceilDiv(value, multiple) * multiple;
+    }
+
+    public long frameBytes() {
+        return (long) height * rowBytes;
+    }
+
+    public long outBytes() {
+        return (long) outHeight * outWidth;
+    }
+
+    /**
+     * @param frame uint8 (height, width, 3)
+     * @param dst   uint8 (outHeight, outWidth)
+     */
+    public void process(@NonNull MemorySegment frame, @NonNull MemorySegment dst) {
+        process(frame, null, dst);
+    }
+
+    /**
+     * @param frame    uint8 (height, width, 3)
+     * @param previous frame max-pooled with {@code frame} before the grayscale, null to skip it
+     * @param dst      uint8 (outHeight, outWidth)
+     */
+    public void process(@NonNull MemorySegment frame, MemorySegment previous, @NonNull MemorySegment dst) {
+        checkSize(frame, frameBytes(), "frame");
+        if (previous != null) {
+            checkSize(previous, frameBytes(), "previous frame");
+        }
+        checkSize(dst, outBytes(), "destination");
+
+        for (int y = 0; y < height; y++) {
+            if (rowNeeded[y]) {
+                loadRow(frame, previous, y);
+                filterRow(y);
+            }
+        }
+
+        for (int y = 0; y < outHeight; y++) {
+            combineRows(y);
+            long offset = (long) y * outWidth;
+            for (int x = 0; x < outWidth; x++) {
+                int value = Math.round(outRow[x]);
+                dst.set(JAVA_BYTE, offset + x, (byte) Math.clamp(value, 0, 255));
+            }
+        }
+    }
+
+    private static void checkSize(MemorySegment segment, long expected, String name) {
+        if (segment.byteSize() < expected) {
+            throw new IllegalArgumentException(
+                    "The %s has %d bytes, expected %d".formatted(name, segment.byteSize(), expected));
+        }
+    }
+
+    /**
+     * Copy the row, max-pool it with the previous frame and widen it to floats.
+     */
+    private void loadRow(MemorySegment frame, MemorySegment previous, int y) {
+        long offset = (long) y * rowBytes;
+        MemorySegment.copy(frame, JAVA_BYTE, offset, row, 0, rowBytes);
+
+        if (previous != null) {
+            MemorySegment.copy(previous, JAVA_BYTE, offset, previousRow, 0, rowBytes);
+            for (int i = 0; i < row.length; i += BYTES.length()) {
+                // unsigned max as a signed one, with the sign bits flipped
+                var a = ByteVector.fromArray(BYTES, row, i).lanewise(VectorOperators.XOR, (byte) 0x80);
+                var b = ByteVector.fromArray(BYTES, previousRow, i).lanewise(VectorOperators.XOR, (byte) 0x80);
+                a.max(b).lanewise(VectorOperators.XOR, (byte) 0x80).intoArray(row, i);
+            }
+        }
+
+        int parts = BYTES.length() / INTS.length();
+        for (int i = 0; i < row.length; i += BYTES.length()) {
+            var bytes = ByteVector.fromArray(BYTES, row, i);
+            for (int p = 0; p < parts; p++) {
+                var ints = ((IntVector) bytes.convertShape(VectorOperators.B2I, INTS, p)).and(0xFF);
+                ((FloatVector) ints.convert(VectorOperators.I2F, 0))
+                        .intoArray(rowFloats, i + p * INTS.length());
+            }
+        }
+    }
+
+    /**
+     * Grayscale and horizontal resize of the loaded row, gathering each tap from the interleaved channels.
+     */
+    private void filterRow(int y) {
+        int offset = y * paddedWidth;
+        for (int x = 0; x < paddedWidth; x += FLOATS.length()) {
+            var sum = FloatVector.zero(FLOATS);
+            for (int t = 0; t < columnIndex.length; t++) {
+                var values = FloatVector.fromArray(FLOATS, rowFloats, 0, columnIndex[t], x);
+                sum = values.fma(FloatVector.fromArray(FLOATS, columnWeight[t], x), sum);
+            }
+            sum.intoArray(filteredRows, offset + x);
+        }
+    }
+
+    private void combineRows(int y) {
+        int count = rowTaps.count();
+        for (int x = 0; x < paddedWidth; x += FLOATS.length()) {
+            var sum = FloatVector.zero(FLOATS);
+            for (int t = 0; t < count; t++) {
+                float weight = rowTaps.weight()[y * count + t];
+                if (weight != 0f) {
+                    int source = rowTaps.index()[y * count + t];
+                    var values = FloatVector.fromArray(FLOATS, filteredRows, source * paddedWidth + x);
+                    sum = values.fma(FloatVector.broadcast(FLOATS, weight), sum);
+                }
+            }
+            sum.intoArray(outRow, x);
+        }
+    }
+}
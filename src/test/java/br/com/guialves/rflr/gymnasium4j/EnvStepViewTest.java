@@ -0,0 +1,91 @@
+package br.com.guialves.rflr.gymnasium4j;
+
+import ai.djl.ndarray.NDManager;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+class EnvStepViewTest {
+
+    private static final int WARMUP_STEPS = 20_000;
+    private static final int STEPS = 5_000;
+    /**
+     * JavaCPP wrappers a step still allocates: the result tuple and its four items, the data
+     * pointer of the Py_buffer and the two segments of the copy, at most 64 bytes each.
+     * A tensor or an info map per step goes over it.
+     */
+    private static final long STEP_BYTES_BUDGET = 8 * 64;
+
+    private NDManager manager;
+
+    @BeforeEach
+    void setUp() {
+        manager = NDManager.newBaseManager();
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.close();
+    }
+
+    private static long allocatedBytes() {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    @Test
+    void shouldUpdateTheSameStateInPlace() {
+        try (var env = Gym.builder().envName("CartPole-v1").ndManager(manager).build()) {
+            env.reset().getKey().close();
+
+            try (var view = env.newStepView(false);
+                 var action = env.actionSpaceType().get(1)) {
+                var state = view.state();
+                env.resetInto(view);
+                float[] reset = state.toFloatArray();
+
+                env.stepInto(action, view);
+                assertSame(state, view.state());
+                assertEquals(1.0, view.reward());
+                assertNull(view.info());
+                // pushing right moves the cart velocity up
+                assertTrue(state.toFloatArray()[1] > reset[1]);
+            }
+        }
+    }
+
+    @Test
+    void shouldStayWithinTheStepAllocationBudget() {
+        try (var env = Gym.builder().envName("CartPole-v1").ndManager(manager).build()) {
+            env.reset().getKey().close();
+
+            try (var view = env.newStepView(false);
+                 var action = env.actionSpaceType().get(0)) {
+                // steady state: compiled, the env globals and buffers created
+                stepInto(env, view, action, WARMUP_STEPS);
+
+                long start = allocatedBytes();
+                stepInto(env, view, action, STEPS);
+                long stepBytes = (allocatedBytes() - start) / STEPS;
+
+                log.info("Allocated per stepInto: {} B", stepBytes);
+                assertTrue(stepBytes <= STEP_BYTES_BUDGET,
+                        "%d B per step, budget %d B".formatted(stepBytes, STEP_BYTES_BUDGET));
+            }
+        }
+    }
+
+    private static void stepInto(Env env, EnvStepView view, ActionSpaceType.ActionResult action, int steps) {
+        for (int i = 0; i < steps; i++) {
+            if (env.stepInto(action, view).done()) {
+                env.resetInto(view);
+            }
+        }
+    }
+}
@@ -3,12 +3,19 @@ package br.com.guialves.rflr.gymnasium4j;
 import ai.djl.ndarray.NDManager;
 import br.com.guialves.rflr.gymnasium4j.utils.EnvRenderWindow;
 import br.com.guialves.rflr.gymnasium4j.wrappers.*;
+import br.com.guialves.rflr.python.PythonRuntime;
+import br.com.guialves.rflr.python.SubInterpreterPool;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.util.List;
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -51,6 +58,254 @@ class GymTest {
         }
     }
 
+    @Test
+    void shouldBuildInAnInterpreterOfThePoolOrFallBack() {
+        try (var ndManager = NDManager.newBaseManager();
+             var pool = new SubInterpreterPool(1)) {
+            var builder = Gym.builder().envName("CartPole-v1").ndManager(ndManager).interpreterPool(pool);
+            assertEquals(List.of("gymnasium"), builder.importedModules());
+
+            // NumPy only loads in a sub-interpreter from versions with multi-phase init
+            try (var env = builder.buildInPool()) {
+                if (pool.supports(builder.importedModules())) {
+                    assertInstanceOf(SubInterpreterEnv.class, env);
+                } else {
+                    assertInstanceOf(Env.class, env);
+                }
+
+                env.reset();
+                try (var stepResult = env.step(env.actionSpaceSample())) {
+                    assertEquals(4, stepResult.state().size());
+                }
+            }
+        }
+    }
+
+    /**
+     * Same counter as {@link #registerCounterEnv()} without gymnasium nor NumPy, which don't always
+     * import in a sub-interpreter: an array.array with shape and dtype stands for the observation.
+     */
+    private static String pureCounterEnvScript(String varEnvCode) {
+        return """
+                import array
+                class Discrete:
+                    def __init__(self, n):
+                        self.n = n
+                        self.count = 0
+                    def sample(self):
+                        self.count += 1
+                        return self.count % self.n
+                class Box:
+                    pass
+                class Observation(array.array):
+                    shape = (2,)
+                    dtype = 'float32'
+                class PureCounterEnv:
+                    def __init__(self):
+                        self.action_space = Discrete(2)
+                        self.observation_space = Box()
+                        self.t = 0
+                    def reset(self):
+                        self.t = 0
+                        return Observation('f', [0, 10]), {'lives': 6}
+                    def step(self, action):
+                        self.t += 1
+                        info = {'lives': 6 - self.t, 'mode': 'counter'}
+                        return Observation('f', [self.t, 10 - self.t]), 1.0, self.t == 6, False, info
+                    def render(self):
+                        return None
+                    def close(self):
+                        pass
+                env_%s = PureCounterEnv()
+                """.formatted(varEnvCode);
+    }
+
+    @Test
+    void shouldProxyAnEnvLivingInASubInterpreter() {
+        var varEnvCode = "purecounter";
+        try (var ndManager = NDManager.newBaseManager();
+             var pool = new SubInterpreterPool(1)) {
+            var interpreter = pool.next();
+            var env = new SubInterpreterEnv(interpreter, interpreter.call(() ->
+                    new Env(varEnvCode, "PureCounter", pureCounterEnvScript(varEnvCode), ndManager)));
+
+            // only the sub-interpreter has the env
+            var inMain = PythonRuntime.eval("name in globals()", Map.of("name", "env_" + varEnvCode));
+            try {
+                assertFalse(PythonRuntime.toBool(inMain));
+            } finally {
+                PythonRuntime.decRef(inMain);
+            }
+
+            var reset = env.reset();
+            assertArrayEquals(new float[]{0, 10}, reset.getKey().toFloatArray());
+            assertEquals(6L, reset.getValue().get("lives"));
+
+            var action = env.actionSpaceSample();
+            assertEquals(ActionSpaceType.DISCRETE, action.spaceType());
+            assertEquals(1L, (Long) action.value());
+            assertTrue(action.valid());
+
+            try (var result = env.step(action)) {
+                assertArrayEquals(new float[]{1, 9}, result.state().toFloatArray());
+                assertEquals(1.0, result.reward());
+                // converted on the interpreter thread, readable from this one
+                assertEquals("counter", result.info().get("mode"));
+                assertEquals(5L, result.info().get("lives"));
+            }
+
+            // released on the interpreter thread
+            action.close();
+            assertTrue(action.closed());
+            assertThrows(IllegalStateException.class, action::close);
+
+            env.close();
+            assertTrue(env.closed());
+        }
+    }
+
+    @Test
+    void shouldStepIntoCallerMemory() {
+        try (var ndManager = NDManager.newBaseManager();
+             var env = Gym.builder().envName("CartPole-v1").ndManager(ndManager).build();
+             var arena = Arena.ofConfined();
+             var action = env.actionSpaceType().get(1)) {
+
+            // two rows of 4 float32, like consecutive rows of a replay buffer
+            var rows = arena.allocate(2 * 4 * Float.BYTES);
+            var info = env.reset(rows.asSlice(0, 16));
+            assertNotNull(info);
+            assertEquals(16, env.stateMetadata().size());
+
+            try (var result = env.step(action, rows.asSlice(16, 16))) {
+                assertNull(result.state());
+                assertEquals(1.0, result.reward());
+            }
+
+            float[] states = rows.toArray(ValueLayout.JAVA_FLOAT);
+            assertTrue(Math.abs(states[0]) <= 0.05f);
+            // pushing right moves the cart velocity up
+            assertTrue(states[5] > states[1]);
+        }
+    }
+
+    /**
+     * Observation (t, 10 - t), reward 1 per step, terminated at t = 6, info with lives and frame number.
+     */
+    private static void registerCounterEnv() {
+        PythonRuntime.initPython();
+        PythonRuntime.exec("""
+                import gymnasium as gym, numpy as np
+                class CounterEnv(gym.Env):
+                    def __init__(self, render_mode=None):
+                        self.observation_space = gym.spaces.Box(0, 10, (2,), np.float32)
+                        self.action_space = gym.spaces.Discrete(2)
+                        self.t = 0
+                    def reset(self, seed=None, options=None):
+                        self.t = 0
+                        return np.array([0, 10], dtype=np.float32), {'lives': 6}
+                    def step(self, action):
+                        self.t += 1
+                        obs = np.array([self.t, 10 - self.t], dtype=np.float32)
+                        info = {'lives': 6 - self.t, 'frame_number': 4 * self.t, 'mode': 'counter'}
+                        return obs, 1.0, self.t == 6, False, info
+                if 'Counter-v0' not in gym.registry:
+                    gym.register(id='Counter-v0', entry_point=CounterEnv)
+                """);
+    }
+
+    @Test
+    void shouldRepeatStepInASinglePythonCall() {
+        registerCounterEnv();
+
+        try (var ndManager = NDManager.newBaseManager();
+             var env = Gym.make("Counter-v0", ndManager);
+             var action = env.actionSpaceType().get(0)) {
+            env.reset().getKey().close();
+
+            try (var result = env.repeatStep(action, 4, true, ndManager)) {
+                assertEquals(4.0, result.reward());
+                assertFalse(result.done());
+                // max of (3, 7) and (4, 6)
+                assertArrayEquals(new float[]{4, 7}, result.state().toFloatArray());
+            }
+
+            try (var result = env.repeatStep(action, 4, true, ndManager)) {
+                assertEquals(2.0, result.reward());
+                assertTrue(result.term());
+                assertArrayEquals(new float[]{6, 5}, result.state().toFloatArray());
+            }
+
+            env.reset().getKey().close();
+            try (var result = env.repeatStep(action, 3, false, ndManager)) {
+                assertEquals(3.0, result.reward());
+                assertArrayEquals(new float[]{3, 7}, result.state().toFloatArray());
+            }
+        }
+    }
+
+    @Test
+    void shouldConvertTheInfoWithoutWhitelistedKeys() {
+        registerCounterEnv();
+
+        try (var ndManager = NDManager.newBaseManager();
+             var env = Gym.builder()
+                     .envName("Counter-v0")
+                     .ndManager(ndManager)
+                     .build();
+             var action = env.actionSpaceType().get(0)) {
+
+            assertThat(env.reset().getValue()).isNotInstanceOf(EnvInfo.class);
+
+            var result = env.step(action);
+            assertNull(result.envInfo());
+            result.close();
+            // a plain map, still readable after the close
+            assertEquals(5L, result.info().get("lives"));
+            assertEquals("counter", result.info().get("mode"));
+        }
+    }
+
+    @Test
+    void shouldDecodeWhitelistedInfoKeysAndTheRestLazily() {
+        registerCounterEnv();
+
+        try (var ndManager = NDManager.newBaseManager();
+             var env = Gym.builder()
+                     .envName("Counter-v0")
+                     .ndManager(ndManager)
+                     .infoKeys("lives", "frame_number", "missing")
+                     .build();
+             var action = env.actionSpaceType().get(0)) {
+
+            // converted right away, nothing to close
+            var resetInfo = env.reset().getValue();
+            assertEquals(6L, resetInfo.get("lives"));
+            assertEquals(6L, ((EnvInfo) resetInfo).getLong("lives"));
+
+            try (var result = env.step(action)) {
+                var info = result.envInfo();
+                assertNotNull(info);
+                assertEquals(5L, info.getLong("lives"));
+                assertEquals(4.0, info.getDouble(1));
+                assertTrue(Double.isNaN(info.getDouble("missing")));
+                assertThrows(IllegalArgumentException.class, () -> info.getDouble("mode"));
+
+                // the whole dict, converted on first access
+                assertEquals("counter", result.info().get("mode"));
+                assertEquals(3, result.info().size());
+            }
+
+            try (var result = env.step(action)) {
+                var info = result.envInfo();
+                info.close();
+                // slots survive the release of the dict, the map doesn't
+                assertEquals(4L, info.getLong("lives"));
+                assertThrows(IllegalStateException.class, info::isEmpty);
+            }
+        }
+    }
+
     @Test
     void shouldTestDefaultGeneratedWrapper() {
         var envId = "CarRacing-v3";
@@ -106,6 +361,25 @@ class GymTest {
         assertThat(script).containsPattern("env_[0-9a-f]{32} = ResizeObservation\\(env_[0-9a-f]{32}, shape=\\[50, 50, 1]\\)");
     }
 
+    @Test
+    void shouldGenerateVectorEnvFactory() {
+        var script = Gym.builder()
+                .envName("CartPole-v1")
+                .add(new FrameStackObservation(4))
+                .generatePyVectorEnvScript(8);
+
+        assertThat(script).contains("import gymnasium as gym, numpy as np");
+        assertThat(script).contains("from gymnasium.wrappers import FrameStackObservation");
+        assertThat(script).containsPattern("def make_env_[0-9a-f]{32}\\(\\):");
+        assertThat(script).contains("    env = gym.make('CartPole-v1', render_mode='rgb_array')");
+        assertThat(script).contains("    env = FrameStackObservation(env, stack_size=4)");
+        assertThat(script).containsPattern("env_([0-9a-f]{32}) = gym\\.vector\\.SyncVectorEnv\\(\\[make_env_\\1] \\* 8, " +
+                "autoreset_mode=gym\\.vector\\.AutoresetMode\\.SAME_STEP\\)");
+        assertThat(script).containsPattern("actions_[0-9a-f]{32} = np\\.zeros");
+        assertThat(script).containsPattern("final_obs_([0-9a-f]{32}) = np\\.zeros\\(\\(env_\\1\\.num_envs,\\)");
+        assertThat(script).containsPattern("def step_[0-9a-f]{32}\\(actions\\):");
+    }
+
     @Nested
     @DisplayName("PyMap Tests")
     class PyMapTest {
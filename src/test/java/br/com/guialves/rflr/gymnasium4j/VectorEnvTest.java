@@ -0,0 +1,158 @@
+package br.com.guialves.rflr.gymnasium4j;
+
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.Shape;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+class VectorEnvTest {
+
+    private static final int ENVS = 4;
+
+    private NDManager manager;
+
+    @BeforeEach
+    void setUp() {
+        manager = NDManager.newBaseManager();
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.close();
+    }
+
+    @Test
+    void shouldStepAllEnvsAndResetTheFinishedOnes() {
+        var random = RandomGenerator.of("L64X128MixRandom");
+        try (var env = Gym.makeVector("CartPole-v1", ENVS, manager)) {
+            assertEquals(ActionSpaceType.DISCRETE, env.actionSpaceType());
+            assertEquals(new Shape(4), env.stateMetadata().djlShape());
+
+            try (var states = env.reset()) {
+                assertEquals(new Shape(ENVS, 4), states.getShape());
+            }
+
+            var actions = new long[ENVS];
+            int episodes = 0;
+            long start = System.nanoTime();
+            for (int t = 0; t < 500; t++) {
+                for (int i = 0; i < ENVS; i++) {
+                    actions[i] = random.nextInt(2);
+                }
+
+                try (var result = env.step(actions)) {
+                    assertEquals(new Shape(ENVS, 4), result.states().getShape());
+                    float[] states = result.states().toFloatArray();
+                    for (int i = 0; i < ENVS; i++) {
+                        assertEquals(1.0, result.rewards()[i]);
+                        if (result.done(i)) {
+                            episodes++;
+                            // cart position of the next episode, reset in the same step
+                            assertTrue(Math.abs(states[i * 4]) <= 0.05f, "x " + states[i * 4]);
+                        }
+                    }
+                }
+            }
+
+            log.info("VectorEnv steps/s: {}", 500L * ENVS * 1_000_000_000L / (System.nanoTime() - start));
+            assertTrue(episodes > ENVS, "episodes " + episodes);
+        }
+    }
+
+    @Test
+    void shouldStepContinuousActions() {
+        try (var env = Gym.makeVector("Pendulum-v1", ENVS, manager)) {
+            assertEquals(ActionSpaceType.BOX, env.actionSpaceType());
+            env.reset().close();
+
+            try (var result = env.step(new float[]{-2f, -1f, 1f, 2f})) {
+                assertEquals(new Shape(ENVS, 3), result.states().getShape());
+                assertEquals(ENVS, result.size());
+                for (int i = 0; i < ENVS; i++) {
+                    assertTrue(result.rewards()[i] <= 0);
+                    assertFalse(result.done(i));
+                }
+            }
+
+            assertThrows(IllegalArgumentException.class, () -> env.step(new long[ENVS]));
+            assertThrows(IllegalArgumentException.class, () -> env.step(new float[ENVS + 1]));
+        }
+    }
+
+    @Test
+    void shouldKeepTheFinalObservationsOfTruncatedEnvs() {
+        try (var env = Gym.builder()
+                .envName("Pendulum-v1")
+                .params(Gym.builderMap().put("max_episode_steps", 5))
+                .ndManager(manager)
+                .buildVector(ENVS)) {
+            float[] previous = env.reset().toFloatArray();
+            var actions = new float[]{-2f, -1f, 1f, 2f};
+
+            for (int t = 1; t < 5; t++) {
+                try (var result = env.step(actions)) {
+                    assertNull(result.finalStates());
+                    assertArrayEquals(new boolean[ENVS], result.doneMask());
+                    assertThrows(IllegalArgumentException.class, () -> result.finalState(0));
+                    previous = result.states().toFloatArray();
+                }
+            }
+
+            try (var result = env.step(actions)) {
+                float[] states = result.states().toFloatArray();
+                assertArrayEquals(new boolean[]{true, true, true, true}, result.doneMask());
+                for (int i = 0; i < ENVS; i++) {
+                    assertTrue(result.trunc()[i]);
+                    assertFalse(result.term()[i]);
+
+                    // (cos, sin, velocity): the final angle is one step away from the previous one
+                    float[] last = result.finalState(i).toFloatArray();
+                    double moved = Math.abs(Math.atan2(last[1], last[0])
+                            - Math.atan2(previous[i * 3 + 1], previous[i * 3]));
+                    assertTrue(Math.min(moved, 2 * Math.PI - moved) <= 8 * 0.05 + 1e-4, "moved " + moved);
+                    assertFalse(Arrays.equals(last, Arrays.copyOfRange(states, i * 3, i * 3 + 3)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldReadObservationsFromSharedMemory() {
+        try (var env = Gym.builder()
+                .envName("CartPole-v1")
+                .ndManager(manager)
+                .buildAsyncVector(2)) {
+
+            var states = env.reset();
+            assertEquals(new Shape(2, 4), states.getShape());
+            float[] first = states.toFloatArray();
+
+            try (var result = env.step(new long[]{0, 1})) {
+                assertFalse(result.done(0));
+                assertFalse(result.done(1));
+                // both tensors are views over the same shared buffer
+                assertArrayEquals(result.states().toFloatArray(), states.toFloatArray());
+                assertFalse(Arrays.equals(first, states.toFloatArray()));
+            }
+            states.close();
+        }
+    }
+
+    @Test
+    void shouldRequireResetAndRejectUseAfterClose() {
+        var env = Gym.makeVector("CartPole-v1", 2, manager);
+        assertThrows(IllegalStateException.class, () -> env.step(new long[2]));
+
+        env.close();
+        assertTrue(env.closed());
+        assertThrows(IllegalStateException.class, env::reset);
+    }
+}
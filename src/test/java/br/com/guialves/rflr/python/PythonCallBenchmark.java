@@ -0,0 +1,118 @@
+package br.com.guialves.rflr.python;
+
+import org.bytedeco.cpython.PyObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static br.com.guialves.rflr.python.PythonDataStructures.getItemBool;
+import static br.com.guialves.rflr.python.PythonRuntime.*;
+
+/**
+ * Call overhead of the tuple based {@link PythonRuntime#callFunction} and {@link PythonRuntime#callMethod}
+ * against {@link PythonRuntime#vectorcall} and {@link PythonRuntime#vectorcallMethod}, on the
+ * CartPole <code>step</code>, <code>reset</code> and <code>action_space.sample</code>.
+ * <p>
+ * Run with exec:exec, a plain java launch whose classpath and flags the JMH fork reuses:
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=br.com.guialves.rflr.python.PythonCallBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+@State(Scope.Thread)
+public class PythonCallBenchmark {
+
+    private PyObject env;
+    private PyObject actionSpace;
+    private PyObject step;
+    private PyObject reset;
+    private PyObject sample;
+    private PyObject action;
+
+    @Setup
+    public void setUp() {
+        initPython();
+        exec("""
+                import gymnasium as gym
+                bench_env = gym.make('CartPole-v1')
+                bench_env.reset(seed=0)
+                """);
+        env = eval("bench_env");
+        actionSpace = attr(env, "action_space");
+        step = attr(env, "step");
+        reset = attr(env, "reset");
+        sample = attr(actionSpace, "sample");
+        action = pyLong(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        decRef(action);
+        decRef(sample);
+        decRef(reset);
+        decRef(step);
+        decRef(actionSpace);
+        decRef(env);
+        exec("bench_env.close(); del bench_env");
+    }
+
+    /**
+     * Resets when the episode ends, so every step is a valid one.
+     */
+    private void stepped(PyObject result) {
+        if (getItemBool(result, 2) || getItemBool(result, 3)) {
+            decRef(vectorcall(reset));
+        }
+        decRef(result);
+    }
+
+    @Benchmark
+    public void stepCallFunction() {
+        stepped(callFunction(step, action));
+    }
+
+    @Benchmark
+    public void stepVectorcall() {
+        stepped(vectorcall(step, action));
+    }
+
+    @Benchmark
+    public void resetCallFunction() {
+        decRef(callFunction(reset));
+    }
+
+    @Benchmark
+    public void resetVectorcall() {
+        decRef(vectorcall(reset));
+    }
+
+    @Benchmark
+    public void sampleCallMethod() {
+        decRef(callMethod(actionSpace, "sample"));
+    }
+
+    @Benchmark
+    public void sampleVectorcallMethod() {
+        decRef(vectorcallMethod(actionSpace, "sample"));
+    }
+
+    @Benchmark
+    public void sampleBoundVectorcall() {
+        decRef(vectorcall(sample));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        var options = new OptionsBuilder()
+                .include(PythonCallBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,129 @@
+package br.com.guialves.rflr.python;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static br.com.guialves.rflr.python.PythonRuntime.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PythonExecutorTest {
+
+    private PythonExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        initPython();
+        executor = new PythonExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.close();
+    }
+
+    private static long evalLong(String expression) {
+        var result = eval(expression);
+        try {
+            return toLong(result);
+        } finally {
+            decRef(result);
+        }
+    }
+
+    @Test
+    void shouldRunTheQueuedTasksInOneBatch() throws InterruptedException {
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var blocking = executor.submit(() -> {
+            exec("executor_counter = 0");
+            started.countDown();
+            release.await();
+        });
+        started.await();
+
+        var futures = IntStream.range(0, 10)
+                .mapToObj(_ -> executor.submit(() -> exec("executor_counter += 1")))
+                .toList();
+        release.countDown();
+
+        blocking.join();
+        futures.forEach(future -> assertDoesNotThrow(future::join));
+        assertEquals(11, executor.tasks());
+        assertEquals(2, executor.batches());
+        assertEquals(10L, executor.submit(() -> evalLong("executor_counter")).join());
+    }
+
+    @Test
+    void shouldServeVirtualThreads() {
+        try (var threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            var futures = IntStream.range(0, 100)
+                    .mapToObj(i -> threads.submit(() -> executor.submit(() -> evalLong("%d * 2".formatted(i))).join()))
+                    .toList();
+
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(i * 2L, assertDoesNotThrow(futures.get(i)::get));
+            }
+        }
+        assertTrue(executor.batches() <= executor.tasks());
+    }
+
+    @Test
+    void shouldRunNestedTasksInline() {
+        var nested = executor.submit(() -> {
+            assertTrue(executor.onThread());
+            return executor.submit(() -> evalLong("40 + 2")).join();
+        });
+
+        assertFalse(executor.onThread());
+        assertEquals(42L, nested.join());
+    }
+
+    @Test
+    void shouldCompleteExceptionallyOnPythonErrors() {
+        var future = executor.submit(() -> evalLong("undefined_executor_variable"));
+
+        var exception = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(RuntimeException.class, exception.getCause());
+        assertEquals(1L, executor.submit(() -> evalLong("1")).join());
+    }
+
+    @Test
+    void shouldRejectTasksAfterClose() {
+        executor.close();
+
+        var future = executor.submit(() -> exec("x = 1"));
+        var exception = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(IllegalStateException.class, exception.getCause());
+    }
+
+    @Test
+    void shouldCompleteTheTasksSubmittedWhileClosing() throws Exception {
+        var started = new CountDownLatch(4);
+        var futures = new ConcurrentLinkedQueue<CompletableFuture<Void>>();
+        try (var threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            IntStream.range(0, 4).forEach(_ -> threads.submit(() -> {
+                started.countDown();
+                for (int i = 0; i < 1_000; i++) {
+                    futures.add(executor.submit(() -> exec("closing_var = 1")));
+                }
+            }));
+            started.await();
+            executor.close();
+        }
+
+        assertEquals(4_000, futures.size());
+        for (var future : futures) {
+            var failure = future.handle((_, e) -> e).get(10, TimeUnit.SECONDS);
+            assertTrue(failure == null || failure instanceof IllegalStateException);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package br.com.guialves.rflr.python;
 
 import org.junit.jupiter.api.*;
 
+import java.util.Map;
+
 import static br.com.guialves.rflr.python.PythonDataStructures.*;
 import static br.com.guialves.rflr.python.PythonRuntime.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -84,6 +86,49 @@ class PythonRuntimeTest {
         });
     }
 
+    @Test
+    void testCodeCache() {
+        exec("cached_var = 1");
+        int size = codeCacheSize();
+
+        exec("cached_var = 1");
+        try (var result = eval("cached_var")) {
+            assertEquals(1L, toLong(result));
+        }
+        try (var result = eval("cached_var")) {
+            assertEquals(1L, toLong(result));
+        }
+        assertEquals(size + 1, codeCacheSize());
+    }
+
+    @Test
+    void testExecAndEvalWithParams() {
+        exec("globals()['param_' + name] = value * 2", Map.of("name", "a", "value", 21));
+        int size = codeCacheSize();
+        exec("globals()['param_' + name] = value * 2", Map.of("name", "b", "value", 4));
+        assertEquals(size, codeCacheSize());
+
+        try (var result = eval("param_a + param_b + offset", Map.of("offset", 0.5))) {
+            assertEquals(50.5, toDouble(result));
+        }
+        assertThrows(IllegalArgumentException.class, () -> exec("pass", Map.of("value", new Object())));
+    }
+
+    @Test
+    void testGlobalVar() {
+        exec("global_lookup = 7");
+        var value = globalVar("global_lookup");
+        try {
+            assertEquals(7L, toLong(value));
+        } finally {
+            decRef(value);
+        }
+
+        delGlobalVar("global_lookup");
+        delGlobalVar("global_lookup");
+        assertThrows(IllegalArgumentException.class, () -> globalVar("global_lookup"));
+    }
+
     @Test
     void testPyIntArrayToJavaTuple() {
         exec("arr = (1, 2, 3, 4, 5)");
@@ -270,6 +315,67 @@ class PythonRuntimeTest {
         }
     }
 
+    @Test
+    void testVectorcall() {
+        exec("""
+        def multiply(a, b):
+            return a * b
+        """);
+
+        try (var fn = eval("multiply");
+             var a = pyLong(5);
+             var b = pyLong(6)) {
+            for (int i = 0; i < 3; i++) {
+                try (var result = vectorcall(fn, a, b)) {
+                    assertEquals(30L, toLong(result));
+                }
+            }
+            // more arguments than the reused array holds
+            try (var sum = eval("lambda *xs: sum(xs)");
+                 var result = vectorcall(sum, a, b, a, b, a, b, a, b, a, b)) {
+                assertEquals(55L, toLong(result));
+            }
+        }
+    }
+
+    @Test
+    void testVectorcallMethod() {
+        exec("""
+        class Calculator:
+            def add(self, a, b):
+                return a + b
+            def zero(self):
+                return 0
+        calc = Calculator()
+        """);
+
+        try (var calc = eval("calc");
+             var a = pyLong(10);
+             var b = pyLong(20);
+             var result = vectorcallMethod(calc, "add", a, b);
+             var zero = vectorcallMethod(calc, "zero")) {
+            assertEquals(30L, toLong(result));
+            assertEquals(0L, toLong(zero));
+        }
+    }
+
+    @Test
+    void testInternName() {
+        var name = internName("observation_space");
+        assertSame(name, internName("observation_space"));
+        assertEquals("observation_space", toStr(name));
+
+        exec("""
+        class Holder:
+            value = 7
+        holder = Holder()
+        """);
+        try (var holder = eval("holder");
+             var value = attrInterned(holder, "value")) {
+            assertEquals(7L, toLong(value));
+        }
+    }
+
     @Test
     void testPyLong() {
         try (var num = pyLong(12345)) {
@@ -0,0 +1,110 @@
+package br.com.guialves.rflr.python;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static br.com.guialves.rflr.python.PythonRuntime.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class SubInterpreterPoolTest {
+
+    private static SubInterpreterPool pool;
+
+    @BeforeAll
+    static void setUp() {
+        initPython();
+        pool = new SubInterpreterPool(2);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        pool.close();
+    }
+
+    private static long evalLong(String expression) {
+        var result = eval(expression);
+        try {
+            return toLong(result);
+        } finally {
+            decRef(result);
+        }
+    }
+
+    @Test
+    void shouldKeepEachInterpreterGlobalsApart() {
+        exec("shared_name = 1");
+        var first = pool.next();
+        var second = pool.next();
+        assertNotSame(first, second);
+
+        first.run(() -> exec("shared_name = 10"));
+        second.run(() -> exec("shared_name = 20"));
+
+        assertEquals(10L, first.call(() -> evalLong("shared_name")));
+        assertEquals(20L, second.call(() -> evalLong("shared_name")));
+        assertEquals(1L, evalLong("shared_name"));
+    }
+
+    @Test
+    void shouldKeepEachInterpreterCodeCacheApart() {
+        exec("cache_only_in_main = 1");
+        int mainSize = codeCacheSize();
+
+        try (var interpreter = new SubInterpreter(99)) {
+            assertEquals(0, interpreter.call(PythonRuntime::codeCacheSize));
+            interpreter.run(() -> exec("cache_only_in_main = 2"));
+            assertEquals(1, interpreter.call(PythonRuntime::codeCacheSize));
+            assertEquals(2L, interpreter.call(() -> evalLong("cache_only_in_main")));
+        }
+        assertEquals(mainSize, codeCacheSize());
+        assertEquals(1L, evalLong("cache_only_in_main"));
+    }
+
+    @Test
+    void shouldRunEachInterpreterOnItsOwnThread() {
+        var interpreter = pool.next();
+        assertFalse(interpreter.onThread());
+        assertTrue(interpreter.call(interpreter::onThread));
+        assertEquals("python-interpreter-" + interpreter.id(),
+                interpreter.call(() -> Thread.currentThread().getName()));
+    }
+
+    @Test
+    void shouldStepInterpretersInParallel() {
+        assumeTrue(Runtime.getRuntime().availableProcessors() >= pool.size(), "one core per interpreter");
+        var threads = ManagementFactory.getThreadMXBean();
+        var started = new CyclicBarrier(pool.size());
+
+        long wallStart = System.nanoTime();
+        var futures = IntStream.range(0, pool.size())
+                .mapToObj(i -> pool.next())
+                .map(interpreter -> CompletableFuture.supplyAsync(() -> interpreter.call(() -> {
+                    started.await(10, TimeUnit.SECONDS);
+                    long cpuStart = threads.getCurrentThreadCpuTime();
+                    assertEquals(26666466667000000L, evalLong("sum(i * i for _ in range(10) for i in range(200000))"));
+                    return threads.getCurrentThreadCpuTime() - cpuStart;
+                })))
+                .toList();
+
+        long cpu = futures.stream().mapToLong(CompletableFuture::join).sum();
+        long wall = System.nanoTime() - wallStart;
+        // sharing a GIL, the interpreters would take turns and the wall time would cover the CPU time of all
+        assertTrue(wall < 0.75 * cpu, "wall %d ms, cpu %d ms".formatted(wall / 1_000_000, cpu / 1_000_000));
+    }
+
+    @Test
+    void shouldProbeModulesOnce() {
+        assertTrue(pool.supports(List.of("json", "math")));
+        assertTrue(pool.supports(List.of("json", "math")));
+        assertFalse(pool.supports(List.of("module_that_does_not_exist")));
+    }
+}
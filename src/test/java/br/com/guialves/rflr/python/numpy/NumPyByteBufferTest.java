@@ -3,10 +3,14 @@ package br.com.guialves.rflr.python.numpy;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import org.bytedeco.cpython.Py_buffer;
+
+import java.lang.foreign.Arena;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 import static br.com.guialves.rflr.python.PythonRuntime.*;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
 import static br.com.guialves.rflr.python.numpy.NumPyByteBuffer.fillFromNumpy;
 import static br.com.guialves.rflr.python.numpy.NumPyByteBuffer.onHeapBufferNumpy;
 import static org.junit.jupiter.api.Assertions.*;
@@ -224,4 +228,24 @@ class NumPyByteBufferTest {
             assertArrayEquals(new long[]{-1L, -2L, 0L, 2L, 1L}, result);
         }
     }
+
+    @Test
+    void testCopyFromNumpyIntoSegmentSlot() {
+        exec("""
+        import numpy as np
+        frame_arr = np.arange(6, dtype=np.uint8).reshape(2, 3)
+        """);
+
+        try (var arr = eval("frame_arr");
+             var view = new Py_buffer();
+             var arena = Arena.ofConfined()) {
+            var rows = arena.allocate(12);
+            long copied = NumPyByteBuffer.copyFromNumpy(arr, view, rows.asSlice(6, 6));
+
+            assertEquals(6, copied);
+            assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 0, 0, 1, 2, 3, 4, 5}, rows.toArray(JAVA_BYTE));
+            assertThrows(IllegalArgumentException.class,
+                    () -> NumPyByteBuffer.copyFromNumpy(arr, view, rows.asSlice(0, 5)));
+        }
+    }
 }
@@ -0,0 +1,71 @@
+package br.com.guialves.rflr.telemetry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void shouldCoverEachValueWithItsBucket() {
+        var random = new SplittableRandom(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong(Long.MAX_VALUE >>> random.nextInt(63));
+            int index = LatencyHistogram.index(value);
+
+            assertTrue(LatencyHistogram.highestValue(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.highestValue(index - 1) < value);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void shouldReportPercentilesWithinThePrecision() {
+        var histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(100_000, histogram.count());
+        assertEquals(100_000, histogram.max());
+        assertEquals(50_000, histogram.p50(), 50_000 * 0.032);
+        assertEquals(99_000, histogram.p99(), 99_000 * 0.032);
+        assertEquals(99_900, histogram.p999(), 99_900 * 0.032);
+        assertEquals(100_000, histogram.percentile(100.0));
+    }
+
+    @Test
+    void shouldCountExactlyTheSmallValues() {
+        var histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(3);
+        histogram.record(3);
+        histogram.record(40);
+
+        assertEquals(3, histogram.p50());
+        assertEquals(40, histogram.p99());
+        assertEquals(0, histogram.percentile(25.0));
+    }
+
+    @Test
+    void shouldRecordFromManyThreadsAndReset() {
+        var histogram = new LatencyHistogram();
+        try (var threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            IntStream.range(0, 8).forEach(_ -> threads.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(1_000);
+                }
+            }));
+        }
+        assertEquals(80_000, histogram.count());
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.p99());
+        assertThrows(IllegalArgumentException.class, () -> histogram.percentile(0.0));
+    }
+}
@@ -0,0 +1,55 @@
+package br.com.guialves.rflr.telemetry;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+class StageTest {
+
+    @Test
+    void shouldBeANoOpWithoutRecordingNorHistograms() {
+        assumeFalse(Stage.HISTOGRAMS);
+        try (var stage = Stage.ENV_STEP.begin("CartPole-v1")) {
+            assertFalse(stage.active());
+            assertSame(stage, stage.bytes(10).target("step"));
+        }
+    }
+
+    @Test
+    void shouldCommitAnEventPerStageWhileRecording() throws Exception {
+        var file = Files.createTempFile("stages", ".jfr");
+        try (var recording = new Recording()) {
+            recording.enable(StageEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+
+            try (var stage = Stage.NUMPY_COPY.begin("ALE/Pong-v5")) {
+                assertTrue(stage.active());
+                stage.bytes(100_800).target("reset");
+            }
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        try {
+            var events = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals("br.com.guialves.rflr.Stage"))
+                    .toList();
+
+            assertEquals(1, events.size());
+            var event = events.getFirst();
+            assertEquals("NUMPY_COPY", event.getString("stage"));
+            assertEquals("ALE/Pong-v5", event.getString("envName"));
+            assertEquals(100_800, event.getLong("bytes"));
+            assertEquals("reset", event.getString("target"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
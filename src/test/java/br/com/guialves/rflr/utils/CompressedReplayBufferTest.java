@@ -0,0 +1,128 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.types.DataType;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.random.RandomGenerator;
+
+import static java.lang.foreign.ValueLayout.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedReplayBufferTest {
+
+    private static final EnvStateMetadata FRAMES = EnvStateMetadata.of(DataType.UINT8, 4, 84, 84);
+    private static final int FRAME_BYTES = 84 * 84;
+
+    /**
+     * Stack of frames {@code t .. t+3}, each a flat background with a moving bar, like Atari frames.
+     */
+    private static ByteBuffer stack(int t) {
+        var stack = ByteBuffer.allocateDirect(FRAMES.size());
+        for (int f = 0; f < 4; f++) {
+            int bar = (t + f) % 84;
+            for (int i = 0; i < FRAME_BYTES; i++) {
+                int column = i % 84;
+                stack.put(f * FRAME_BYTES + i, (byte) (column == bar ? 200 : 30));
+            }
+        }
+        return stack;
+    }
+
+    private static byte expected(int t, int offset) {
+        int f = offset / FRAME_BYTES;
+        int column = (offset % FRAME_BYTES) % 84;
+        return (byte) (column == (t + f) % 84 ? 200 : 30);
+    }
+
+    private static ByteBuffer noise(RandomGenerator random) {
+        var noise = ByteBuffer.allocateDirect(FRAMES.size());
+        for (int i = 0; i < FRAMES.size(); i++) {
+            noise.put(i, (byte) random.nextInt(256));
+        }
+        return noise;
+    }
+
+    @ParameterizedTest
+    @EnumSource(FrameCodec.class)
+    void shouldDecompressSampledRowsExactly(FrameCodec codec) {
+        try (var buffer = new CompressedReplayBuffer(16, FRAMES, codec, 2, RandomGenerator.of("L64X128MixRandom"))) {
+            for (int t = 0; t < 20; t++) {
+                buffer.add(stack(t), t, t * 0.5f, stack(t + 1), t % 5 == 0);
+            }
+            buffer.awaitCompression();
+
+            int[] indices = {0, 3, 15};
+            var dst = new ReplayBatchBuffers(FRAMES, indices.length, false);
+            buffer.gatherInto(indices, dst);
+
+            for (int row = 0; row < indices.length; row++) {
+                // slots 0..3 were overwritten by transitions 16..19
+                int t = indices[row] < 4 ? indices[row] + 16 : indices[row];
+                assertEquals(t, dst.actionsSegment.getAtIndex(JAVA_LONG, row));
+                assertEquals(t * 0.5f, dst.rewardsSegment.getAtIndex(JAVA_FLOAT, row));
+                assertEquals(t % 5 == 0 ? 1 : 0, dst.donesSegment.get(JAVA_BYTE, row));
+
+                long offset = (long) row * FRAMES.size();
+                for (int b = 0; b < FRAMES.size(); b++) {
+                    assertEquals(expected(t, b), dst.statesSegment.get(JAVA_BYTE, offset + b));
+                    assertEquals(expected(t + 1, b), dst.nextStatesSegment.get(JAVA_BYTE, offset + b));
+                }
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(FrameCodec.class)
+    void shouldReportCompressionMetrics(FrameCodec codec) {
+        try (var buffer = new CompressedReplayBuffer(8, FRAMES, codec)) {
+            long raw = ReplayBuffer.memoryBytes(8, FRAMES);
+            for (int t = 0; t < 8; t++) {
+                buffer.add(stack(t), t, 0f, stack(t + 1), false);
+            }
+            buffer.awaitCompression();
+            buffer.gatherInto(new int[]{1, 2}, new ReplayBatchBuffers(FRAMES, 2, false));
+
+            var metrics = buffer.metrics();
+            assertEquals(8, metrics.compressedRows());
+            assertEquals(2, metrics.decompressedRows());
+            assertTrue(metrics.compressionRatio() > 4, "ratio " + metrics.compressionRatio());
+            assertTrue(metrics.meanCompressMicros() > 0);
+            assertTrue(buffer.memoryBytes() < raw / 4);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(FrameCodec.class)
+    void shouldCountIncompressibleRowsInTheRatio(FrameCodec codec) {
+        var random = RandomGenerator.of("L64X128MixRandom");
+        try (var buffer = new CompressedReplayBuffer(8, FRAMES, codec, 2, random)) {
+            for (int t = 0; t < 4; t++) {
+                buffer.add(stack(t), t, 0f, stack(t + 1), false);
+                buffer.add(noise(random), t, 0f, noise(random), false);
+            }
+            buffer.awaitCompression();
+
+            var metrics = buffer.metrics();
+            assertEquals(4, metrics.compressedRows());
+            assertEquals(4, metrics.incompressibleRows());
+            assertEquals(8L * 2 * FRAMES.size(), metrics.rawBytes());
+            assertTrue(metrics.compressionRatio() < 2, "ratio " + metrics.compressionRatio());
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(FrameCodec.class)
+    void shouldNotWaitForTheRowsDroppedByClose(FrameCodec codec) {
+        var buffer = new CompressedReplayBuffer(256, FRAMES, codec, 1, RandomGenerator.of("L64X128MixRandom"));
+        for (int t = 0; t < 256; t++) {
+            buffer.add(stack(t), t, 0f, stack(t + 1), false);
+        }
+        buffer.close();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), buffer::awaitCompression);
+    }
+}
@@ -0,0 +1,85 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.types.DataType;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Insert throughput of {@link ConcurrentReplayBuffer} against a {@code synchronized}
+ * {@link ReplayBuffer}, from 1 to 16 producer threads, with 84x84 uint8 frames.
+ * <p>
+ * Run with exec:exec, a plain java launch whose classpath and flags the JMH fork reuses:
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=br.com.guialves.rflr.utils.ConcurrentReplayBufferBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+public class ConcurrentReplayBufferBenchmark {
+
+    private static final EnvStateMetadata FRAME = EnvStateMetadata.of(DataType.UINT8, 84, 84);
+    private static final int CAPACITY = 1 << 14;
+
+    @State(Scope.Benchmark)
+    public static class Buffers {
+        ConcurrentReplayBuffer concurrent;
+        ReplayBuffer synchronizedBuffer;
+
+        @Setup
+        public void setUp() {
+            concurrent = new ConcurrentReplayBuffer(CAPACITY, FRAME);
+            synchronizedBuffer = new ReplayBuffer(CAPACITY, FRAME);
+        }
+
+        @TearDown
+        public void tearDown() {
+            concurrent.close();
+            synchronizedBuffer.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Actor {
+        ByteBuffer state;
+        ByteBuffer nextState;
+        long action;
+
+        @Setup
+        public void setUp() {
+            state = ByteBuffer.allocateDirect(FRAME.size());
+            nextState = ByteBuffer.allocateDirect(FRAME.size());
+        }
+    }
+
+    @Benchmark
+    public int concurrentAdd(Buffers buffers, Actor actor) {
+        return buffers.concurrent.add(actor.state, actor.action++, 1f, actor.nextState, false);
+    }
+
+    @Benchmark
+    public int synchronizedAdd(Buffers buffers, Actor actor) {
+        synchronized (buffers.synchronizedBuffer) {
+            return buffers.synchronizedBuffer.add(actor.state, actor.action++, 1f, actor.nextState, false);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 2, 4, 8, 16}) {
+            var options = new OptionsBuilder()
+                    .include(ConcurrentReplayBufferBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.types.DataType;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.random.RandomGenerator;
+
+import static java.lang.foreign.ValueLayout.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentReplayBufferTest {
+
+    private static final EnvStateMetadata FRAME = EnvStateMetadata.of(DataType.UINT8, 84, 84);
+
+    private static ByteBuffer frame(long value) {
+        var frame = ByteBuffer.allocate(FRAME.size());
+        for (int i = 0; i < frame.capacity(); i++) {
+            frame.put(i, (byte) value);
+        }
+        return frame;
+    }
+
+    @Test
+    void shouldWrapAroundLikeTheSingleProducerBuffer() {
+        try (var buffer = new ConcurrentReplayBuffer(4, FRAME)) {
+            for (int i = 0; i < 6; i++) {
+                assertEquals(i % 4, buffer.add(frame(i), i, i, frame(i + 1), false));
+            }
+            assertEquals(4, buffer.size());
+            assertEquals(6, buffer.inserted());
+
+            var dst = new ReplayBatchBuffers(FRAME, 4, false);
+            buffer.gatherInto(new int[]{0, 1, 2, 3}, dst);
+            assertEquals(4, dst.actionsSegment.getAtIndex(JAVA_LONG, 0));
+            assertEquals(5, dst.actionsSegment.getAtIndex(JAVA_LONG, 1));
+            assertEquals(2, dst.actionsSegment.getAtIndex(JAVA_LONG, 2));
+            assertEquals((byte) 6, dst.nextStatesSegment.get(JAVA_BYTE, (long) 2 * FRAME.size() - 1));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldNeverGatherTornTransitions() {
+        int producers = 8;
+        int insertsPerProducer = 2_000;
+
+        try (var buffer = new ConcurrentReplayBuffer(64, FRAME, RandomGenerator.of("L64X128MixRandom"));
+             var executor = Executors.newFixedThreadPool(producers)) {
+            var start = new CountDownLatch(1);
+            var futures = new ArrayList<Future<?>>();
+
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < insertsPerProducer; i++) {
+                        long value = (long) producer * insertsPerProducer + i;
+                        buffer.add(frame(value), value, value, frame(value + 1), value % 2 == 0);
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            var dst = new ReplayBatchBuffers(FRAME, 16, false);
+            while (buffer.inserted() < (long) producers * insertsPerProducer) {
+                if (buffer.size() == 0) continue;
+
+                buffer.gatherInto(buffer.sampleIndices(16), dst);
+                for (int row = 0; row < 16; row++) {
+                    long action = dst.actionsSegment.getAtIndex(JAVA_LONG, row);
+                    assertEquals((float) action, dst.rewardsSegment.getAtIndex(JAVA_FLOAT, row));
+                    assertEquals(action % 2 == 0 ? 1 : 0, dst.donesSegment.get(JAVA_BYTE, row));
+
+                    long offset = (long) row * FRAME.size();
+                    for (int b = 0; b < FRAME.size(); b += 97) {
+                        assertEquals((byte) action, dst.statesSegment.get(JAVA_BYTE, offset + b));
+                        assertEquals((byte) (action + 1), dst.nextStatesSegment.get(JAVA_BYTE, offset + b));
+                    }
+                }
+            }
+
+            for (var future : futures) {
+                future.get();
+            }
+            assertEquals(64, buffer.size());
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package br.com.guialves.rflr.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static br.com.guialves.rflr.python.PythonRuntime.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FastStartupTest {
+
+    private static boolean imported(String module) {
+        var result = eval("name in __import__('sys').modules", Map.of("name", module));
+        try {
+            return toBool(result);
+        } finally {
+            decRef(result);
+        }
+    }
+
+    @Test
+    void shouldPreImportModulesAndKeepTheGil() {
+        FastStartup.warmUp(List.of("json", "fractions"));
+
+        assertTrue(imported("json"));
+        assertTrue(imported("fractions"));
+        assertDoesNotThrow(() -> exec("startup_var = 1"));
+    }
+
+    @Test
+    void shouldOnlyLogFailedImports() {
+        assertDoesNotThrow(() -> FastStartup.warmUp(List.of("module_that_does_not_exist")));
+
+        assertFalse(imported("module_that_does_not_exist"));
+        assertDoesNotThrow(() -> exec("startup_var = 2"));
+    }
+}
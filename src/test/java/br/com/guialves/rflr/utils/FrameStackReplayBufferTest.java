@@ -0,0 +1,156 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.random.RandomGenerator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameStackReplayBufferTest {
+
+    private static final int STACK = 4;
+    private static final int SIZE = 84;
+    private static final int FRAME_BYTES = SIZE * SIZE;
+    private static final EnvStateMetadata FRAMES = EnvStateMetadata.of(DataType.UINT8, STACK, SIZE, SIZE);
+
+    private NDManager manager;
+
+    @BeforeEach
+    void setUp() {
+        manager = NDManager.newBaseManager();
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.close();
+    }
+
+    /**
+     * Every frame is filled with its own id, so a stack is identified by its first byte of each frame.
+     */
+    private static ByteBuffer stack(int... frameIds) {
+        var stack = ByteBuffer.allocate(FRAMES.size());
+        for (int j = 0; j < frameIds.length; j++) {
+            for (int b = 0; b < FRAME_BYTES; b++) {
+                stack.put(j * FRAME_BYTES + b, (byte) frameIds[j]);
+            }
+        }
+        return stack;
+    }
+
+    private static int[] frameIds(byte[] batch, int row) {
+        int[] ids = new int[STACK];
+        for (int j = 0; j < STACK; j++) {
+            ids[j] = batch[(row * STACK + j) * FRAME_BYTES];
+        }
+        return ids;
+    }
+
+    private static FrameStackReplayBuffer newBuffer(int capacity, long frameCapacity) {
+        return new FrameStackReplayBuffer(capacity, FRAMES, frameCapacity, RandomGenerator.of("L64X128MixRandom"));
+    }
+
+    @Test
+    void shouldStoreOneFramePerSlidingWindowStep() {
+        try (var buffer = newBuffer(16, 64)) {
+            buffer.add(stack(1, 1, 1, 1), 0, 0, stack(1, 1, 1, 2), false);
+            buffer.add(stack(1, 1, 1, 2), 1, 0, stack(1, 1, 2, 3), false);
+            buffer.add(stack(1, 1, 2, 3), 2, 1, stack(1, 2, 3, 4), true);
+
+            // 4 frames of the first state, then one new frame per transition
+            try (var batch = buffer.gather(new int[]{0, 1, 2}, manager)) {
+                assertEquals(new Shape(3, STACK, SIZE, SIZE), batch.states().getShape());
+                byte[] states = batch.states().toByteArray();
+                byte[] nextStates = batch.nextStates().toByteArray();
+
+                assertArrayEquals(new int[]{1, 1, 1, 1}, frameIds(states, 0));
+                assertArrayEquals(new int[]{1, 1, 1, 2}, frameIds(nextStates, 0));
+                assertArrayEquals(new int[]{1, 1, 2, 3}, frameIds(states, 2));
+                assertArrayEquals(new int[]{1, 2, 3, 4}, frameIds(nextStates, 2));
+                assertArrayEquals(new long[]{0, 1, 2}, batch.actions().toLongArray());
+                assertArrayEquals(new boolean[]{false, false, true}, batch.dones().toBooleanArray());
+            }
+        }
+    }
+
+    @Test
+    void shouldStartNewStackOnEpisodeBoundary() {
+        try (var buffer = newBuffer(16, 64)) {
+            buffer.add(stack(1, 1, 1, 1), 0, 0, stack(1, 1, 1, 2), false);
+            // truncated episode: the next state isn't the last stored one
+            buffer.add(stack(9, 9, 9, 9), 1, 0, stack(9, 9, 9, 8), false);
+
+            try (var batch = buffer.gather(new int[]{1}, manager)) {
+                assertArrayEquals(new int[]{9, 9, 9, 9}, frameIds(batch.states().toByteArray(), 0));
+                assertArrayEquals(new int[]{9, 9, 9, 8}, frameIds(batch.nextStates().toByteArray(), 0));
+            }
+        }
+    }
+
+    @Test
+    void shouldStoreFullStackWhenFramesDoNotOverlap() {
+        try (var buffer = newBuffer(16, 64)) {
+            buffer.add(stack(1, 2, 3, 4), 0, 0, stack(5, 6, 7, 8), false);
+            buffer.add(stack(5, 6, 7, 8), 0, 0, stack(9, 10, 11, 12), false);
+
+            try (var batch = buffer.gather(new int[]{0, 1}, manager)) {
+                byte[] nextStates = batch.nextStates().toByteArray();
+                assertArrayEquals(new int[]{5, 6, 7, 8}, frameIds(nextStates, 0));
+                assertArrayEquals(new int[]{9, 10, 11, 12}, frameIds(nextStates, 1));
+            }
+        }
+    }
+
+    @Test
+    void shouldEvictTransitionsWhoseFramesWereOverwritten() {
+        try (var buffer = newBuffer(16, 8)) {
+            buffer.add(stack(1, 1, 1, 1), 0, 0, stack(1, 1, 1, 2), false);
+            for (int i = 2; i < 10; i++) {
+                buffer.add(stack(i - 3, i - 2, i - 1, i), i, 0, stack(i - 2, i - 1, i, i + 1), false);
+            }
+
+            // 4 + 1 + 8 * (4 + 1) frames pushed, only the last 8 survive
+            assertThat(buffer.size()).isLessThan(9);
+            assertFalse(buffer.contains(0));
+
+            int[] indices = buffer.sampleIndices(32);
+            assertThat(indices).allMatch(buffer::contains);
+            try (var batch = buffer.gather(indices, manager)) {
+                assertEquals(32, batch.size());
+            }
+        }
+    }
+
+    @Test
+    void shouldUseMuchLessMemoryThanColumnarStates() {
+        int capacity = 10_000;
+        long frameStack = FrameStackReplayBuffer.memoryBytes(capacity, FRAMES,
+                FrameStackReplayBuffer.defaultFrameCapacity(capacity, FRAMES));
+        long columnar = ReplayBuffer.memoryBytes(capacity, FRAMES);
+
+        assertThat((double) columnar / frameStack).isGreaterThan(7.5);
+    }
+
+    @Test
+    void shouldWrapTheTransitionRing() {
+        try (var buffer = newBuffer(4, 64)) {
+            buffer.add(stack(1, 1, 1, 1), 0, 0, stack(1, 1, 1, 2), false);
+            for (int i = 2; i < 8; i++) {
+                buffer.add(stack(i - 3, i - 2, i - 1, i), i - 1, 0, stack(i - 2, i - 1, i, i + 1), false);
+            }
+
+            assertEquals(4, buffer.size());
+            try (var batch = buffer.sample(64, manager)) {
+                assertThat(batch.actions().toLongArray()).allMatch(action -> action >= 3);
+            }
+        }
+    }
+}
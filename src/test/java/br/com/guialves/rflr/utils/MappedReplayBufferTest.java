@@ -0,0 +1,167 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.random.RandomGenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedReplayBufferTest {
+
+    private static final EnvStateMetadata FRAMES = EnvStateMetadata.of(DataType.UINT8, 4, 84, 84);
+
+    @TempDir
+    Path directory;
+
+    private NDManager manager;
+
+    @BeforeEach
+    void setUp() {
+        manager = NDManager.newBaseManager();
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.close();
+    }
+
+    private MappedReplayBuffer open(int capacity, long segmentBytes) {
+        return new MappedReplayBuffer(directory, capacity, FRAMES, segmentBytes, 0,
+                RandomGenerator.of("L64X128MixRandom"));
+    }
+
+    private static ByteBuffer frame(int value) {
+        var frame = ByteBuffer.allocate(FRAMES.size());
+        for (int i = 0; i < frame.capacity(); i++) {
+            frame.put(i, (byte) value);
+        }
+        return frame;
+    }
+
+    private static void add(IReplayBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            buffer.add(frame(i), i, i * 0.5f, frame(i + 1), i % 2 == 0);
+        }
+    }
+
+    @Test
+    void shouldReopenCommittedBuffer() {
+        try (var buffer = open(16, MappedReplayBuffer.DEFAULT_SEGMENT_BYTES)) {
+            add(buffer, 0, 5);
+        }
+
+        try (var buffer = open(16, MappedReplayBuffer.DEFAULT_SEGMENT_BYTES)) {
+            assertEquals(5, buffer.size());
+            add(buffer, 5, 6);
+
+            try (var batch = buffer.gather(new int[]{4, 5}, manager)) {
+                assertArrayEquals(new long[]{4, 5}, batch.actions().toLongArray());
+                assertArrayEquals(new float[]{2f, 2.5f}, batch.rewards().toFloatArray());
+                assertArrayEquals(new boolean[]{true, false}, batch.dones().toBooleanArray());
+                assertEquals((byte) 4, batch.states().toByteArray()[0]);
+                assertEquals((byte) 6, batch.nextStates().toByteArray()[FRAMES.size()]);
+            }
+        }
+    }
+
+    @Test
+    void shouldRecoverRecordsWrittenAfterLastCommit() {
+        // simulates a crash: the first instance is abandoned without commit or close
+        var crashed = open(16, MappedReplayBuffer.DEFAULT_SEGMENT_BYTES);
+        add(crashed, 0, 3);
+        crashed.commit();
+        add(crashed, 3, 5);
+
+        try (var buffer = open(16, MappedReplayBuffer.DEFAULT_SEGMENT_BYTES)) {
+            assertEquals(5, buffer.size());
+            try (var batch = buffer.gather(new int[]{3, 4}, manager)) {
+                assertArrayEquals(new long[]{3, 4}, batch.actions().toLongArray());
+            }
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldNotRecoverARecordTornByACrash() {
+        var crashed = open(16, MappedReplayBuffer.DEFAULT_SEGMENT_BYTES);
+        add(crashed, 0, 3);
+        crashed.commit();
+        add(crashed, 3, 6);
+
+        // the stamp of record 4 reached the disk, the last page of its next state didn't
+        int recordBytes = MappedReplayBuffer.recordBytes(FRAMES);
+        try (var channel = FileChannel.open(crashed.segmentPath(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), 5L * recordBytes - 16);
+        }
+
+        try (var buffer = open(16, MappedReplayBuffer.DEFAULT_SEGMENT_BYTES)) {
+            assertEquals(4, buffer.size());
+            try (var batch = buffer.gather(new int[]{3}, manager)) {
+                assertArrayEquals(new long[]{3}, batch.actions().toLongArray());
+            }
+        }
+    }
+
+    @Test
+    void shouldRollOverSegmentsAndWrapAround() {
+        int recordBytes = MappedReplayBuffer.recordBytes(FRAMES);
+        try (var buffer = open(5, 2L * recordBytes)) {
+            assertEquals(2, buffer.recordsPerSegment());
+            add(buffer, 0, 7);
+
+            assertEquals(5, buffer.size());
+            assertTrue(Files.exists(buffer.segmentPath(0)));
+            assertTrue(Files.exists(buffer.segmentPath(1)));
+            assertTrue(Files.exists(buffer.segmentPath(2)));
+
+            // slots 0 and 1 were overwritten by transitions 5 and 6
+            try (var batch = buffer.gather(new int[]{0, 1, 2, 4}, manager)) {
+                assertArrayEquals(new long[]{5, 6, 2, 4}, batch.actions().toLongArray());
+            }
+        }
+
+        try (var buffer = open(5, 2L * recordBytes)) {
+            assertEquals(5, buffer.size());
+            try (var batch = buffer.sample(32, manager)) {
+                for (long action : batch.actions().toLongArray()) {
+                    assertTrue(action >= 2 && action <= 6);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldRejectIncompatibleReopen() {
+        open(16, MappedReplayBuffer.DEFAULT_SEGMENT_BYTES).close();
+
+        var other = EnvStateMetadata.of(DataType.UINT8, 4, 42, 168);
+        assertThrows(IllegalStateException.class, () -> new MappedReplayBuffer(directory, 16, other));
+        assertThrows(IllegalStateException.class, () -> open(32, MappedReplayBuffer.DEFAULT_SEGMENT_BYTES));
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldRejectCorruptedHeader() {
+        open(16, MappedReplayBuffer.DEFAULT_SEGMENT_BYTES).close();
+
+        var header = directory.resolve(MappedReplayBuffer.HEADER_FILE);
+        byte[] bytes = Files.readAllBytes(header);
+        // flip a bit of the stored ring position, covered only by the checksum
+        bytes[bytes.length - 6] ^= 1;
+        Files.write(header, bytes);
+
+        assertThrows(IllegalStateException.class, () -> open(16, MappedReplayBuffer.DEFAULT_SEGMENT_BYTES));
+    }
+}
@@ -0,0 +1,117 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.types.DataType;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NStepAccumulatorTest {
+
+    private static final EnvStateMetadata STATE = EnvStateMetadata.of(DataType.FLOAT32, 1);
+
+    record Emitted(int env, float state, long action, float nStepReturn,
+                   float nextState, float discount, boolean done) {
+    }
+
+    private final List<Emitted> emitted = new ArrayList<>();
+
+    private final NStepAccumulator.Sink sink = (env, state, action, nStepReturn, nextState, discount, done) ->
+            emitted.add(new Emitted(env, state.getFloat(0), action, nStepReturn,
+                    nextState.getFloat(nextState.position()), discount, done));
+
+    private static ByteBuffer state(float value) {
+        return ByteBuffer.allocate(Float.BYTES).order(ByteOrder.nativeOrder()).putFloat(0, value);
+    }
+
+    private static void step(NStepAccumulator acc, int env, int t, float reward, boolean term, boolean trunc) {
+        acc.step(env, state(t), t, reward, state(t + 1), term, trunc);
+    }
+
+    @Test
+    void shouldEmitNStepReturnOnceTheRingIsFull() {
+        try (var acc = new NStepAccumulator(1, 3, 0.5, STATE, sink)) {
+            step(acc, 0, 0, 1, false, false);
+            step(acc, 0, 1, 2, false, false);
+            assertTrue(emitted.isEmpty());
+
+            step(acc, 0, 2, 3, false, false);
+            step(acc, 0, 3, 4, false, false);
+
+            assertEquals(List.of(
+                    new Emitted(0, 0, 0, 1 + 0.5f * 2 + 0.25f * 3, 3, 0.125f, false),
+                    new Emitted(0, 1, 1, 2 + 0.5f * 3 + 0.25f * 4, 4, 0.125f, false)
+            ), emitted);
+            assertEquals(2, acc.pending(0));
+        }
+    }
+
+    @Test
+    void shouldFlushAsDoneOnTermination() {
+        try (var acc = new NStepAccumulator(1, 3, 0.5, STATE, sink)) {
+            step(acc, 0, 0, 1, false, false);
+            step(acc, 0, 1, 2, true, false);
+
+            assertEquals(List.of(
+                    new Emitted(0, 0, 0, 2, 2, 0.25f, true),
+                    new Emitted(0, 1, 1, 2, 2, 0.5f, true)
+            ), emitted);
+            assertEquals(0, acc.pending(0));
+        }
+    }
+
+    @Test
+    void shouldFlushWithShorterDiscountOnTruncation() {
+        try (var acc = new NStepAccumulator(1, 3, 0.5, STATE, sink)) {
+            step(acc, 0, 0, 1, false, false);
+            step(acc, 0, 1, 2, false, true);
+
+            assertEquals(List.of(
+                    new Emitted(0, 0, 0, 2, 2, 0.25f, false),
+                    new Emitted(0, 1, 1, 2, 2, 0.5f, false)
+            ), emitted);
+
+            // new episode starts from an empty ring
+            step(acc, 0, 10, 1, false, false);
+            assertEquals(1, acc.pending(0));
+        }
+    }
+
+    @Test
+    void shouldKeepEnvsIndependent() {
+        try (var acc = new NStepAccumulator(2, 2, 1.0, STATE, sink)) {
+            step(acc, 0, 0, 1, false, false);
+            step(acc, 1, 100, 10, false, false);
+            step(acc, 1, 101, 20, false, false);
+            step(acc, 0, 1, 2, false, false);
+
+            assertEquals(List.of(
+                    new Emitted(1, 100, 100, 30, 102, 1f, false),
+                    new Emitted(0, 0, 0, 3, 2, 1f, false)
+            ), emitted);
+        }
+    }
+
+    @Test
+    void shouldDropTruncatedPartialsWhenFeedingReplay() {
+        try (var replay = new ReplayBuffer(8, STATE);
+             var acc = new NStepAccumulator(1, 3, 0.9, replay)) {
+            step(acc, 0, 0, 1, false, false);
+            step(acc, 0, 1, 1, false, false);
+            step(acc, 0, 2, 1, false, false);
+            assertEquals(1, replay.size());
+
+            step(acc, 0, 3, 1, false, true);
+            // the full return of t=1 is kept, the partial ones of t=2 and t=3 are dropped
+            assertEquals(2, replay.size());
+
+            step(acc, 0, 0, 1, true, false);
+            assertEquals(3, replay.size());
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package br.com.guialves.rflr.utils;
 
+import ai.djl.modality.cv.Image;
 import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDManager;
 import ai.djl.ndarray.types.DataType;
@@ -12,12 +13,17 @@ import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 @Slf4j
 class PreProcessingWrapperTest {
@@ -105,6 +111,102 @@ class PreProcessingWrapperTest {
         nextState.close();
     }
 
+    @Test
+    void shouldSlideTheFrameWindowWithOneRepeatPerStep() {
+        var spyEnv = Mockito.spy(env);
+        var sliding = new PreProcessingWrapper(spyEnv, SKIP_FRAMES, RESIZE_SIZE, CONCATENATE_FRAMES,
+                Image.Interpolation.BILINEAR, true);
+
+        var previous = sliding.reset().getKey();
+        var action = env.actionSpaceSample();
+        for (int i = 0; i < 3; i++) {
+            try (var stepResult = sliding.step(action)) {
+                var state = stepResult.state();
+                assertEquals(new Shape(CONCATENATE_FRAMES, RESIZE_SIZE, RESIZE_SIZE), state.getShape());
+
+                // the window moved by a single frame
+                try (var kept = previous.get("1:");
+                     var head = state.get(":-1")) {
+                    assertEquals(kept, head);
+                }
+                previous.close();
+                previous = state.duplicate();
+            }
+        }
+        previous.close();
+
+        verify(spyEnv, times(3)).repeatStep(any(), eq(SKIP_FRAMES), eq(false), any());
+    }
+
+    @Test
+    void shouldPreprocessTheResetFrameLikeDjlWithTheVectorBackend() {
+        var vector = new PreProcessingWrapper(env, SKIP_FRAMES, RESIZE_SIZE, CONCATENATE_FRAMES,
+                Image.Interpolation.BILINEAR, false, PreProcessingWrapper.Backend.VECTOR);
+
+        // Pong always resets to the same screen
+        try (var expected = wrapper.reset().getKey();
+             var actual = vector.reset().getKey()) {
+            assertEquals(expected.getShape(), actual.getShape());
+
+            byte[] expectedBytes = expected.toByteArray();
+            byte[] actualBytes = actual.toByteArray();
+            for (int i = 0; i < expectedBytes.length; i++) {
+                int diff = Math.abs(Byte.toUnsignedInt(expectedBytes[i]) - Byte.toUnsignedInt(actualBytes[i]));
+                assertTrue(diff <= 2, "pixel " + i + " differs by " + diff);
+            }
+        }
+
+        try (var stepResult = vector.step(env.actionSpaceSample())) {
+            assertEquals(new Shape(CONCATENATE_FRAMES, RESIZE_SIZE, RESIZE_SIZE), stepResult.state().getShape());
+        }
+    }
+
+    @Test
+    void shouldPreprocessStraightFromTheNumPyObservationWithOpenCv() {
+        var opencv = new PreProcessingWrapper(env, SKIP_FRAMES, RESIZE_SIZE, CONCATENATE_FRAMES,
+                Image.Interpolation.AREA, false, PreProcessingWrapper.Backend.OPENCV);
+        var expectedShape = new Shape(CONCATENATE_FRAMES, RESIZE_SIZE, RESIZE_SIZE);
+
+        try (var state = opencv.reset().getKey()) {
+            assertEquals(expectedShape, state.getShape());
+            assertEquals(DataType.UINT8, state.getDataType());
+            try (var first = state.get(0); var last = state.get(CONCATENATE_FRAMES - 1)) {
+                assertEquals(first, last);
+                assertTrue(first.toType(DataType.FLOAT32, false).max().getFloat() > 0);
+            }
+        }
+
+        try (var first = opencv.step(env.actionSpaceSample());
+             var second = opencv.step(env.actionSpaceSample())) {
+            assertEquals(expectedShape, first.state().getShape());
+            // the stack is copied out of the reused ring
+            assertNotSame(first.state(), second.state());
+            assertFalse(first.state().isReleased());
+        }
+
+        var sliding = new PreProcessingWrapper(env, SKIP_FRAMES, RESIZE_SIZE, CONCATENATE_FRAMES,
+                Image.Interpolation.AREA, true, PreProcessingWrapper.Backend.OPENCV);
+        try (var state = sliding.reset().getKey();
+             var stepResult = sliding.step(env.actionSpaceSample());
+             var previous = state.get("1:");
+             var overlap = stepResult.state().get(":3")) {
+            assertEquals(previous, overlap);
+        }
+
+        // frees the OpenCV buffers, then the env
+        sliding.close();
+        assertTrue(env.closed());
+        // the env is shared, only the buffers are left to free
+        opencv.close();
+    }
+
+    @Test
+    void shouldRejectOpenCvWithoutAGymEnv() {
+        var wrapped = new PreProcessingWrapper(env, SKIP_FRAMES, RESIZE_SIZE, CONCATENATE_FRAMES);
+        assertThrows(IllegalArgumentException.class, () -> new PreProcessingWrapper(wrapped, SKIP_FRAMES,
+                RESIZE_SIZE, CONCATENATE_FRAMES, Image.Interpolation.AREA, false, PreProcessingWrapper.Backend.OPENCV));
+    }
+
     @Test
     void shouldAccumulateRewardsFromSkipFrames() {
         wrapper.reset();
@@ -0,0 +1,153 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+import static br.com.guialves.rflr.utils.PrioritizedReplayBuffer.PriorityUpdateMode.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrioritizedReplayBufferTest {
+
+    private static final int CAPACITY = 16;
+    private static final EnvStateMetadata STATE = EnvStateMetadata.of(DataType.FLOAT32, 4);
+
+    private NDManager manager;
+
+    @BeforeEach
+    void setUp() {
+        manager = NDManager.newBaseManager();
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.close();
+    }
+
+    private static PrioritizedReplayBuffer newBuffer(PrioritizedReplayBuffer.PriorityUpdateMode mode) {
+        var random = RandomGenerator.of("L64X128MixRandom");
+        var buffer = new ReplayBuffer(CAPACITY, STATE, random);
+        return new PrioritizedReplayBuffer(buffer, 1.0, 0.4, 1e-6, mode, random);
+    }
+
+    private static void fill(IReplayBuffer buffer, int transitions) {
+        var state = ByteBuffer.allocate(STATE.size());
+        for (int i = 0; i < transitions; i++) {
+            buffer.add(state.clear(), i, 0, state.clear(), false);
+        }
+    }
+
+    @Test
+    void shouldInsertWithMaxPriority() {
+        try (var buffer = newBuffer(IMMEDIATE)) {
+            fill(buffer, 3);
+            buffer.updatePriorities(new int[]{0}, new float[]{5f});
+            fill(buffer, 1);
+
+            assertEquals(5.0, buffer.priority(3), 1e-5);
+            assertEquals(1.0, buffer.priority(1), 1e-5);
+        }
+    }
+
+    @Test
+    void shouldSampleProportionallyToPriority() {
+        try (var buffer = newBuffer(IMMEDIATE)) {
+            fill(buffer, 4);
+            buffer.updatePriorities(new int[]{0, 1, 2, 3}, new float[]{0f, 0f, 0f, 100f});
+
+            int[] indices = buffer.sampleIndices(256);
+            long hits = Arrays.stream(indices).filter(i -> i == 3).count();
+
+            assertThat(hits).isGreaterThan(250);
+        }
+    }
+
+    @Test
+    void shouldComputeNormalizedImportanceWeights() {
+        try (var buffer = newBuffer(IMMEDIATE)) {
+            fill(buffer, 2);
+            buffer.updatePriorities(new int[]{0, 1}, new float[]{1f, 3f});
+
+            try (var batch = buffer.sample(64, 1.0, manager)) {
+                assertNotNull(batch.weights());
+                float[] weights = batch.weights().toFloatArray();
+                int[] indices = batch.indices();
+
+                for (int i = 0; i < weights.length; i++) {
+                    // (N * P(i))^-1 normalized by the weight of the lowest priority
+                    float expected = indices[i] == 0 ? 1f : 1f / 3f;
+                    assertEquals(expected, weights[i], 1e-4);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldApplyBatchedUpdatesOnlyOnSample() {
+        try (var buffer = newBuffer(BATCHED)) {
+            fill(buffer, 4);
+            buffer.updatePriorities(new int[]{2}, new float[]{7f});
+
+            assertEquals(1.0, buffer.priority(2), 1e-5);
+
+            buffer.sampleIndices(1);
+            assertEquals(7.0, buffer.priority(2), 1e-5);
+
+            buffer.updatePriorities(new int[]{1}, new float[]{9f});
+            buffer.flushPriorityUpdates();
+            assertEquals(9.0, buffer.priority(1), 1e-5);
+        }
+    }
+
+    @Test
+    void shouldRejectMismatchedUpdates() {
+        try (var buffer = newBuffer(IMMEDIATE)) {
+            fill(buffer, 2);
+            assertThrows(IllegalArgumentException.class,
+                    () -> buffer.updatePriorities(new int[]{0, 1}, new float[]{1f}));
+            assertThrows(IndexOutOfBoundsException.class,
+                    () -> buffer.updatePriorities(new int[]{CAPACITY}, new float[]{1f}));
+        }
+    }
+
+    @Test
+    void shouldSkipSlotsEvictedBetweenSampleAndUpdate() {
+        for (var mode : PrioritizedReplayBuffer.PriorityUpdateMode.values()) {
+            // two 4-byte frames per stack and room for only two stacks of frames
+            var frames = EnvStateMetadata.of(DataType.UINT8, 2, 4);
+            var random = RandomGenerator.of("L64X128MixRandom");
+            var storage = new FrameStackReplayBuffer(8, frames, 4, random);
+
+            try (var buffer = new PrioritizedReplayBuffer(storage, 1.0, 0.4, 1e-6, mode, random)) {
+                buffer.add(stack(1, 1), 0, 0, stack(1, 2), false);
+                int[] sampled = buffer.sampleIndices(1);
+                assertArrayEquals(new int[]{0}, sampled);
+
+                // a new episode overwrites the frames of the sampled transition
+                int slot = buffer.add(stack(5, 5), 1, 0, stack(5, 6), false);
+                assertFalse(buffer.contains(0));
+
+                assertDoesNotThrow(() -> buffer.updatePriorities(new int[]{0, slot}, new float[]{3f, 7f}));
+                assertArrayEquals(new int[]{slot}, buffer.sampleIndices(1));
+                assertEquals(7.0, buffer.priority(slot), 1e-5);
+            }
+        }
+    }
+
+    private static ByteBuffer stack(int first, int second) {
+        var stack = ByteBuffer.allocate(8);
+        for (int b = 0; b < 4; b++) {
+            stack.put(b, (byte) first);
+            stack.put(4 + b, (byte) second);
+        }
+        return stack;
+    }
+}
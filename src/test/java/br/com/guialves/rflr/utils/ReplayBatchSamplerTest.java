@@ -0,0 +1,106 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.util.random.RandomGenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplayBatchSamplerTest {
+
+    private static final EnvStateMetadata STATE = EnvStateMetadata.of(DataType.UINT8, 2, 3);
+
+    private NDManager manager;
+
+    @BeforeEach
+    void setUp() {
+        manager = NDManager.newBaseManager();
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.close();
+    }
+
+    private static ByteBuffer state(int value) {
+        var state = ByteBuffer.allocate(STATE.size());
+        for (int i = 0; i < state.capacity(); i++) {
+            state.put(i, (byte) value);
+        }
+        return state;
+    }
+
+    private static <T extends IReplayBuffer> T fill(T replay) {
+        for (int i = 0; i < replay.capacity(); i++) {
+            replay.add(state(i), i, i * 0.5f, state(i + 1), i % 3 == 0);
+        }
+        return replay;
+    }
+
+    private static ReplayBuffer filled(int transitions) {
+        return fill(new ReplayBuffer(transitions, STATE, RandomGenerator.of("L64X128MixRandom")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldKeepRowsConsistentAcrossReusedBuffers(boolean prefetch) {
+        try (var replay = filled(32);
+             var sampler = new ReplayBatchSampler(replay, 8, manager, prefetch)) {
+            for (int step = 0; step < 10; step++) {
+                try (var batch = sampler.next()) {
+                    long[] actions = batch.actions().toLongArray();
+                    float[] rewards = batch.rewards().toFloatArray();
+                    boolean[] dones = batch.dones().toBooleanArray();
+                    byte[] states = batch.states().toByteArray();
+                    byte[] nextStates = batch.nextStates().toByteArray();
+
+                    assertEquals(8, batch.size());
+                    for (int i = 0; i < 8; i++) {
+                        int slot = batch.indices()[i];
+                        assertEquals(slot, actions[i]);
+                        assertEquals(slot * 0.5f, rewards[i]);
+                        assertEquals(slot % 3 == 0, dones[i]);
+                        assertEquals((byte) slot, states[i * STATE.size()]);
+                        assertEquals((byte) (slot + 1), nextStates[(i + 1) * STATE.size() - 1]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldRequireThePreviousBatchToBeClosed() {
+        try (var replay = filled(4);
+             var sampler = new ReplayBatchSampler(replay, 2, manager, true)) {
+            var batch = sampler.next();
+            assertThrows(IllegalStateException.class, sampler::next);
+
+            batch.close();
+            sampler.next().close();
+        }
+    }
+
+    @Test
+    void shouldWriteWeightsOfPrioritizedReplay() {
+        try (var replay = fill(new PrioritizedReplayBuffer(new ReplayBuffer(16, STATE), 0.6, 0.4));
+             var sampler = new ReplayBatchSampler(replay, 4, manager, true)) {
+            for (int step = 0; step < 3; step++) {
+                try (var batch = sampler.next()) {
+                    assertNotNull(batch.weights());
+                    for (float weight : batch.weights().toFloatArray()) {
+                        assertTrue(weight > 0 && weight <= 1);
+                    }
+                    replay.updatePriorities(batch.indices(), new float[]{1, 2, 3, 4});
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.random.RandomGenerator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplayBufferTest {
+
+    private static final int CAPACITY = 8;
+    private static final EnvStateMetadata FRAMES = EnvStateMetadata.of(DataType.UINT8, 4, 84, 84);
+
+    private NDManager manager;
+    private ReplayBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        manager = NDManager.newBaseManager();
+        buffer = new ReplayBuffer(CAPACITY, FRAMES, RandomGenerator.of("L64X128MixRandom"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        buffer.close();
+        manager.close();
+    }
+
+    private static ByteBuffer frame(int value) {
+        var frame = ByteBuffer.allocate(FRAMES.size());
+        for (int i = 0; i < frame.capacity(); i++) {
+            frame.put(i, (byte) value);
+        }
+        return frame;
+    }
+
+    @Test
+    void shouldReportMemoryUpFront() {
+        long expected = CAPACITY * (2L * 4 * 84 * 84 + Long.BYTES + Float.BYTES + 1);
+        assertEquals(expected, buffer.memoryBytes());
+        assertEquals(expected, ReplayBuffer.memoryBytes(CAPACITY, FRAMES));
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void shouldWrapAroundWhenFull() {
+        for (int i = 0; i < CAPACITY + 3; i++) {
+            int slot = buffer.add(frame(i), i, i, frame(i + 1), false);
+            assertEquals(i % CAPACITY, slot);
+        }
+
+        assertEquals(CAPACITY, buffer.size());
+
+        try (var batch = buffer.gather(new int[]{0, 2, 3}, manager)) {
+            // slots 0..2 were overwritten by transitions 8..10
+            assertArrayEquals(new long[]{8, 10, 3}, batch.actions().toLongArray());
+        }
+    }
+
+    @Test
+    void shouldGatherColumnsKeepingTheStateDtype() {
+        buffer.add(frame(1), 2, 0.5f, frame(3), false);
+        buffer.add(frame(200), 1, -1f, frame(255), true);
+
+        try (var batch = buffer.gather(new int[]{1, 0}, manager)) {
+            assertEquals(new Shape(2, 4, 84, 84), batch.states().getShape());
+            assertEquals(DataType.UINT8, batch.states().getDataType());
+            assertEquals(DataType.UINT8, batch.nextStates().getDataType());
+
+            int frameSize = FRAMES.size();
+            byte[] states = batch.states().toByteArray();
+            byte[] nextStates = batch.nextStates().toByteArray();
+            assertEquals((byte) 200, states[0]);
+            assertEquals((byte) 255, nextStates[frameSize - 1]);
+            assertEquals((byte) 1, states[frameSize]);
+            assertEquals((byte) 3, nextStates[2 * frameSize - 1]);
+
+            assertArrayEquals(new long[]{1, 2}, batch.actions().toLongArray());
+            assertArrayEquals(new float[]{-1f, 0.5f}, batch.rewards().toFloatArray());
+            assertArrayEquals(new boolean[]{true, false}, batch.dones().toBooleanArray());
+        }
+    }
+
+    @Test
+    void shouldSampleOnlyStoredTransitions() {
+        for (int i = 0; i < 3; i++) {
+            buffer.add(frame(i), i, 0, frame(i), false);
+        }
+
+        int[] indices = buffer.sampleIndices(64);
+        assertThat(indices).hasSize(64).allMatch(i -> i >= 0 && i < 3);
+
+        try (var batch = buffer.sample(16, manager)) {
+            assertEquals(16, batch.size());
+            assertEquals(new Shape(16), batch.actions().getShape());
+        }
+    }
+
+    @Test
+    void shouldAddFromDirectBuffers() {
+        var state = ByteBuffer.allocateDirect(FRAMES.size()).put(0, (byte) 7);
+        var nextState = ByteBuffer.allocateDirect(FRAMES.size()).put(0, (byte) 9);
+
+        buffer.add(state, 0, 0, nextState, false);
+
+        try (var batch = buffer.gather(new int[]{0}, manager)) {
+            assertEquals((byte) 7, batch.states().toByteArray()[0]);
+            assertEquals((byte) 9, batch.nextStates().toByteArray()[0]);
+        }
+    }
+
+    @Test
+    void shouldRejectInvalidUsage() {
+        assertThrows(IllegalStateException.class, () -> buffer.sampleIndices(1));
+        assertThrows(IllegalArgumentException.class,
+                () -> buffer.add(ByteBuffer.allocate(3), 0, 0, frame(0), false));
+        assertThrows(IllegalArgumentException.class, () -> new ReplayBuffer(0, FRAMES));
+
+        buffer.add(frame(0), 0, 0, frame(0), false);
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.gather(new int[]{1}, manager));
+    }
+
+    @Test
+    void shouldSnapshotIncrementallyAndRestore(@TempDir Path directory) throws Exception {
+        long bytesPerTransition = ReplayBuffer.bytesPerTransition(FRAMES);
+        int chunkRows = (int) (ReplayBuffer.SNAPSHOT_CHUNK_BYTES / bytesPerTransition);
+
+        try (var large = new ReplayBuffer(4 * chunkRows, FRAMES)) {
+            for (int i = 0; i < 3 * chunkRows; i++) {
+                large.add(frame(i), i, i, frame(i + 1), i % 2 == 0);
+            }
+            assertEquals(3 * chunkRows * bytesPerTransition, large.snapshot(directory));
+
+            // only the stored rows of the chunks touched since are written again
+            large.add(frame(99), 99, 99, frame(100), true);
+            large.add(frame(98), 98, 98, frame(99), false);
+            assertEquals(2 * bytesPerTransition, large.snapshot(directory));
+            assertEquals(0, large.snapshot(directory));
+            large.add(frame(1), 1, 1, frame(1), false);
+        }
+
+        try (var restored = ReplayBuffer.restore(directory)) {
+            // the last insert happened after the last snapshot
+            assertEquals(3 * chunkRows + 2, restored.size());
+            assertEquals(4 * chunkRows, restored.capacity());
+            assertEquals(FRAMES.djlShape(), restored.stateMetadata().djlShape());
+            assertEquals(3 * chunkRows + 2, restored.add(frame(1), 1, 1, frame(1), false));
+
+            try (var batch = restored.gather(new int[]{5, 3 * chunkRows}, manager)) {
+                assertArrayEquals(new long[]{5, 99}, batch.actions().toLongArray());
+                assertArrayEquals(new boolean[]{false, true}, batch.dones().toBooleanArray());
+                assertEquals((byte) 5, batch.states().toByteArray()[0]);
+                assertEquals((byte) 100, batch.nextStates().toByteArray()[2 * FRAMES.size() - 1]);
+            }
+        }
+
+        var header = directory.resolve(ReplayBuffer.SNAPSHOT_HEADER_FILE);
+        byte[] bytes = Files.readAllBytes(header);
+        bytes[bytes.length - 5] ^= 1;
+        Files.write(header, bytes);
+        assertThrows(IllegalStateException.class, () -> ReplayBuffer.restore(directory));
+    }
+
+    @Test
+    void shouldKeepThePreviousSnapshotWhenCrashingBeforeTheHeader(@TempDir Path directory) throws Exception {
+        var crash = new AtomicBoolean();
+        try (var crashing = new ReplayBuffer(CAPACITY, FRAMES) {
+            @Override
+            void writeSnapshotHeader(Path directory, SnapshotChunk[] chunks) throws IOException {
+                if (crash.get()) {
+                    throw new IOException("crash between the segment and the header");
+                }
+                super.writeSnapshotHeader(directory, chunks);
+            }
+        }) {
+            for (int i = 0; i < CAPACITY; i++) {
+                crashing.add(frame(i), i, i, frame(i + 1), false);
+            }
+            crashing.snapshot(directory);
+
+            // overwrites slots 0..2, whose chunk is written before the crash
+            for (int i = CAPACITY; i < CAPACITY + 3; i++) {
+                crashing.add(frame(i), i, i, frame(i + 1), true);
+            }
+            crash.set(true);
+            assertThrows(IOException.class, () -> crashing.snapshot(directory));
+
+            try (var restored = ReplayBuffer.restore(directory);
+                 var batch = restored.gather(new int[]{0, 2, 7}, manager)) {
+                assertEquals(CAPACITY, restored.size());
+                assertArrayEquals(new long[]{0, 2, 7}, batch.actions().toLongArray());
+                assertArrayEquals(new boolean[]{false, false, false}, batch.dones().toBooleanArray());
+                assertEquals((byte) 0, batch.states().toByteArray()[0]);
+                assertEquals((byte) 1, batch.nextStates().toByteArray()[0]);
+            }
+
+            // the next snapshot still writes the chunks and drops the orphan segment
+            crash.set(false);
+            crashing.snapshot(directory);
+            try (var files = Files.list(directory)) {
+                assertThat(files.map(file -> file.getFileName().toString()))
+                        .containsExactlyInAnyOrder(ReplayBuffer.SNAPSHOT_HEADER_FILE, "segment-2.bin");
+            }
+            try (var restored = ReplayBuffer.restore(directory);
+                 var batch = restored.gather(new int[]{0, 2, 7}, manager)) {
+                assertArrayEquals(new long[]{8, 10, 7}, batch.actions().toLongArray());
+            }
+        }
+    }
+
+    @Test
+    void shouldRejectACorruptedChunk(@TempDir Path directory) throws Exception {
+        for (int i = 0; i < CAPACITY; i++) {
+            buffer.add(frame(i), i, i, frame(i + 1), false);
+        }
+        buffer.snapshot(directory);
+
+        var segment = directory.resolve("segment-0.bin");
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[FRAMES.size()] ^= 1;
+        Files.write(segment, bytes);
+        assertThrows(IllegalStateException.class, () -> ReplayBuffer.restore(directory));
+    }
+}
@@ -0,0 +1,54 @@
+package br.com.guialves.rflr.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentTreeTest {
+
+    @Test
+    void shouldRoundCapacityToPowerOfTwo() {
+        assertEquals(1, new SumSegmentTree(1).capacity());
+        assertEquals(8, new SumSegmentTree(5).capacity());
+        assertEquals(8, new MinSegmentTree(8).capacity());
+        assertThrows(IllegalArgumentException.class, () -> new SumSegmentTree(0));
+    }
+
+    @Test
+    void shouldKeepSumAndMinAfterUpdates() {
+        var sum = new SumSegmentTree(5);
+        var min = new MinSegmentTree(5);
+        double[] values = {3, 1, 4, 1.5, 9};
+
+        for (int i = 0; i < values.length; i++) {
+            sum.set(i, values[i]);
+            min.set(i, values[i]);
+        }
+
+        assertEquals(18.5, sum.sum(), 1e-9);
+        assertEquals(1, min.min(), 1e-9);
+
+        sum.set(1, 10);
+        min.set(1, 10);
+
+        assertEquals(27.5, sum.sum(), 1e-9);
+        assertEquals(1.5, min.min(), 1e-9);
+        assertEquals(10, sum.get(1), 1e-9);
+    }
+
+    @Test
+    void shouldFindPrefixSumIndex() {
+        var sum = new SumSegmentTree(4);
+        sum.set(0, 1);
+        sum.set(1, 0);
+        sum.set(2, 2);
+        sum.set(3, 3);
+
+        assertEquals(0, sum.findPrefixSumIndex(0));
+        assertEquals(0, sum.findPrefixSumIndex(0.99));
+        assertEquals(2, sum.findPrefixSumIndex(1));
+        assertEquals(2, sum.findPrefixSumIndex(2.99));
+        assertEquals(3, sum.findPrefixSumIndex(3));
+        assertEquals(3, sum.findPrefixSumIndex(5.99));
+    }
+}
@@ -0,0 +1,172 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import br.com.guialves.rflr.gymnasium4j.EnvStateMetadata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SequenceReplayBufferTest {
+
+    private static final EnvStateMetadata STATE = EnvStateMetadata.of(DataType.FLOAT32, 1);
+
+    private NDManager manager;
+
+    @BeforeEach
+    void setUp() {
+        manager = NDManager.newBaseManager();
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.close();
+    }
+
+    private static ByteBuffer state(float value) {
+        return ByteBuffer.allocate(Float.BYTES).order(ByteOrder.nativeOrder()).putFloat(0, value);
+    }
+
+    /**
+     * Episode whose observations are {@code first .. first + transitions}, terminated at the end.
+     */
+    private static void episode(SequenceReplayBuffer buffer, int first, int transitions) {
+        for (int t = first; t < first + transitions; t++) {
+            buffer.add(state(t), t, t * 0.5f, state(t + 1), t == first + transitions - 1, false);
+        }
+    }
+
+    private static SequenceReplayBuffer buffer(int capacity, double alpha) {
+        // windows of 2 burn-in + 3 trained steps, starting every 2 steps
+        return new SequenceReplayBuffer(capacity, STATE, 2, 3, 2, alpha, RandomGenerator.of("L64X128MixRandom"));
+    }
+
+    @Test
+    void shouldIndexOverlappingWindowsAndPadTheLastOnes() {
+        try (var buffer = buffer(64, 0.0)) {
+            episode(buffer, 0, 8);
+            // offsets 0 and 2 are full windows, 4 and 6 end with the episode
+            assertEquals(4, buffer.sequences());
+            assertEquals(1, buffer.episodes());
+
+            try (var batch = buffer.gather(new int[]{0, 2, 3}, new float[]{1, 1, 1}, manager)) {
+                assertEquals(new Shape(3, 6, 1), batch.states().getShape());
+                assertEquals(new Shape(3, 5), batch.actions().getShape());
+                assertEquals(2, batch.burnIn());
+
+                assertArrayEquals(new float[]{
+                        0, 1, 2, 3, 4, 5,
+                        4, 5, 6, 7, 8, 0,
+                        6, 7, 8, 0, 0, 0
+                }, batch.states().toFloatArray());
+                assertArrayEquals(new long[]{
+                        0, 1, 2, 3, 4,
+                        4, 5, 6, 7, 0,
+                        6, 7, 0, 0, 0
+                }, batch.actions().toLongArray());
+                assertArrayEquals(new boolean[]{
+                        true, true, true, true, true,
+                        true, true, true, true, false,
+                        true, true, false, false, false
+                }, batch.mask().toBooleanArray());
+                assertArrayEquals(new boolean[]{
+                        false, false, false, false, false,
+                        false, false, false, true, false,
+                        false, true, false, false, false
+                }, batch.dones().toBooleanArray());
+            }
+        }
+    }
+
+    @Test
+    void shouldNotMixEpisodesInAWindow() {
+        try (var buffer = buffer(64, 0.0)) {
+            episode(buffer, 0, 3);
+            episode(buffer, 100, 5);
+
+            // first episode: offsets 0 and 2 padded; second: offset 0 full, 2 and 4 padded
+            assertEquals(5, buffer.sequences());
+            try (var batch = buffer.gather(new int[]{1, 2}, new float[]{1, 1}, manager)) {
+                assertArrayEquals(new float[]{
+                        2, 3, 0, 0, 0, 0,
+                        100, 101, 102, 103, 104, 105
+                }, batch.states().toFloatArray());
+            }
+        }
+    }
+
+    @Test
+    void shouldEvictSequencesWhoseObservationsWereOverwritten() {
+        try (var buffer = buffer(12, 0.0)) {
+            for (int e = 0; e < 10; e++) {
+                episode(buffer, e * 10, 5);
+            }
+
+            for (int i = 0; i < 20; i++) {
+                try (var batch = buffer.sample(4, 0.4, manager)) {
+                    float[] states = batch.states().toFloatArray();
+                    for (int b = 0; b < 4; b++) {
+                        // only the last two episodes (6 observations each) fit in the ring
+                        assertTrue(states[b * 6] >= 80, "state " + states[b * 6]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldSampleProportionallyToSequencePriorities() {
+        try (var buffer = buffer(64, 1.0)) {
+            episode(buffer, 0, 8);
+            buffer.updatePriorities(new int[]{0, 1, 2, 3}, new float[]{0.01f, 0.01f, 0.01f, 10f});
+
+            try (var batch = buffer.sample(64, 1.0, manager)) {
+                long hits = Arrays.stream(batch.indices()).filter(i -> i == 3).count();
+                assertTrue(hits > 55, "hits " + hits);
+
+                float[] weights = batch.weights().toFloatArray();
+                for (int i = 0; i < weights.length; i++) {
+                    assertTrue(weights[i] > 0 && weights[i] <= 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldPrioritizeOnlyTheTrainedSteps() {
+        try (var buffer = buffer(64, 1.0)) {
+            episode(buffer, 0, 8);
+
+            // sequence 2 has one padded step, sequence 3 has only burn-in steps
+            try (var batch = buffer.gather(new int[]{0, 2, 3}, new float[]{1, 1, 1}, manager);
+                 var tdErrors = manager.create(new float[]{
+                         100, -100, 1, -2, 3,
+                         100, 100, -4, 2, 50,
+                         100, 100, 50, 50, 50
+                 }, new Shape(3, 5))) {
+                buffer.updatePriorities(batch, tdErrors);
+
+                assertEquals(0.9 * 3 + 0.1 * 2, buffer.priority(0), 1e-5);
+                assertEquals(0.9 * 4 + 0.1 * 3, buffer.priority(2), 1e-5);
+                assertEquals(0.0, buffer.priority(3), 1e-5);
+
+                try (var trainedErrors = manager.create(new float[]{1, 1, 1, 2, 2, 2, 3, 3, 3}, new Shape(3, 3))) {
+                    buffer.updatePriorities(batch, trainedErrors);
+                    assertEquals(1.0, buffer.priority(0), 1e-5);
+                    assertEquals(2.0, buffer.priority(2), 1e-5);
+                }
+
+                assertThrows(IllegalArgumentException.class,
+                        () -> buffer.updatePriorities(batch, manager.zeros(new Shape(3, 4))));
+            }
+        }
+    }
+}
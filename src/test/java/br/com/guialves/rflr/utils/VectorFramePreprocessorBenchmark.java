@@ -0,0 +1,128 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.util.NDImageUtils;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+/**
+ * Grayscale and resize of a 210x160 RGB Atari frame to 84x84, the DJL NDArray path of
+ * {@link PreProcessingWrapper} against {@link VectorFramePreprocessor}, with and without max-pooling,
+ * and {@link OpenCvFramePreprocessor}.
+ * <p>
+ * Run with exec:exec, a plain java launch whose classpath and flags the JMH fork reuses:
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=br.com.guialves.rflr.utils.VectorFramePreprocessorBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-native-access=ALL-UNNAMED", "--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class VectorFramePreprocessorBenchmark {
+
+    private static final int HEIGHT = 210;
+    private static final int WIDTH = 160;
+    private static final int RESIZE = 84;
+
+    private Arena arena;
+    private MemorySegment frame;
+    private MemorySegment previous;
+    private MemorySegment out;
+    private VectorFramePreprocessor bilinear;
+    private VectorFramePreprocessor area;
+    private NDManager manager;
+    private OpenCvFramePreprocessor opencv;
+    private BytePointer framePointer;
+    private Mat opencvOut;
+
+    @Setup
+    public void setUp() {
+        arena = Arena.ofConfined();
+        frame = arena.allocate((long) HEIGHT * WIDTH * 3);
+        previous = arena.allocate(frame.byteSize());
+        out = arena.allocate(RESIZE * RESIZE);
+
+        var random = RandomGenerator.of("L64X128MixRandom");
+        for (long i = 0; i < frame.byteSize(); i++) {
+            frame.set(JAVA_BYTE, i, (byte) random.nextInt());
+            previous.set(JAVA_BYTE, i, (byte) random.nextInt());
+        }
+
+        bilinear = new VectorFramePreprocessor(HEIGHT, WIDTH, RESIZE, RESIZE,
+                VectorFramePreprocessor.Grayscale.MEAN, VectorFramePreprocessor.Resize.BILINEAR);
+        area = new VectorFramePreprocessor(HEIGHT, WIDTH, RESIZE, RESIZE,
+                VectorFramePreprocessor.Grayscale.MEAN, VectorFramePreprocessor.Resize.AREA);
+        manager = NDManager.newBaseManager();
+
+        opencv = new OpenCvFramePreprocessor(HEIGHT, WIDTH, RESIZE, Image.Interpolation.AREA);
+        framePointer = new BytePointer(frame.asByteBuffer());
+        opencvOut = OpenCvFramePreprocessor.destination(out.asByteBuffer(), RESIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        opencvOut.close();
+        opencv.close();
+        manager.close();
+        arena.close();
+    }
+
+    @Benchmark
+    public byte djlBilinear() {
+        try (var sub = manager.newSubManager()) {
+            var state = sub.create(frame.asByteBuffer(), new Shape(HEIGHT, WIDTH, 3), DataType.UINT8);
+            var gray = state.toType(DataType.FLOAT32, false).mean(new int[]{2}, true).toType(DataType.UINT8, false);
+            var resized = NDImageUtils.resize(gray, RESIZE, RESIZE, Image.Interpolation.BILINEAR).transpose(2, 0, 1);
+            return resized.toByteBuffer().get(0);
+        }
+    }
+
+    @Benchmark
+    public MemorySegment vectorBilinear() {
+        bilinear.process(frame, out);
+        return out;
+    }
+
+    @Benchmark
+    public MemorySegment vectorArea() {
+        area.process(frame, out);
+        return out;
+    }
+
+    @Benchmark
+    public MemorySegment vectorAreaMaxPool() {
+        area.process(frame, previous, out);
+        return out;
+    }
+
+    @Benchmark
+    public Mat opencvArea() {
+        opencv.process(framePointer, opencvOut);
+        return opencvOut;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        var options = new OptionsBuilder()
+                .include(VectorFramePreprocessorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,119 @@
+package br.com.guialves.rflr.utils;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.util.NDImageUtils;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.util.random.RandomGenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VectorFramePreprocessorTest {
+
+    private static final int HEIGHT = 210;
+    private static final int WIDTH = 160;
+    private static final int RESIZE = 84;
+
+    private NDManager manager;
+
+    @BeforeEach
+    void setUp() {
+        manager = NDManager.newBaseManager();
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.close();
+    }
+
+    /**
+     * Smooth gradients with some noise, like a game screen.
+     */
+    private static byte[] frame(RandomGenerator random) {
+        var frame = new byte[HEIGHT * WIDTH * 3];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int i = (y * WIDTH + x) * 3;
+                frame[i] = (byte) (y + random.nextInt(16));
+                frame[i + 1] = (byte) (x + random.nextInt(16));
+                frame[i + 2] = (byte) ((x + y) / 2 + random.nextInt(16));
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Grayscale and resize as {@link PreProcessingWrapper} does with DJL.
+     */
+    private byte[] djlPreprocess(byte[] frame, Image.Interpolation interpolation) {
+        try (var sub = manager.newSubManager()) {
+            var state = sub.create(ByteBuffer.wrap(frame), new Shape(HEIGHT, WIDTH, 3), DataType.UINT8);
+            var gray = state.toType(DataType.FLOAT32, false).mean(new int[]{2}, true).toType(DataType.UINT8, false);
+            return NDImageUtils.resize(gray, RESIZE, RESIZE, interpolation).toByteArray();
+        }
+    }
+
+    private static byte[] vectorPreprocess(byte[] frame, byte[] previous, VectorFramePreprocessor.Resize resize) {
+        var preprocessor = new VectorFramePreprocessor(HEIGHT, WIDTH, RESIZE, RESIZE,
+                VectorFramePreprocessor.Grayscale.MEAN, resize);
+        var out = new byte[RESIZE * RESIZE];
+        preprocessor.process(MemorySegment.ofArray(frame),
+                previous == null ? null : MemorySegment.ofArray(previous), MemorySegment.ofArray(out));
+        return out;
+    }
+
+    private static void assertClose(byte[] expected, byte[] actual, int tolerance) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            int diff = Math.abs(Byte.toUnsignedInt(expected[i]) - Byte.toUnsignedInt(actual[i]));
+            assertTrue(diff <= tolerance, "pixel %d: %d vs %d".formatted(
+                    i, Byte.toUnsignedInt(expected[i]), Byte.toUnsignedInt(actual[i])));
+        }
+    }
+
+    @Test
+    void shouldMatchTheDjlBilinearPath() {
+        var frame = frame(RandomGenerator.of("L64X128MixRandom"));
+        // DJL truncates the gray mean and the resized values, the kernel rounds once
+        assertClose(djlPreprocess(frame, Image.Interpolation.BILINEAR),
+                vectorPreprocess(frame, null, VectorFramePreprocessor.Resize.BILINEAR), 2);
+    }
+
+    @Test
+    void shouldMatchTheDjlAreaPath() {
+        var frame = frame(RandomGenerator.of("L64X128MixRandom"));
+        assertClose(djlPreprocess(frame, Image.Interpolation.AREA),
+                vectorPreprocess(frame, null, VectorFramePreprocessor.Resize.AREA), 2);
+    }
+
+    @Test
+    void shouldMaxPoolTwoFramesBeforeTheGrayscale() {
+        var random = RandomGenerator.of("L64X128MixRandom");
+        var frame = frame(random);
+        var previous = frame(random);
+
+        var pooled = new byte[frame.length];
+        for (int i = 0; i < frame.length; i++) {
+            pooled[i] = (byte) Math.max(Byte.toUnsignedInt(frame[i]), Byte.toUnsignedInt(previous[i]));
+        }
+
+        assertArrayEquals(vectorPreprocess(pooled, null, VectorFramePreprocessor.Resize.AREA),
+                vectorPreprocess(frame, previous, VectorFramePreprocessor.Resize.AREA));
+    }
+
+    @Test
+    void shouldRejectSmallSegments() {
+        var preprocessor = new VectorFramePreprocessor(HEIGHT, WIDTH, RESIZE, RESIZE,
+                VectorFramePreprocessor.Grayscale.LUMINANCE, VectorFramePreprocessor.Resize.BILINEAR);
+        var frame = MemorySegment.ofArray(new byte[HEIGHT * WIDTH * 3]);
+        assertThrows(IllegalArgumentException.class,
+                () -> preprocessor.process(frame, MemorySegment.ofArray(new byte[RESIZE])));
+    }
+}